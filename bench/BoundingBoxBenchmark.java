@@ -0,0 +1,75 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Counts the distance computations the bounding box prefilter saves when filtering the
+ * incidents of a State by range, and times the filter with and without it.
+ *
+ * Usage: BoundingBoxBenchmark [csv file] [copies of every incident] [queries per radius]
+ *
+ * @version 1.0
+ */
+public class BoundingBoxBenchmark {
+
+	private static final double[] RANGES = { 1, 5, 20, 50, 200 };
+
+	public static void main(String[] args) throws IOException {
+		String file = args.length > 0 ? args[0] : "Data/test_read_300_rows.csv";
+		int copies = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		int queries = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+		IncidentStore incidents = SpatialIndexBenchmark.scale(ReadAllocation.read(file), copies, new Random(42));
+		RedBlackTree<String, States> StateTree = ReadAllocation.buildBST(incidents);
+		States state = SpatialIndexBenchmark.largestState(StateTree);
+		System.out.printf("%s: %d incidents%n", state.getStateName(), state.size());
+
+		Random random = new Random(7);
+		for (double range : RANGES) {
+			double[][] centers = new double[queries][];
+			long boxed = 0;
+			for (int q = 0; q < queries; q++) {
+				int row = state.getStart() + random.nextInt(state.size());
+				centers[q] = new double[] { incidents.getLatitude(row), incidents.getLongitude(row) };
+				BoundingBox box = BoundingBox.around(centers[q][0], centers[q][1], range);
+				for (int i = state.getStart(); i < state.getEnd(); i++) {
+					if (box.contains(incidents.getLatitude(i), incidents.getLongitude(i))) boxed++;
+				}
+			}
+			long all = (long) state.size() * queries;
+
+			// warm up both paths before timing them
+			run(state, centers, range, true);
+			run(state, centers, range, false);
+			long start = System.nanoTime();
+			long fullHits = run(state, centers, range, false);
+			long fullTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			long boxHits = run(state, centers, range, true);
+			long boxTime = System.nanoTime() - start;
+
+			System.out.printf("range %5.1f km: distances %9d -> %7d (%5.2f%%), sort+filter %8.1f us/query, "
+					+ "box+filter %7.1f us/query, hits %s%n", range, all, boxed, 100.0 * boxed / all,
+					fullTime / 1e3 / queries, boxTime / 1e3 / queries,
+					fullHits == boxHits ? Long.toString(boxHits) : "MISMATCH " + fullHits + " vs " + boxHits);
+		}
+	}
+
+	/**
+	 * Runs every query through one of the two filters
+	 *
+	 * @return Total number of incidents found
+	 */
+	private static long run(States state, double[][] centers, double range, boolean box) {
+		long hits = 0;
+		for (double[] center : centers) {
+			if (box) {
+				hits += ReadAllocation.filterIncidents(state, center[1], center[0], range).size();
+			} else {
+				ArrayList<Incidents> sorted = ReadAllocation.SortIncidents(state, center[1], center[0]);
+				hits += ReadAllocation.filterIncidents(sorted, range).size();
+			}
+		}
+		return hits;
+	}
+}
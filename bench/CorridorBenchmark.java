@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compares a corridor query along a route against measuring every incident against the route,
+ * and against a radius query around every route point, which is how a route was covered
+ * before. The radius queries find an incident once for every point it is near, so their
+ * results are also merged into a set to count the incidents that would have been counted twice.
+ *
+ * Usage: CorridorBenchmark [csv file] [copies of every incident] [routes per width] [points per route]
+ *
+ * The incidents are scaled as in SpatialIndexBenchmark and every route is a random walk through
+ * the State with the most incidents, with steps of about 10 km.
+ *
+ * @version 1.0
+ */
+public class CorridorBenchmark {
+
+	private static final double[] WIDTHS = { 1, 5, 20 };
+	// standard deviation of one step of a route in degrees
+	private static final double STEP = 0.1;
+
+	public static void main(String[] args) throws IOException {
+		String file = args.length > 0 ? args[0] : "Data/test_read_300_rows.csv";
+		int copies = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		int routes = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+		int points = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+
+		IncidentStore incidents = SpatialIndexBenchmark.scale(ReadAllocation.read(file), copies, new Random(42));
+		QueryEngine engine = new QueryEngine(incidents);
+		States state = SpatialIndexBenchmark.largestState(engine.getStateTree());
+		System.out.printf("%s: %d incidents, %d in total, routes of %d points%n", state.getStateName(), state.size(),
+				incidents.size(), points);
+
+		Random random = new Random(7);
+		for (double width : WIDTHS) {
+			Corridor[] corridors = new Corridor[routes];
+			for (int r = 0; r < routes; r++) {
+				int row = state.getStart() + random.nextInt(state.size());
+				double[] latitudes = new double[points], longitudes = new double[points];
+				latitudes[0] = incidents.getLatitude(row);
+				longitudes[0] = incidents.getLongitude(row);
+				for (int p = 1; p < points; p++) {
+					latitudes[p] = latitudes[p - 1] + random.nextGaussian() * STEP;
+					longitudes[p] = longitudes[p - 1] + random.nextGaussian() * STEP;
+				}
+				corridors[r] = new Corridor(latitudes, longitudes, width);
+			}
+
+			// warm up every path before timing them
+			corridor(engine, corridors);
+			scan(incidents, corridors);
+			pointByPoint(engine, corridors, width, new long[2]);
+			long start = System.nanoTime();
+			long found = corridor(engine, corridors);
+			long corridorTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			long scanned = scan(incidents, corridors);
+			long scanTime = System.nanoTime() - start;
+			long[] counts = new long[2];
+			start = System.nanoTime();
+			pointByPoint(engine, corridors, width, counts);
+			long pointTime = System.nanoTime() - start;
+
+			System.out.printf("width %4.0f km: corridor %7.1f us/route (%6.1f incidents), scan %8.1f us/route (%s), radius per point %7.1f us/route (%6.1f incidents, %6.1f counted twice)%n",
+					width, corridorTime / 1e3 / routes, (double) found / routes, scanTime / 1e3 / routes,
+					found == scanned ? "same incidents" : "MISMATCH " + scanned, pointTime / 1e3 / routes,
+					(double) counts[1] / routes, (double) (counts[0] - counts[1]) / routes);
+		}
+	}
+
+	/**
+	 * Runs every corridor query and counts the incidents found
+	 */
+	private static long corridor(QueryEngine engine, Corridor[] corridors) {
+		long found = 0;
+		for (Corridor corridor : corridors) {
+			found += engine.corridor(corridor, null, Integer.MIN_VALUE, Integer.MAX_VALUE).size();
+		}
+		return found;
+	}
+
+	/**
+	 * Measures every incident against every segment of each route and counts the ones in the corridor
+	 */
+	private static long scan(IncidentStore incidents, Corridor[] corridors) {
+		long found = 0;
+		double[] measured = new double[2];
+		for (Corridor corridor : corridors) {
+			int[] segments = new int[corridor.segments()];
+			for (int s = 0; s < segments.length; s++) {
+				segments[s] = s;
+			}
+			for (int row = 0; row < incidents.size(); row++) {
+				if (corridor.locate(incidents.getLatitude(row), incidents.getLongitude(row),
+						incidents.getLatitudeRadians(row), incidents.getLongitudeRadians(row),
+						incidents.getCosLatitude(row), segments, segments.length, measured)) {
+					found++;
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Runs a radius query around every point of every route and merges the incidents of a route
+	 *
+	 * @param counts Receives the incidents found by all the radius queries and the distinct ones
+	 */
+	private static void pointByPoint(QueryEngine engine, Corridor[] corridors, double width, long[] counts) {
+		for (Corridor corridor : corridors) {
+			Set<Integer> distinct = new HashSet<>();
+			for (int p = 0; p < corridor.size(); p++) {
+				QueryResult result = engine.radius(
+						new QueryContext(corridor.getLatitude(p), corridor.getLongitude(p), width));
+				counts[0] += result.size();
+				for (int i = 0; i < result.size(); i++) {
+					distinct.add(result.getRow(i));
+				}
+			}
+			counts[1] += distinct.size();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Measures how many incidents per second can be given a distance and sorted by it.
+ *
+ * Usage: DistanceKernelBenchmark [csv file] [copies of every incident] [rounds]
+ *
+ * The old way converted both locations from degrees and evaluated the spherical law of cosines
+ * inside the comparison, so every incident had its distance computed once for every comparison
+ * it took part in. It is compared against computing each distance once with the kernel and
+ * sorting packed primitive keys.
+ *
+ * @version 1.0
+ */
+public class DistanceKernelBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		String file = args.length > 0 ? args[0] : "Data/test_read_300_rows.csv";
+		int copies = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		IncidentStore incidents = SpatialIndexBenchmark.scale(ReadAllocation.read(file), copies, new Random(42));
+		RedBlackTree<String, States> StateTree = ReadAllocation.buildBST(incidents);
+		States state = SpatialIndexBenchmark.largestState(StateTree);
+		System.out.printf("%s: %d incidents%n", state.getStateName(), state.size());
+
+		Random random = new Random(7);
+		double[][] centers = new double[rounds][];
+		for (int r = 0; r < rounds; r++) {
+			int row = state.getStart() + random.nextInt(state.size());
+			centers[r] = new double[] { incidents.getLatitude(row), incidents.getLongitude(row) };
+		}
+
+		// distances alone, one per incident
+		report("law of cosines", state, centers, 0);
+		report("haversine kernel", state, centers, 1);
+		// distances and sort
+		report("comparator sort", state, centers, 2);
+		report("keyed sort", state, centers, 3);
+	}
+
+	/**
+	 * Warms up and times one way of computing distances over every round
+	 */
+	private static void report(String name, States state, double[][] centers, int mode) {
+		double check = run(state, centers, mode);
+		long start = System.nanoTime();
+		check += run(state, centers, mode);
+		long time = System.nanoTime() - start;
+		double perSecond = (double) state.size() * centers.length / (time / 1e9);
+		System.out.printf("%-18s %12.0f incidents/s (%.1f ms per round, check %.0f)%n", name, perSecond,
+				time / 1e6 / centers.length, check);
+	}
+
+	private static double run(States state, double[][] centers, int mode) {
+		IncidentStore store = state.getStore();
+		double check = 0;
+		for (double[] center : centers) {
+			double userLat = center[0], userLong = center[1];
+			if (mode == 0) {
+				for (int row = state.getStart(); row < state.getEnd(); row++) {
+					check += lawOfCosines(store.getLatitude(row), store.getLongitude(row), userLat, userLong);
+				}
+			} else if (mode == 1) {
+				DistanceKernel kernel = new DistanceKernel(userLat, userLong);
+				for (int row = state.getStart(); row < state.getEnd(); row++) {
+					check += kernel.distance(store.getLatitudeRadians(row), store.getLongitudeRadians(row),
+							store.getCosLatitude(row));
+				}
+			} else if (mode == 2) {
+				ArrayList<Incidents> sorted = state.getIncidentsList();
+				Collections.sort(sorted, new Comparator<Incidents>() {
+					public int compare(Incidents a, Incidents b) {
+						return Double.compare(lawOfCosines(a.getLatitude(), a.getLongitude(), userLat, userLong),
+								lawOfCosines(b.getLatitude(), b.getLongitude(), userLat, userLong));
+					}
+				});
+				check += sorted.get(0).getLatitude();
+			} else {
+				ArrayList<Incidents> sorted = ReadAllocation.SortIncidents(state, userLong, userLat);
+				check += sorted.get(0).getLatitude();
+			}
+		}
+		return check;
+	}
+
+	/**
+	 * The distance formula used before the kernel
+	 */
+	private static double lawOfCosines(double lat1, double lon1, double lat2, double lon2) {
+		double theta = lon1 - lon2;
+		double dist = Math.sin(Math.toRadians(lat1)) * Math.sin(Math.toRadians(lat2))
+				+ Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) * Math.cos(Math.toRadians(theta));
+		dist = Math.toDegrees(Math.acos(Math.min(1, dist)));
+		return dist * Incidents.KM_PER_DEGREE;
+	}
+}
@@ -0,0 +1,454 @@
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Throughput and allocation of the hot paths of loading and querying incidents, measured the
+ * way JMH measures them: every benchmark runs warmup iterations that are thrown away and then
+ * timed measurement iterations, each calling the benchmark in a loop for a fixed time and
+ * feeding its results to a sink so the JIT cannot drop the work. The bytes the thread allocates
+ * over an iteration are read from the JVM.
+ *
+ * <pre>
+ * Usage: HotPathBenchmark [options] [regular expression of the benchmarks to run]
+ *   --copies n       copies of every sample incident in the scaled dataset, default 100
+ *   --warmup n       warmup iterations, default 3
+ *   --iterations n   measurement iterations, default 5
+ *   --time ms        length of every iteration, default 1000
+ *   --json file      writes the results as JSON in the layout of JMH -rf json
+ *   --baseline file  compares against earlier JSON results and exits with status 1 when a
+ *                    benchmark lost more than the tolerance of its throughput or allocates more
+ *                    than the tolerance more per operation
+ *   --tolerance pct  allowed regression in percent, default 10
+ * </pre>
+ *
+ * The loading and query benchmarks run on Data/test_read_300_rows.csv and on a scaled dataset.
+ * Loading reads the sample records repeated the given number of times from a temporary file,
+ * queries run over the sample incidents copied with moved locations and dates as in
+ * SpatialIndexBenchmark. The RedBlackTree benchmarks work on their own synthetic keys.
+ *
+ * @version 1.0
+ */
+public class HotPathBenchmark {
+
+	private static final String SAMPLE = "Data/test_read_300_rows.csv";
+	// query locations cycled through by the query benchmarks
+	private static final int CENTERS = 64;
+	// range of the filter benchmarks in kilometers
+	private static final double RANGE = 20;
+	// incidents given a distance and keys put or looked up by one call of those benchmarks
+	private static final int BATCH = 1024;
+	// allocation growth below this many bytes per operation is never a regression
+	private static final double ALLOCATION_SLACK = 16;
+	// JMH names the allocation metrics of its gc profiler with a leading middle dot
+	private static final String ALLOCATION_RATE = "\u00b7gc.alloc.rate";
+	private static final String ALLOCATION_NORM = "\u00b7gc.alloc.rate.norm";
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	// receives the results of every call so the work is not optimized away
+	static double sink;
+
+	private int warmup = 3, iterations = 5;
+	private long timeNanos = 1_000_000_000L;
+	private Pattern filter = Pattern.compile(".*");
+	private final List<Result> results = new ArrayList<>();
+
+	/**
+	 * One call of a benchmark, doing the work of one or more operations
+	 */
+	private interface Body {
+		double run(int invocation) throws IOException;
+	}
+
+	public static void main(String[] args) throws IOException {
+		HotPathBenchmark suite = new HotPathBenchmark();
+		int copies = 100;
+		String json = null, baseline = null;
+		double tolerance = 10;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--copies": copies = Integer.parseInt(args[++i]); break;
+			case "--warmup": suite.warmup = Integer.parseInt(args[++i]); break;
+			case "--iterations": suite.iterations = Integer.parseInt(args[++i]); break;
+			case "--time": suite.timeNanos = Long.parseLong(args[++i]) * 1_000_000L; break;
+			case "--json": json = args[++i]; break;
+			case "--baseline": baseline = args[++i]; break;
+			case "--tolerance": tolerance = Double.parseDouble(args[++i]); break;
+			default: suite.filter = Pattern.compile(args[i]);
+			}
+		}
+
+		suite.dataset("sample", new File(SAMPLE), ReadAllocation.read(SAMPLE));
+		File scaled = repeatRecords(new File(SAMPLE), copies);
+		try {
+			suite.dataset("scaled", scaled, SpatialIndexBenchmark.scale(ReadAllocation.read(SAMPLE), copies, new Random(42)));
+		} finally {
+			scaled.delete();
+		}
+		suite.redBlackTree(SpatialIndexBenchmark.largestState(ReadAllocation.buildBST(ReadAllocation.read(SAMPLE))));
+
+		JsonArray report = suite.toJson();
+		if (json != null) {
+			try (Writer out = new OutputStreamWriter(new FileOutputStream(json), StandardCharsets.UTF_8)) {
+				new GsonBuilder().setPrettyPrinting().create().toJson(report, out);
+			}
+			System.out.println("Results written to " + json);
+		}
+		if (baseline != null && !suite.compare(new File(baseline), tolerance)) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Runs the loading and query benchmarks over one dataset
+	 *
+	 * @param name Name of the dataset, recorded as a parameter of every result
+	 * @param file CSV file of the dataset
+	 * @param incidents Incidents the query benchmarks run over
+	 */
+	private void dataset(String name, File file, IncidentStore incidents) throws IOException {
+		Map<String, String> params = new LinkedHashMap<>();
+		params.put("dataset", name);
+		byte[] bytes = Files.readAllBytes(file.toPath());
+
+		run("read", params, 1, invocation -> ReadAllocation.read(file.getPath()).size());
+		run("buildIncidents", params, 1, invocation -> {
+			CsvReader data = new CsvReader(new ByteArrayInputStream(bytes));
+			data.next(); // header
+			IncidentStore store = new IncidentStore();
+			ReadAllocation.buildIncidents(data, store);
+			return store.size();
+		});
+		run("buildBST", params, 1, invocation -> ReadAllocation.buildBST(incidents).size());
+
+		States state = SpatialIndexBenchmark.largestState(ReadAllocation.buildBST(incidents));
+		Random random = new Random(7);
+		double[][] centers = new double[CENTERS][];
+		for (int c = 0; c < CENTERS; c++) {
+			int row = state.getStart() + random.nextInt(state.size());
+			centers[c] = new double[] { incidents.getLatitude(row), incidents.getLongitude(row) };
+		}
+		params.put("incidents", Integer.toString(state.size()));
+		run("SortIncidents", params, 1, invocation -> {
+			double[] center = centers[invocation % CENTERS];
+			return ReadAllocation.SortIncidents(state, center[1], center[0]).size();
+		});
+		ArrayList<Incidents> sorted = ReadAllocation.SortIncidents(state, centers[0][1], centers[0][0]);
+		run("filterIncidents.sorted", params, 1, invocation -> ReadAllocation.filterIncidents(sorted, RANGE).size());
+		run("filterIncidents.box", params, 1, invocation -> {
+			double[] center = centers[invocation % CENTERS];
+			return ReadAllocation.filterIncidents(state, center[1], center[0], RANGE).size();
+		});
+
+		Incidents[] batch = new Incidents[BATCH];
+		for (int i = 0; i < BATCH; i++) {
+			batch[i] = incidents.get(state.getStart() + i % state.size());
+		}
+		run("toDistance", params, BATCH, invocation -> {
+			double[] center = centers[invocation % CENTERS];
+			double sum = 0;
+			for (Incidents incident : batch) {
+				sum += incident.toDistance(incident.getLatitude(), incident.getLongitude(), center[0], center[1]);
+			}
+			return sum;
+		});
+	}
+
+	/**
+	 * Runs the RedBlackTree benchmarks over shuffled synthetic keys
+	 *
+	 * @param value State stored under every key
+	 */
+	private void redBlackTree(States value) throws IOException {
+		Map<String, String> params = new LinkedHashMap<>();
+		params.put("keys", Integer.toString(BATCH));
+		String[] keys = new String[BATCH];
+		for (int i = 0; i < BATCH; i++) {
+			keys[i] = String.format("key-%05d", i);
+		}
+		shuffle(keys, new Random(11));
+		run("RedBlackTree.put", params, BATCH, invocation -> {
+			RedBlackTree<String, States> tree = new RedBlackTree<>();
+			for (String key : keys) {
+				tree.put(key, value);
+			}
+			return tree.size();
+		});
+		RedBlackTree<String, States> tree = new RedBlackTree<>();
+		for (String key : keys) {
+			tree.put(key, value);
+		}
+		String[] lookups = keys.clone();
+		shuffle(lookups, new Random(13));
+		run("RedBlackTree.get", params, BATCH, invocation -> {
+			int found = 0;
+			for (String key : lookups) {
+				if (tree.get(key) == value) found++;
+			}
+			return found;
+		});
+	}
+
+	private static void shuffle(String[] keys, Random random) {
+		for (int i = keys.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			String key = keys[i];
+			keys[i] = keys[j];
+			keys[j] = key;
+		}
+	}
+
+	/**
+	 * Warms up and measures one benchmark if it matches the filter, and prints its result
+	 *
+	 * @param name Name of the benchmark
+	 * @param params Parameters of this run, copied into the result
+	 * @param operations Operations done by one call of the body
+	 * @param body Work of the benchmark
+	 */
+	private void run(String name, Map<String, String> params, int operations, Body body) throws IOException {
+		if (!filter.matcher(name).find()) return;
+		for (int i = 0; i < warmup; i++) {
+			iteration(operations, body);
+		}
+		Result result = new Result(name, new LinkedHashMap<>(params));
+		result.throughput = new double[iterations];
+		result.allocation = new double[iterations];
+		for (int i = 0; i < iterations; i++) {
+			double[] measured = iteration(operations, body);
+			result.throughput[i] = measured[0];
+			result.allocation[i] = measured[1];
+		}
+		results.add(result);
+		System.out.printf("%-24s %-32s %14.1f +- %10.1f ops/s %12.1f B/op%n", name, params, result.score(),
+				result.error(), mean(result.allocation));
+	}
+
+	/**
+	 * Calls a body for the length of one iteration
+	 *
+	 * @return Operations per second and bytes allocated per operation, NaN if the JVM does not
+	 * count allocations
+	 */
+	private double[] iteration(int operations, Body body) throws IOException {
+		long allocated = allocatedBytes();
+		long start = System.nanoTime(), deadline = start + timeNanos;
+		double consumed = 0;
+		long calls = 0;
+		do {
+			consumed += body.run((int) calls++);
+		} while (System.nanoTime() < deadline);
+		long elapsed = System.nanoTime() - start;
+		long bytes = allocatedBytes() - allocated;
+		sink += consumed;
+		double ops = (double) calls * operations;
+		return new double[] { ops * 1e9 / elapsed, allocated < 0 ? Double.NaN : bytes / ops };
+	}
+
+	/**
+	 * Bytes allocated by the current thread so far, -1 if the JVM does not count them
+	 */
+	private static long allocatedBytes() {
+		if (THREADS instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * Writes a temporary CSV file holding the header of a file and its records repeated
+	 *
+	 * @param sample CSV file with a header line
+	 * @param copies Number of times every record is written
+	 * @return Temporary file, the caller deletes it
+	 */
+	private static File repeatRecords(File sample, int copies) throws IOException {
+		String text = new String(Files.readAllBytes(sample.toPath()), StandardCharsets.UTF_8);
+		int header = text.indexOf('\n') + 1;
+		String records = text.substring(header);
+		if (!records.endsWith("\n")) records += "\n";
+		File scaled = File.createTempFile("incidents", ".csv");
+		try (Writer out = new OutputStreamWriter(new FileOutputStream(scaled), StandardCharsets.UTF_8)) {
+			out.write(text, 0, header);
+			for (int c = 0; c < copies; c++) {
+				out.write(records);
+			}
+		}
+		return scaled;
+	}
+
+	/**
+	 * Results in the layout JMH writes with -rf json, so the tools reading those files can read these
+	 */
+	private JsonArray toJson() {
+		JsonArray report = new JsonArray();
+		for (Result result : results) {
+			JsonObject entry = new JsonObject();
+			entry.addProperty("benchmark", HotPathBenchmark.class.getName() + "." + result.name);
+			entry.addProperty("mode", "thrpt");
+			entry.addProperty("threads", 1);
+			entry.addProperty("forks", 0);
+			entry.addProperty("jvm", System.getProperty("java.home"));
+			entry.addProperty("jdkVersion", System.getProperty("java.version"));
+			entry.addProperty("warmupIterations", warmup);
+			entry.addProperty("warmupTime", timeNanos / 1_000_000 + " ms");
+			entry.addProperty("measurementIterations", iterations);
+			entry.addProperty("measurementTime", timeNanos / 1_000_000 + " ms");
+			JsonObject params = new JsonObject();
+			for (Map.Entry<String, String> param : result.params.entrySet()) {
+				params.addProperty(param.getKey(), param.getValue());
+			}
+			entry.add("params", params);
+			entry.add("primaryMetric", metric(result.throughput, "ops/s"));
+			JsonObject secondary = new JsonObject();
+			double[] rate = new double[iterations];
+			for (int i = 0; i < iterations; i++) {
+				rate[i] = result.allocation[i] * result.throughput[i] / (1024 * 1024);
+			}
+			secondary.add(ALLOCATION_RATE, metric(rate, "MB/sec"));
+			secondary.add(ALLOCATION_NORM, metric(result.allocation, "B/op"));
+			entry.add("secondaryMetrics", secondary);
+			report.add(entry);
+		}
+		return report;
+	}
+
+	private static JsonObject metric(double[] raw, String unit) {
+		JsonObject metric = new JsonObject();
+		double score = mean(raw), error = error(raw);
+		metric.addProperty("score", score);
+		metric.addProperty("scoreError", error);
+		JsonArray confidence = new JsonArray();
+		confidence.add(score - error);
+		confidence.add(score + error);
+		metric.add("scoreConfidence", confidence);
+		metric.addProperty("scoreUnit", unit);
+		JsonArray fork = new JsonArray();
+		for (double value : raw) {
+			fork.add(value);
+		}
+		JsonArray rawData = new JsonArray();
+		rawData.add(fork);
+		metric.add("rawData", rawData);
+		return metric;
+	}
+
+	/**
+	 * Checks the results against a baseline written by an earlier run with --json
+	 *
+	 * @param baseline JSON file of earlier results
+	 * @param tolerance Allowed regression in percent
+	 * @return True if no benchmark regressed
+	 */
+	private boolean compare(File baseline, double tolerance) throws IOException {
+		Map<String, JsonObject> earlier = new LinkedHashMap<>();
+		try (Reader in = new InputStreamReader(new FileInputStream(baseline), StandardCharsets.UTF_8)) {
+			for (JsonElement element : new JsonParser().parse(in).getAsJsonArray()) {
+				JsonObject entry = element.getAsJsonObject();
+				earlier.put(entry.get("benchmark").getAsString() + " " + entry.get("params"), entry);
+			}
+		}
+		boolean passed = true;
+		for (JsonElement element : toJson()) {
+			JsonObject entry = element.getAsJsonObject();
+			String key = entry.get("benchmark").getAsString() + " " + entry.get("params");
+			JsonObject before = earlier.get(key);
+			if (before == null) continue;
+			double oldScore = score(before.getAsJsonObject("primaryMetric"));
+			double newScore = score(entry.getAsJsonObject("primaryMetric"));
+			if (newScore < oldScore * (1 - tolerance / 100)) {
+				System.out.printf("REGRESSION %s: %.1f ops/s, was %.1f%n", key, newScore, oldScore);
+				passed = false;
+			}
+			JsonObject oldSecondary = before.getAsJsonObject("secondaryMetrics");
+			if (oldSecondary == null || !oldSecondary.has(ALLOCATION_NORM)) continue;
+			double oldBytes = score(oldSecondary.getAsJsonObject(ALLOCATION_NORM));
+			double newBytes = score(entry.getAsJsonObject("secondaryMetrics").getAsJsonObject(ALLOCATION_NORM));
+			if (newBytes > oldBytes * (1 + tolerance / 100) + ALLOCATION_SLACK) {
+				System.out.printf("REGRESSION %s: %.1f B/op, was %.1f%n", key, newBytes, oldBytes);
+				passed = false;
+			}
+		}
+		System.out.println(passed ? "No regressions against " + baseline : "Regressions against " + baseline);
+		return passed;
+	}
+
+	private static double score(JsonObject metric) {
+		return metric.get("score").getAsDouble();
+	}
+
+	private static double mean(double[] values) {
+		double sum = 0;
+		for (double value : values) {
+			sum += value;
+		}
+		return sum / values.length;
+	}
+
+	/**
+	 * Half width of the 99.9% confidence interval of the mean, as JMH reports it
+	 */
+	private static double error(double[] values) {
+		int n = values.length;
+		if (n < 2) return Double.NaN;
+		double mean = mean(values), squares = 0;
+		for (double value : values) {
+			squares += (value - mean) * (value - mean);
+		}
+		return studentT(n - 1) * Math.sqrt(squares / (n - 1)) / Math.sqrt(n);
+	}
+
+	/**
+	 * Two sided 99.9% quantile of the Student t distribution, exact to two decimals up to 10
+	 * degrees of freedom and within 0.05 after that
+	 */
+	private static double studentT(int degrees) {
+		final double[] quantiles = { 636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59 };
+		if (degrees <= quantiles.length) return quantiles[degrees - 1];
+		return 3.29 + 12.0 / degrees;
+	}
+
+	/**
+	 * Measurements of one benchmark with one set of parameters
+	 */
+	private static class Result {
+		private final String name;
+		private final Map<String, String> params;
+		private double[] throughput, allocation;
+
+		Result(String name, Map<String, String> params) {
+			this.name = name;
+			this.params = params;
+		}
+
+		double score() {
+			return mean(throughput);
+		}
+
+		double error() {
+			return HotPathBenchmark.error(throughput);
+		}
+	}
+}
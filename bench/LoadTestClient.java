@@ -0,0 +1,94 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends radius queries to a running QueryService at a fixed rate and reports the latency.
+ *
+ * Usage: LoadTestClient [base url] [requests per second] [seconds] [range km]
+ *
+ * Requests are started on a schedule whatever the server does, and the latency of each is
+ * measured from when it was due rather than when it was sent, so a server falling behind shows
+ * up in the percentiles instead of silently lowering the rate.
+ *
+ * @version 1.0
+ */
+public class LoadTestClient {
+
+	// query locations are picked inside the lower 48 States
+	private static final double MIN_LAT = 25, MAX_LAT = 49, MIN_LON = -124, MAX_LON = -67;
+
+	public static void main(String[] args) throws InterruptedException {
+		String base = args.length > 0 ? args[0] : "http://localhost:8080";
+		int rate = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		double range = args.length > 3 ? Double.parseDouble(args[3]) : 10;
+
+		int total = rate * seconds;
+		long[] latency = new long[total];
+		AtomicInteger errors = new AtomicInteger();
+		AtomicInteger rejected = new AtomicInteger();
+		ExecutorService workers = Executors.newCachedThreadPool();
+		Random random = new Random(11);
+		long interval = 1_000_000_000L / rate;
+		long start = System.nanoTime();
+
+		for (int i = 0; i < total; i++) {
+			long due = start + i * interval;
+			long wait = due - System.nanoTime();
+			if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+			String url = String.format("%s/summary?lat=%.5f&lng=%.5f&range=%s", base,
+					MIN_LAT + random.nextDouble() * (MAX_LAT - MIN_LAT),
+					MIN_LON + random.nextDouble() * (MAX_LON - MIN_LON), range);
+			int request = i;
+			workers.execute(() -> {
+				int status = get(url);
+				latency[request] = System.nanoTime() - due;
+				if (status == 503) rejected.incrementAndGet();
+				else if (status != 200) errors.incrementAndGet();
+			});
+		}
+		workers.shutdown();
+		workers.awaitTermination(1, TimeUnit.MINUTES);
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		Arrays.sort(latency);
+		System.out.printf("%d requests in %.1f s (%.0f/s offered, %.0f/s achieved), %d rejected, %d errors%n", total,
+				elapsed, (double) rate, total / elapsed, rejected.get(), errors.get());
+		System.out.printf("latency ms: p50 %.2f, p90 %.2f, p99 %.2f, max %.2f%n", percentile(latency, 0.50),
+				percentile(latency, 0.90), percentile(latency, 0.99), latency[total - 1] / 1e6);
+	}
+
+	/**
+	 * Sends one request and reads the whole answer
+	 *
+	 * @return HTTP status, or -1 if the request failed
+	 */
+	private static int get(String url) {
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+			int status = connection.getResponseCode();
+			InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+			if (body != null) {
+				byte[] buffer = new byte[8192];
+				while (body.read(buffer) >= 0) {
+				}
+				body.close();
+			}
+			return status;
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	private static double percentile(long[] sorted, double p) {
+		return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)] / 1e6;
+	}
+}
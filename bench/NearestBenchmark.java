@@ -0,0 +1,88 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Compares finding the k incidents nearest a location by sorting every incident of the State
+ * by distance and taking the head of the list against the best first search of the KdTrees.
+ *
+ * Usage: NearestBenchmark [csv file] [copies of every incident] [queries per k]
+ *
+ * The incidents are scaled as in SpatialIndexBenchmark. Nationwide searches, which have no
+ * sorted list to compare against, are timed on their own.
+ *
+ * @version 1.0
+ */
+public class NearestBenchmark {
+
+	private static final int[] COUNTS = { 1, 10, 100, 1000 };
+
+	public static void main(String[] args) throws IOException {
+		String file = args.length > 0 ? args[0] : "Data/test_read_300_rows.csv";
+		int copies = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		int queries = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+		IncidentStore incidents = SpatialIndexBenchmark.scale(ReadAllocation.read(file), copies, new Random(42));
+		QueryEngine engine = new QueryEngine(incidents);
+		States state = SpatialIndexBenchmark.largestState(engine.getStateTree());
+		System.out.printf("%s: %d incidents, %d in total%n", state.getStateName(), state.size(), incidents.size());
+
+		Random random = new Random(7);
+		NearestBuffer buffer = new NearestBuffer();
+		for (int k : COUNTS) {
+			double[][] centers = new double[queries][];
+			for (int q = 0; q < queries; q++) {
+				int row = state.getStart() + random.nextInt(state.size());
+				centers[q] = new double[] { incidents.getLatitude(row) + random.nextGaussian() * 0.1,
+						incidents.getLongitude(row) + random.nextGaussian() * 0.1 };
+			}
+
+			// warm up every path before timing them
+			sortHead(state, centers, k);
+			search(engine, state.getStateName(), centers, k, buffer);
+			search(engine, null, centers, k, buffer);
+			long start = System.nanoTime();
+			double sortSum = sortHead(state, centers, k);
+			long sortTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			double searchSum = search(engine, state.getStateName(), centers, k, buffer);
+			long searchTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			search(engine, null, centers, k, buffer);
+			long nationalTime = System.nanoTime() - start;
+
+			System.out.printf("k %4d: sort+head %9.1f us/query, best first %7.1f us/query, speedup %6.1fx, nationwide %7.1f us/query, %s%n",
+					k, sortTime / 1e3 / queries, searchTime / 1e3 / queries, (double) sortTime / searchTime,
+					nationalTime / 1e3 / queries,
+					Math.abs(sortSum - searchSum) < 1e-6 * sortSum ? "distances match" : "MISMATCH " + sortSum + " vs " + searchSum);
+		}
+	}
+
+	/**
+	 * Sorts the whole State for every query and adds up the distances of the first k incidents
+	 */
+	private static double sortHead(States state, double[][] centers, int k) {
+		double sum = 0;
+		for (double[] center : centers) {
+			ArrayList<Incidents> sorted = ReadAllocation.SortIncidents(state, center[1], center[0]);
+			for (int i = 0; i < Math.min(k, sorted.size()); i++) {
+				sum += sorted.get(i).getDisToIncident();
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Searches the trees for every query with one buffer and adds up the distances found
+	 */
+	private static double search(QueryEngine engine, String state, double[][] centers, int k, NearestBuffer buffer) {
+		double sum = 0;
+		for (double[] center : centers) {
+			engine.nearest(new QueryContext(center[0], center[1], Double.POSITIVE_INFINITY, state), k, buffer);
+			for (int i = 0; i < buffer.size(); i++) {
+				sum += buffer.getDistance(i);
+			}
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,322 @@
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads an incidents file and replays a log of requests against the loaded QueryEngine, to see
+ * how loading and answering behave at the size of the file given. Reports the time to read the
+ * file and to build the indexes, the high-water mark of the heap while loading and while
+ * replaying, the heap still used by the loaded incidents, and the latency percentiles of every
+ * kind of request.
+ *
+ * Usage: QueryReplay [csv file] [request log] [warmup passes] [serial]
+ *
+ * The log has one request per line as QueryService receives it, for example
+ * /radius?lat=34.05&amp;lng=-118.24&amp;range=10, and anything before the path on a line is
+ * skipped so the lines of an access log can be replayed as they are. Requests to /radius,
+ * /summary, /nearest and /corridor are answered the way the service answers them but without
+ * writing JSON, requests by address are counted and skipped since they would measure the
+ * geocoding service, and lines that are not requests are ignored. SyntheticIncidents writes
+ * logs in this form.
+ *
+ * The file is read with ParallelIngest unless serial is given, then with ReadAllocation.read.
+ * The log is parsed before anything is timed and replayed the given number of times untimed
+ * before the measured pass, so the percentiles are of compiled code. The heap high-water mark
+ * is the sum of the peak use of every heap pool, which can be somewhat more than the heap was
+ * at any one moment since the pools do not all peak together.
+ *
+ * @version 1.0
+ */
+public class QueryReplay {
+
+	private static final String[] PATHS = { "/radius", "/summary", "/nearest", "/corridor" };
+	private static final int RADIUS = 0, SUMMARY = 1, NEAREST = 2, CORRIDOR = 3;
+	// incidents listed by /nearest when the request gives no k, as in QueryService
+	private static final int DEFAULT_NEAREST = 10;
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+	private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p99.9" };
+
+	public static void main(String[] args) throws IOException {
+		String file = args.length > 0 ? args[0] : "Data/synthetic.csv";
+		String log = args.length > 1 ? args[1] : "Data/requests.log";
+		int warmup = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+		boolean serial = args.length > 3 && args[3].equals("serial");
+
+		int[] skipped = new int[2];
+		List<Request> requests = parse(log, skipped);
+		System.out.printf("%d requests, %d by address skipped, %d lines ignored%n", requests.size(), skipped[0],
+				skipped[1]);
+
+		Heap heap = new Heap();
+		long start = System.nanoTime();
+		IncidentStore incidents = serial ? ReadAllocation.read(file) : ParallelIngest.load(file);
+		long read = System.nanoTime() - start;
+		QueryEngine engine = new QueryEngine(incidents);
+		long built = System.nanoTime() - start - read;
+		long loadPeak = heap.peak();
+		long loadGc = heap.gcMillis();
+		long live = heap.live();
+		System.out.printf("ingest %,d incidents: read %.2f s, indexes %.2f s, %.0f incidents/sec%n", incidents.size(),
+				read / 1e9, built / 1e9, incidents.size() / ((read + built) / 1e9));
+		System.out.printf("heap: %,d MB high-water while loading, %,d MB live after loading, %,d ms in GC%n",
+				loadPeak >> 20, live >> 20, loadGc);
+
+		long sink = 0;
+		for (int pass = 0; pass < warmup; pass++) {
+			for (Request request : requests) {
+				sink += answer(engine, request);
+			}
+		}
+
+		heap = new Heap();
+		long[][] latencies = new long[PATHS.length][];
+		int[] counts = new int[PATHS.length];
+		for (Request request : requests) {
+			counts[request.path]++;
+		}
+		for (int p = 0; p < PATHS.length; p++) {
+			latencies[p] = new long[counts[p]];
+		}
+		Arrays.fill(counts, 0);
+		int failed = 0;
+		start = System.nanoTime();
+		for (Request request : requests) {
+			long begin = System.nanoTime();
+			int found = answer(engine, request);
+			latencies[request.path][counts[request.path]++] = System.nanoTime() - begin;
+			if (found < 0) failed++;
+			sink += found;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("replay: %d requests (%d rejected) in %.2f s, %.0f requests/sec, %,d MB heap high-water, %,d ms in GC%n",
+				requests.size(), failed, seconds, requests.size() / seconds, heap.peak() >> 20, heap.gcMillis());
+
+		StringBuilder header = new StringBuilder(String.format("%-10s %8s", "path", "requests"));
+		for (String name : PERCENTILE_NAMES) {
+			header.append(String.format(" %9s", name));
+		}
+		System.out.println(header.append(String.format(" %9s   (us)", "max")));
+		long[] all = new long[requests.size()];
+		int filled = 0;
+		for (int p = 0; p < PATHS.length; p++) {
+			System.arraycopy(latencies[p], 0, all, filled, counts[p]);
+			filled += counts[p];
+			if (counts[p] > 0) report(PATHS[p], latencies[p]);
+		}
+		if (all.length > 0) report("all", all);
+		if (sink == 42) System.out.println();
+	}
+
+	/**
+	 * Prints the count, percentiles and maximum of a set of latencies
+	 */
+	private static void report(String name, long[] latency) {
+		Arrays.sort(latency);
+		StringBuilder line = new StringBuilder(String.format("%-10s %8d", name, latency.length));
+		for (double percentile : PERCENTILES) {
+			int index = (int) Math.ceil(percentile / 100 * latency.length) - 1;
+			line.append(String.format(" %9.1f", latency[Math.max(0, index)] / 1e3));
+		}
+		System.out.println(line.append(String.format(" %9.1f", latency[latency.length - 1] / 1e3)));
+	}
+
+	/**
+	 * Reads every request of a log
+	 *
+	 * @param log File name of the log
+	 * @param skipped Receives the number of requests by address and of lines that are not requests
+	 * @return Requests in the order of the log
+	 * @throws IOException If the log can not be read
+	 */
+	private static List<Request> parse(String log, int[] skipped) throws IOException {
+		List<Request> requests = new ArrayList<>();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(log), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				Request request = null;
+				try {
+					request = parse(line);
+				} catch (IllegalArgumentException e) {
+					// a malformed request is ignored like any other line that is not a request
+				}
+				if (request == null) {
+					skipped[1]++;
+				} else if (request.address) {
+					skipped[0]++;
+				} else {
+					requests.add(request);
+				}
+			}
+		}
+		return requests;
+	}
+
+	/**
+	 * Reads one line of a log
+	 *
+	 * @return Request of the line, or null if it holds none this harness answers
+	 * @throws IllegalArgumentException If a parameter of the request is not a number or date
+	 */
+	private static Request parse(String line) throws UnsupportedEncodingException {
+		for (int p = 0; p < PATHS.length; p++) {
+			int at = line.indexOf(PATHS[p] + '?');
+			if (at < 0) continue;
+			String query = line.substring(at + PATHS[p].length() + 1);
+			int end = query.indexOf(' ');
+			Map<String, String> params = parameters(end < 0 ? query : query.substring(0, end));
+
+			Request request = new Request();
+			request.path = p;
+			if (params.containsKey("address") || params.containsKey("addresses")) {
+				request.address = true;
+				return request;
+			}
+			request.state = params.get("state");
+			if (request.state != null && request.state.isEmpty()) request.state = null;
+			request.fromDay = params.containsKey("from") ? QueryContext.parseDay(params.get("from")) : Integer.MIN_VALUE;
+			request.toDay = params.containsKey("to") ? QueryContext.parseDay(params.get("to")) : Integer.MAX_VALUE;
+			request.range = params.containsKey("range") ? Double.parseDouble(params.get("range"))
+					: p == NEAREST ? Double.POSITIVE_INFINITY : Double.NaN;
+			request.k = params.containsKey("k") ? Integer.parseInt(params.get("k")) : DEFAULT_NEAREST;
+			if (p == CORRIDOR) {
+				if (!params.containsKey("route")) return null;
+				String[] points = params.get("route").split(";");
+				request.latitudes = new double[points.length];
+				request.longitudes = new double[points.length];
+				for (int i = 0; i < points.length; i++) {
+					String[] point = points[i].split(",");
+					if (point.length != 2) return null;
+					request.latitudes[i] = Double.parseDouble(point[0].trim());
+					request.longitudes[i] = Double.parseDouble(point[1].trim());
+				}
+			} else {
+				if (!params.containsKey("lat") || !params.containsKey("lng")) return null;
+				request.latitude = Double.parseDouble(params.get("lat"));
+				request.longitude = Double.parseDouble(params.get("lng"));
+			}
+			return request;
+		}
+		return null;
+	}
+
+	/**
+	 * Decodes the parameters of a query string as QueryService does
+	 */
+	private static Map<String, String> parameters(String query) throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<>();
+		for (String pair : query.split("&")) {
+			int equals = pair.indexOf('=');
+			if (equals <= 0) continue;
+			params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+					URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+		}
+		return params;
+	}
+
+	/**
+	 * Answers one request the way QueryService would, leaving out the JSON
+	 *
+	 * @return Number of incidents found, or -1 if the service would have rejected the request
+	 */
+	private static int answer(QueryEngine engine, Request request) {
+		try {
+			if (request.state != null && !engine.hasState(request.state)) return -1;
+			switch (request.path) {
+			case RADIUS:
+				return engine.radius(request.context()).size();
+			case SUMMARY:
+				return engine.totals(request.context()).getIncidents();
+			case NEAREST:
+				return engine.nearest(request.context(), request.k).size();
+			default:
+				Corridor corridor = new Corridor(request.latitudes, request.longitudes, request.range);
+				return engine.corridor(corridor, request.state, request.fromDay, request.toDay).size();
+			}
+		} catch (IllegalArgumentException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * One request of the log with its parameters decoded
+	 */
+	private static class Request {
+		int path;
+		boolean address;
+		double latitude, longitude, range;
+		double[] latitudes, longitudes;
+		String state;
+		int fromDay, toDay, k;
+
+		QueryContext context() {
+			return new QueryContext(latitude, longitude, range, state, fromDay, toDay);
+		}
+	}
+
+	/**
+	 * Heap use of the JVM from the moment it is created, the peaks of the heap pools are reset
+	 * so they start from the heap in use now
+	 */
+	private static class Heap {
+		private final List<MemoryPoolMXBean> pools = new ArrayList<>();
+		private final long gcStart;
+
+		Heap() {
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP) {
+					pool.resetPeakUsage();
+					pools.add(pool);
+				}
+			}
+			gcStart = collectionMillis();
+		}
+
+		/**
+		 * Sum of the peak use of every heap pool since the pools were reset
+		 */
+		long peak() {
+			long peak = 0;
+			for (MemoryPoolMXBean pool : pools) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+			return peak;
+		}
+
+		/**
+		 * Heap in use after a full collection, which is what the objects still reachable take
+		 */
+		long live() {
+			System.gc();
+			long used = 0;
+			for (MemoryPoolMXBean pool : pools) {
+				used += pool.getUsage().getUsed();
+			}
+			return used;
+		}
+
+		long gcMillis() {
+			return collectionMillis() - gcStart;
+		}
+
+		private static long collectionMillis() {
+			long millis = 0;
+			for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+				millis += Math.max(0, collector.getCollectionTime());
+			}
+			return millis;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Compares radius queries answered by the per State KdTree against sorting every incident of
+ * the State by distance and filtering the sorted list.
+ *
+ * Usage: SpatialIndexBenchmark [csv file] [copies of every incident] [queries per radius]
+ *
+ * Every incident of the file is copied with its location moved by up to half a degree so a
+ * small sample file still gives States with many thousands of incidents. Their dates are
+ * spread over five years.
+ *
+ * @version 1.0
+ */
+public class SpatialIndexBenchmark {
+
+	private static final double[] RANGES = { 1, 5, 20, 50 };
+	// days the copies of an incident are spread over
+	private static final int DATE_SPREAD = 5 * 365;
+
+	public static void main(String[] args) throws IOException {
+		String file = args.length > 0 ? args[0] : "Data/test_read_300_rows.csv";
+		int copies = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		int queries = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+		IncidentStore incidents = scale(ReadAllocation.read(file), copies, new Random(42));
+		RedBlackTree<String, States> StateTree = ReadAllocation.buildBST(incidents);
+		States state = largestState(StateTree);
+		System.out.printf("%s: %d incidents%n", state.getStateName(), state.size());
+
+		Random random = new Random(7);
+		for (double range : RANGES) {
+			double[][] centers = new double[queries][];
+			for (int q = 0; q < queries; q++) {
+				int row = state.getStart() + random.nextInt(state.size());
+				centers[q] = new double[] { incidents.getLatitude(row), incidents.getLongitude(row) };
+			}
+
+			// warm up both paths before timing them
+			run(state, centers, range, true);
+			run(state, centers, range, false);
+			long start = System.nanoTime();
+			long scanHits = run(state, centers, range, false);
+			long scanTime = System.nanoTime() - start;
+			start = System.nanoTime();
+			long indexHits = run(state, centers, range, true);
+			long indexTime = System.nanoTime() - start;
+
+			System.out.printf("range %5.1f km: sort+filter %9.1f us/query, kd-tree %7.1f us/query, speedup %6.1fx, hits %s%n",
+					range, scanTime / 1e3 / queries, indexTime / 1e3 / queries, (double) scanTime / indexTime,
+					scanHits == indexHits ? Long.toString(indexHits) : "MISMATCH " + scanHits + " vs " + indexHits);
+		}
+	}
+
+	/**
+	 * Runs every query through one of the two paths
+	 *
+	 * @return Total number of incidents found
+	 */
+	private static long run(States state, double[][] centers, double range, boolean index) {
+		long hits = 0;
+		for (double[] center : centers) {
+			if (index) {
+				QueryResult result = new QueryResult(state.getStore());
+				state.radius(center[0], center[1], range, result);
+				hits += result.size();
+			} else {
+				ArrayList<Incidents> sorted = ReadAllocation.SortIncidents(state, center[1], center[0]);
+				hits += ReadAllocation.filterIncidents(sorted, range).size();
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * Copies every incident of a store with its location moved a little and its date moved
+	 * by up to five years
+	 */
+	static IncidentStore scale(IncidentStore sample, int copies, Random random) {
+		IncidentStore incidents = new IncidentStore(sample.size() * copies);
+		for (int c = 0; c < copies; c++) {
+			for (int row = 0; row < sample.size(); row++) {
+				incidents.add(sample.getUId(row) * 1000 + c, sample.getAddress(row), sample.getState(row),
+						sample.getCity(row), sample.getLongitude(row) + random.nextDouble() - 0.5,
+						sample.getLatitude(row) + random.nextDouble() - 0.5, sample.getnumKilled(row),
+						sample.getnumInjured(row), spread(sample.getDate(row), random));
+			}
+		}
+		return incidents;
+	}
+
+	private static int spread(int date, Random random) {
+		return date == IncidentStore.NO_DATE ? date : date + random.nextInt(DATE_SPREAD);
+	}
+
+	/**
+	 * The State with the most incidents
+	 */
+	static States largestState(RedBlackTree<String, States> StateTree) {
+		States largest = null;
+		for (String name : StateTree.keys()) {
+			States state = StateTree.get(name);
+			if (largest == null || state.size() > largest.size()) largest = state;
+		}
+		return largest;
+	}
+}
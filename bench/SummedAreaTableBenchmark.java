@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Compares totals read from the summed area tables against finding the incidents in range with
+ * the spatial indexes and adding them up, for the largest State and for the whole country.
+ *
+ * Usage: SummedAreaTableBenchmark [csv file] [copies of every incident] [queries per radius]
+ *
+ * The incidents are scaled as in SpatialIndexBenchmark. Every query is answered both ways and
+ * the totals must match.
+ *
+ * @version 1.0
+ */
+public class SummedAreaTableBenchmark {
+
+	private static final double[] RANGES = { 1, 5, 20, 50, 200 };
+
+	public static void main(String[] args) throws IOException {
+		String file = args.length > 0 ? args[0] : "Data/test_read_300_rows.csv";
+		int copies = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		int queries = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+		IncidentStore incidents = SpatialIndexBenchmark.scale(ReadAllocation.read(file), copies, new Random(42));
+		long start = System.nanoTime();
+		QueryEngine engine = new QueryEngine(incidents);
+		System.out.printf("%d incidents, engine built in %.0f ms%n", incidents.size(), (System.nanoTime() - start) / 1e6);
+		start = System.nanoTime();
+		SummedAreaTable national = new SummedAreaTable(incidents, 0, incidents.size());
+		System.out.printf("nationwide table: %d cells of %.3f degrees, built in %.1f ms%n", national.cells(),
+				national.getCellDegrees(), (System.nanoTime() - start) / 1e6);
+		States state = SpatialIndexBenchmark.largestState(engine.getStateTree());
+		System.out.printf("%s: %d incidents%n", state.getStateName(), state.size());
+
+		Random random = new Random(7);
+		for (String name : new String[] { state.getStateName(), null }) {
+			for (double range : RANGES) {
+				QueryContext[] contexts = new QueryContext[queries];
+				for (int q = 0; q < queries; q++) {
+					int row = name == null ? random.nextInt(incidents.size())
+							: state.getStart() + random.nextInt(state.size());
+					contexts[q] = new QueryContext(incidents.getLatitude(row), incidents.getLongitude(row), range, name);
+				}
+
+				// warm up both paths before timing them
+				run(engine, contexts, true);
+				run(engine, contexts, false);
+				start = System.nanoTime();
+				long scanTotal = run(engine, contexts, false);
+				long scanTime = System.nanoTime() - start;
+				start = System.nanoTime();
+				long tableTotal = run(engine, contexts, true);
+				long tableTime = System.nanoTime() - start;
+
+				System.out.printf("%-12s range %5.1f km: index+sum %8.1f us/query, table %6.1f us/query, speedup %5.1fx, %s%n",
+						name == null ? "nationwide" : name, range, scanTime / 1e3 / queries, tableTime / 1e3 / queries,
+						(double) scanTime / tableTime,
+						scanTotal == tableTotal ? "totals match" : "MISMATCH " + scanTotal + " vs " + tableTotal);
+			}
+		}
+	}
+
+	/**
+	 * Answers every query one of the two ways
+	 *
+	 * @return Checksum of the totals found
+	 */
+	private static long run(QueryEngine engine, QueryContext[] contexts, boolean table) {
+		long checksum = 0;
+		IncidentStore incidents = engine.getIncidents();
+		for (QueryContext context : contexts) {
+			SummedAreaTable.Totals totals;
+			if (table) {
+				totals = engine.totals(context);
+			} else {
+				totals = new SummedAreaTable.Totals();
+				QueryResult result = engine.radius(context);
+				for (int i = 0; i < result.size(); i++) {
+					totals.add(incidents, result.getRow(i));
+				}
+			}
+			checksum = checksum * 31 + totals.getIncidents() * 1_000_003L + totals.getKilled() * 1009L
+					+ totals.getInjured();
+		}
+		return checksum;
+	}
+}
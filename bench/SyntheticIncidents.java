@@ -0,0 +1,345 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Writes an incidents file of any size with the 21 columns of the source file, so ingest and
+ * queries can be tried at the scale of the full data set while only a sample ships with the
+ * project. A request log for QueryReplay is written alongside it.
+ *
+ * Usage: SyntheticIncidents [rows] [output csv] [sample csv] [seed] [request log] [requests]
+ *
+ * Every city of the sample becomes a cluster, weighted by how many incidents it has in the
+ * sample, with its own spread of a few kilometers up to about 15. Incidents are drawn around a
+ * cluster from a normal distribution, and one in ten from a spread ten times as wide for the
+ * incidents outside of cities. Dates are uniform over the years of the source file. About one
+ * note in twenty is quoted and holds commas, doubled quotes and line breaks, so readers are
+ * tried on the records that are hard to split.
+ *
+ * Rows are written as they are drawn, so memory does not grow with the size of the file.
+ *
+ * @version 1.0
+ */
+public class SyntheticIncidents {
+
+	private static final String HEADER = "incident_id,date,state,city_or_county,address,n_killed,n_injured,latitude,"
+			+ "longitude,n_guns_involved,notes,participant_age,participant_age_group,participant_gender,"
+			+ "participant_name,participant_relationship,participant_status,participant_type,sources,"
+			+ "state_house_district,state_senate_district\n";
+	private static final int FIRST_DAY = (int) LocalDate.of(2013, 1, 1).toEpochDay();
+	private static final int DAYS = (int) (LocalDate.of(2018, 3, 31).toEpochDay() - FIRST_DAY + 1);
+	// share of incidents drawn from the wide spread around a cluster
+	private static final double OUTSIDE = 0.1;
+	private static final double MIN_SPREAD = 0.02, MAX_SPREAD = 0.15;
+	private static final String[] STREETS = { "Main", "Oak", "Maple", "Cedar", "Elm", "Washington", "Lincoln",
+			"Park", "Lake", "Hill", "Church", "Market", "Jefferson", "Franklin", "Madison", "Martin Luther King",
+			"Broadway", "Highland", "Central", "Ridge" };
+	private static final String[] SUFFIXES = { "Street", "Avenue", "Road", "Boulevard", "Drive", "Lane", "Court" };
+	private static final String[] NOTES = { "Shot during argument", "Drive-by shooting", "Accidental discharge",
+			"Armed robbery at convenience store", "Domestic dispute", "Shots fired, no injuries",
+			"Victim found in vehicle", "Home invasion", "Officer involved shooting", "Road rage" };
+	private static final String[] FIRST_NAMES = { "James", "Maria", "Robert", "Linda", "Michael", "Angela", "David",
+			"Tanya", "Carlos", "Keisha" };
+	private static final String[] LAST_NAMES = { "Smith", "Johnson", "Williams", "Brown", "Garcia", "Davis",
+			"Rodriguez", "Martinez", "Lee", "Walker" };
+	private static final String[] RELATIONSHIPS = { "Family", "Significant others - current or former",
+			"Acquaintance", "Friends", "Neighbor", "Armed Robbery" };
+	private static final String[] PATHS = { "/radius", "/summary", "/nearest", "/corridor" };
+	// share of requests going to each path, in the order of PATHS
+	private static final double[] PATH_SHARE = { 0.5, 0.25, 0.15, 0.1 };
+	private static final int[] RANGES = { 1, 5, 10, 25, 50 };
+
+	private final Random random;
+	private final String[] states;
+	private final String[] cities;
+	private final double[] latitudes, longitudes, spreads;
+	// running sum of the cluster weights, for drawing a cluster with a binary search
+	private final double[] cumulative;
+	private final StringBuilder row = new StringBuilder(512);
+
+	/**
+	 * Creates a generator with one cluster for every city of a sample
+	 *
+	 * @param sample Incidents whose cities become the clusters
+	 * @param random Source of every random choice, seeded to write the same file again
+	 * @throws IllegalArgumentException If the sample has no incident with coordinates
+	 */
+	public SyntheticIncidents(IncidentStore sample, Random random) {
+		this.random = random;
+		Map<String, double[]> sums = new HashMap<>();
+		List<String> keys = new ArrayList<>();
+		for (int r = 0; r < sample.size(); r++) {
+			double lat = sample.getLatitude(r), lon = sample.getLongitude(r);
+			if (Double.isNaN(lat) || Double.isNaN(lon) || (lat == 0 && lon == 0)) continue;
+			String key = sample.getState(r) + '\n' + sample.getCity(r);
+			double[] sum = sums.get(key);
+			if (sum == null) {
+				sum = new double[3];
+				sums.put(key, sum);
+				keys.add(key);
+			}
+			sum[0] += lat;
+			sum[1] += lon;
+			sum[2]++;
+		}
+		if (keys.isEmpty()) throw new IllegalArgumentException("Sample has no incidents with coordinates");
+
+		int n = keys.size();
+		states = new String[n];
+		cities = new String[n];
+		latitudes = new double[n];
+		longitudes = new double[n];
+		spreads = new double[n];
+		cumulative = new double[n];
+		double total = 0;
+		for (int c = 0; c < n; c++) {
+			String key = keys.get(c);
+			double[] sum = sums.get(key);
+			int split = key.indexOf('\n');
+			states[c] = key.substring(0, split);
+			cities[c] = key.substring(split + 1);
+			latitudes[c] = sum[0] / sum[2];
+			longitudes[c] = sum[1] / sum[2];
+			// spreads are log uniform so there are as many small towns as large cities
+			spreads[c] = MIN_SPREAD * Math.pow(MAX_SPREAD / MIN_SPREAD, random.nextDouble());
+			total += sum[2];
+			cumulative[c] = total;
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		long rows = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+		String output = args.length > 1 ? args[1] : "Data/synthetic.csv";
+		String sample = args.length > 2 ? args[2] : "Data/test_read_300_rows.csv";
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+		String log = args.length > 4 ? args[4] : "Data/requests.log";
+		int requests = args.length > 5 ? Integer.parseInt(args[5]) : 100_000;
+		if (rows > Integer.MAX_VALUE) throw new IllegalArgumentException("Incident ids are ints, at most " + Integer.MAX_VALUE + " rows");
+
+		SyntheticIncidents generator = new SyntheticIncidents(ReadAllocation.read(sample), new Random(seed));
+		long start = System.nanoTime();
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8), 1 << 16)) {
+			out.write(HEADER);
+			for (long r = 1; r <= rows; r++) {
+				generator.write((int) r, out);
+				if (r % 10_000_000 == 0) {
+					System.out.printf("%,d rows in %.1f s%n", r, (System.nanoTime() - start) / 1e9);
+				}
+			}
+		}
+		System.out.printf("%,d rows around %d cities written to %s in %.1f s%n", rows, generator.states.length, output,
+				(System.nanoTime() - start) / 1e9);
+
+		if (log != null) {
+			try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(log), StandardCharsets.UTF_8))) {
+				for (int i = 0; i < requests; i++) {
+					out.write(generator.request());
+					out.write('\n');
+				}
+			}
+			System.out.printf("%,d requests written to %s%n", requests, log);
+		}
+	}
+
+	/**
+	 * Draws one incident and writes it as a row of the source file
+	 *
+	 * @param id Incident id of the row
+	 * @param out Writer receiving the row
+	 * @throws IOException If the row cannot be written
+	 */
+	public void write(int id, Writer out) throws IOException {
+		int c = cluster();
+		double spread = random.nextDouble() < OUTSIDE ? spreads[c] * 10 : spreads[c];
+		double lat = Math.max(-90, Math.min(90, latitudes[c] + random.nextGaussian() * spread));
+		double lon = longitudes[c] + random.nextGaussian() * spread / Math.max(0.1, Math.cos(Math.toRadians(lat)));
+		int killed = random.nextDouble() < 0.75 ? 0 : 1 + geometric(0.7);
+		int injured = geometric(0.45);
+		int participants = Math.max(1, killed + injured + random.nextInt(2));
+
+		row.setLength(0);
+		row.append(id).append(',').append(LocalDate.ofEpochDay(FIRST_DAY + random.nextInt(DAYS))).append(',');
+		field(states[c]).append(',');
+		field(cities[c]).append(',');
+		row.append(100 * (1 + random.nextInt(99))).append(" block of ").append(pick(STREETS)).append(' ')
+				.append(pick(SUFFIXES)).append(',');
+		row.append(killed).append(',').append(injured).append(',');
+		decimal(lat).append(',');
+		decimal(lon).append(',');
+		if (random.nextBoolean()) row.append(1 + geometric(0.8));
+		row.append(',');
+		notes().append(',');
+		participants(participants, killed, injured);
+		row.append("http://news.example.com/").append(id).append(',');
+		row.append(1 + random.nextInt(120)).append(',').append(1 + random.nextInt(50)).append('\n');
+		out.append(row);
+	}
+
+	/**
+	 * Draws one request as a line of a request log, at a location of the same clusters
+	 *
+	 * @return Path and query string of a QueryService request
+	 */
+	public String request() {
+		double pick = random.nextDouble();
+		int path = 0;
+		while (path < PATHS.length - 1 && pick >= PATH_SHARE[path]) {
+			pick -= PATH_SHARE[path];
+			path++;
+		}
+		int c = cluster();
+		double lat = latitudes[c] + random.nextGaussian() * spreads[c];
+		double lon = longitudes[c] + random.nextGaussian() * spreads[c];
+		StringBuilder request = new StringBuilder(PATHS[path]).append('?');
+		if (PATHS[path].equals("/corridor")) {
+			request.append("route=");
+			int points = 5 + random.nextInt(16);
+			for (int p = 0; p < points; p++) {
+				if (p > 0) {
+					request.append("%3B");
+					lat += random.nextGaussian() * 0.05;
+					lon += random.nextGaussian() * 0.05;
+				}
+				request.append(String.format(Locale.ROOT, "%.5f%%2C%.5f", lat, lon));
+			}
+			request.append("&range=").append(RANGES[random.nextInt(2)]);
+		} else {
+			request.append(String.format(Locale.ROOT, "lat=%.5f&lng=%.5f", lat, lon));
+			if (PATHS[path].equals("/nearest")) {
+				request.append("&k=").append(1 + random.nextInt(50));
+			} else {
+				request.append("&range=").append(RANGES[random.nextInt(RANGES.length)]);
+			}
+		}
+		if (random.nextDouble() < 0.2) request.append("&state=").append(states[c].replace(" ", "+"));
+		if (random.nextDouble() < 0.2) {
+			int from = FIRST_DAY + random.nextInt(DAYS);
+			request.append("&from=").append(LocalDate.ofEpochDay(from)).append("&to=")
+					.append(LocalDate.ofEpochDay(Math.min(FIRST_DAY + DAYS - 1, from + 30 + random.nextInt(365))));
+		}
+		return request.toString();
+	}
+
+	/**
+	 * Draws a cluster in proportion to its incidents in the sample
+	 */
+	private int cluster() {
+		double target = random.nextDouble() * cumulative[cumulative.length - 1];
+		int lo = 0, hi = cumulative.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (cumulative[mid] <= target) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Number of failures before the first success of a trial that succeeds with a probability
+	 */
+	private int geometric(double success) {
+		int n = 0;
+		while (random.nextDouble() >= success && n < 50) n++;
+		return n;
+	}
+
+	private String pick(String[] values) {
+		return values[random.nextInt(values.length)];
+	}
+
+	/**
+	 * Appends a degree with four decimals as in the source file, without String.format which
+	 * would be most of the time spent on a row
+	 */
+	private StringBuilder decimal(double degrees) {
+		long scaled = Math.round(degrees * 10_000);
+		if (scaled < 0) {
+			row.append('-');
+			scaled = -scaled;
+		}
+		long fraction = scaled % 10_000;
+		row.append(scaled / 10_000).append('.');
+		if (fraction < 1000) row.append('0');
+		if (fraction < 100) row.append('0');
+		if (fraction < 10) row.append('0');
+		return row.append(fraction);
+	}
+
+	/**
+	 * Appends a text field, quoted with its quotes doubled when it holds a comma, quote or line break
+	 */
+	private StringBuilder field(String value) {
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			char ch = value.charAt(i);
+			quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+		}
+		if (!quote) return row.append(value);
+		row.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+			if (ch == '"') row.append('"');
+			row.append(ch);
+		}
+		return row.append('"');
+	}
+
+	/**
+	 * Appends the notes of an incident, empty for a third of them and quoted over several lines
+	 * for about one in twenty
+	 */
+	private StringBuilder notes() {
+		double pick = random.nextDouble();
+		if (pick < 0.33) return row;
+		if (pick < 0.38) {
+			return field(pick(NOTES) + ", suspect \"" + pick(FIRST_NAMES) + "\" fled\nUpdate: " + pick(NOTES)
+					+ "\r\nSee sources, more to follow");
+		}
+		return field(pick(NOTES));
+	}
+
+	/**
+	 * Appends the seven participant columns in the index::value||index::value form of the source file
+	 */
+	private void participants(int count, int killed, int injured) {
+		for (int i = 0; i < count; i++) {
+			if (i > 0) row.append("||");
+			row.append(i).append("::").append(14 + random.nextInt(50));
+		}
+		row.append(',');
+		for (int i = 0; i < count; i++) {
+			if (i > 0) row.append("||");
+			row.append(i).append("::").append(random.nextDouble() < 0.1 ? "Teen 12-17" : "Adult 18+");
+		}
+		row.append(',');
+		for (int i = 0; i < count; i++) {
+			if (i > 0) row.append("||");
+			row.append(i).append("::").append(random.nextDouble() < 0.85 ? "Male" : "Female");
+		}
+		row.append(',');
+		if (random.nextBoolean()) row.append("0::").append(pick(FIRST_NAMES)).append(' ').append(pick(LAST_NAMES));
+		row.append(',');
+		if (random.nextDouble() < 0.2) row.append("0::").append(pick(RELATIONSHIPS));
+		row.append(',');
+		for (int i = 0; i < count; i++) {
+			if (i > 0) row.append("||");
+			row.append(i).append("::").append(i < killed ? "Killed" : i < killed + injured ? "Injured" : "Arrested");
+		}
+		row.append(',');
+		for (int i = 0; i < count; i++) {
+			if (i > 0) row.append("||");
+			row.append(i).append("::").append(i < killed + injured ? "Victim" : "Subject-Suspect");
+		}
+		row.append(',');
+	}
+}
@@ -0,0 +1,301 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.google.gson.JsonObject;
+
+import geocoding.Geocoding;
+import geocoding.GeocodingException;
+
+/**
+ * Runs a file of queries against one loaded set of incidents instead of asking the user for
+ * them one at a time. The queries are CSV with a header naming the columns:
+ *
+ * <pre>
+ * id, address, latitude, longitude, state, range, from, to
+ * </pre>
+ *
+ * A query gives either an address or a latitude and longitude, the state may be left empty to
+ * search every State, from and to may give the first and last date as yyyy-mm-dd, and id is
+ * optional. Queries are answered in parallel in blocks, and each
+ * block is written in input order before the next one starts so memory stays bounded however
+ * long the file is.
+ *
+ * Every query gets one summary row with the number of incidents in range, the total killed and
+ * injured and the danger level. The incidents themselves can be written to a second file, when
+ * they are not the totals are read from the summed area tables without finding the incidents.
+ *
+ * @version 1.2
+ */
+public class BatchQuery {
+
+	// queries answered in parallel before their rows are written
+	private static final int BLOCK_SIZE = 1024;
+	private static final String[] COLUMNS = { "id", "address", "latitude", "longitude", "state", "range", "from",
+			"to" };
+	private static final int ID = 0, ADDRESS = 1, LATITUDE = 2, LONGITUDE = 3, STATE = 4, RANGE = 5, FROM = 6, TO = 7;
+
+	private final QueryEngine engine;
+	private final Geocoding geocode;
+	private final int parallelism;
+
+	/**
+	 * Creates a batch runner over one engine
+	 *
+	 * @param engine Engine holding the loaded incidents
+	 * @param geocode Geocoding used for queries that give an address, it must be thread safe
+	 * @param parallelism Number of queries answered at the same time
+	 */
+	public BatchQuery(QueryEngine engine, Geocoding geocode, int parallelism) {
+		this.engine = engine;
+		this.geocode = geocode;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Answers every query of a file
+	 *
+	 * @param queries CSV file of queries
+	 * @param summary Writer receiving one row per query
+	 * @param detail Writer receiving one row per incident found, null to leave them out
+	 * @return Number of queries answered
+	 * @throws IOException If the queries cannot be read or the results cannot be written
+	 */
+	public int run(String queries, Writer summary, Writer detail) throws IOException {
+		CsvReader input = new CsvReader(new FileInputStream(queries));
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		long start;
+		int count = 0, failed = 0;
+		try {
+			int[] column = header(input);
+			summary.write("id,latitude,longitude,state,range,from,to,incidents,killed,injured,danger_level,error\n");
+			if (detail != null) {
+				detail.write("id,rank,incident_id,date,distance_km,latitude,longitude,state,city,address,killed,injured\n");
+			}
+
+			start = System.nanoTime();
+			List<Query> block = new ArrayList<>(BLOCK_SIZE);
+			boolean more = true;
+			while (more) {
+				more = input.next();
+				if (more) {
+					block.add(read(input, column, count + block.size() + 1));
+				}
+				if (block.size() == BLOCK_SIZE || (!more && !block.isEmpty())) {
+					List<Future<Answer>> answers = new ArrayList<>(block.size());
+					for (Query query : block) {
+						answers.add(pool.submit(() -> answer(query, detail != null)));
+					}
+					for (Future<Answer> answer : answers) {
+						Answer done = get(answer);
+						write(done, summary, detail);
+						if (done.error != null) failed++;
+					}
+					count += block.size();
+					block.clear();
+				}
+			}
+		} finally {
+			pool.shutdown();
+			input.close();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d queries (%d failed) in %.2f s, %.1f queries/sec on %d threads%n", count, failed,
+				seconds, count / seconds, parallelism);
+		return count;
+	}
+
+	/**
+	 * Finds the position of every known column in the header row
+	 */
+	private static int[] header(CsvReader input) throws IOException {
+		int[] column = new int[COLUMNS.length];
+		Arrays.fill(column, -1);
+		if (!input.next()) return column;
+		for (int c = 0; c < input.size(); c++) {
+			for (int k = 0; k < COLUMNS.length; k++) {
+				if (COLUMNS[k].equalsIgnoreCase(input.get(c).trim())) column[k] = c;
+			}
+		}
+		if (column[RANGE] < 0 || (column[ADDRESS] < 0 && (column[LATITUDE] < 0 || column[LONGITUDE] < 0))) {
+			throw new IOException("Queries need a range column and an address or latitude and longitude columns");
+		}
+		return column;
+	}
+
+	/**
+	 * Copies the current record into a query, fields that cannot be read leave it invalid
+	 */
+	private static Query read(CsvReader input, int[] column, int line) {
+		Query query = new Query();
+		query.id = text(input, column[ID]);
+		if (query.id == null) query.id = Integer.toString(line);
+		query.address = text(input, column[ADDRESS]);
+		query.state = text(input, column[STATE]);
+		String range = text(input, column[RANGE]);
+		if (range == null) {
+			query.error = "no range";
+			return query;
+		}
+		try {
+			query.range = Double.parseDouble(range);
+			if (text(input, column[LATITUDE]) != null && text(input, column[LONGITUDE]) != null) {
+				query.latitude = Double.parseDouble(text(input, column[LATITUDE]));
+				query.longitude = Double.parseDouble(text(input, column[LONGITUDE]));
+				query.located = true;
+			}
+		} catch (NumberFormatException e) {
+			query.error = "invalid range or coordinates";
+			return query;
+		}
+		query.from = text(input, column[FROM]);
+		query.to = text(input, column[TO]);
+		try {
+			query.fromDay = query.from == null ? Integer.MIN_VALUE : QueryContext.parseDay(query.from);
+			query.toDay = query.to == null ? Integer.MAX_VALUE : QueryContext.parseDay(query.to);
+		} catch (IllegalArgumentException e) {
+			query.error = "invalid date";
+		}
+		if (query.error == null && !query.located && query.address == null) {
+			query.error = "no address or coordinates";
+		}
+		return query;
+	}
+
+	private static String text(CsvReader input, int column) {
+		if (column < 0 || column >= input.size() || input.isEmpty(column)) return null;
+		String value = input.get(column).trim();
+		return value.isEmpty() ? null : value;
+	}
+
+	/**
+	 * Answers one query, any failure is recorded in the answer instead of stopping the batch
+	 *
+	 * @param query Query to answer
+	 * @param list True to find the incidents themselves, false when only the totals are written
+	 */
+	private Answer answer(Query query, boolean list) {
+		Answer answer = new Answer(query);
+		if (query.error != null) {
+			answer.error = query.error;
+			return answer;
+		}
+		try {
+			if (!query.located) {
+				JsonObject location = geocode.getLatLng(query.address);
+				query.latitude = location.get("lat").getAsDouble();
+				query.longitude = location.get("lng").getAsDouble();
+			}
+			QueryContext context = new QueryContext(query.latitude, query.longitude, query.range, query.state,
+					query.fromDay, query.toDay);
+			if (!list) {
+				answer.totals = engine.totals(context);
+			} else {
+				answer.totals = new SummedAreaTable.Totals();
+				answer.result = engine.radius(context);
+				for (int i = 0; i < answer.result.size(); i++) {
+					answer.totals.add(engine.getIncidents(), answer.result.getRow(i));
+				}
+			}
+		} catch (GeocodingException e) {
+			answer.error = "address not found";
+		} catch (IllegalArgumentException e) {
+			answer.error = e.getMessage();
+		}
+		return answer;
+	}
+
+	private static Answer get(Future<Answer> answer) throws IOException {
+		try {
+			return answer.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while answering queries", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Query failed", e.getCause());
+		}
+	}
+
+	private void write(Answer answer, Writer summary, Writer detail) throws IOException {
+		long start = System.nanoTime();
+		Query query = answer.query;
+		StringBuilder row = new StringBuilder();
+		row.append(csv(query.id)).append(',');
+		if (answer.totals != null) {
+			row.append(query.latitude).append(',').append(query.longitude);
+		} else {
+			row.append(',');
+		}
+		row.append(',').append(csv(query.state)).append(',').append(query.range).append(',').append(csv(query.from))
+				.append(',').append(csv(query.to)).append(',');
+		if (answer.totals != null) {
+			int found = answer.totals.getIncidents();
+			row.append(found).append(',').append(answer.totals.getKilled()).append(',')
+					.append(answer.totals.getInjured()).append(',').append(ReadAllocation.dangerLevel(found));
+		} else {
+			row.append(",,,");
+		}
+		row.append(',').append(csv(answer.error)).append('\n');
+		summary.write(row.toString());
+
+		if (detail == null || answer.result == null) {
+			Metrics.get().report().recordSince(start);
+			return;
+		}
+		IncidentStore incidents = engine.getIncidents();
+		for (int i = 0; i < answer.result.size(); i++) {
+			int r = answer.result.getRow(i);
+			int date = incidents.getDate(r);
+			detail.write(csv(query.id) + ',' + (i + 1) + ',' + incidents.getUId(r) + ','
+					+ (date == IncidentStore.NO_DATE ? "" : LocalDate.ofEpochDay(date).toString()) + ','
+					+ String.format("%.3f", answer.result.getDistance(i)) + ',' + incidents.getLatitude(r) + ','
+					+ incidents.getLongitude(r) + ',' + csv(incidents.getState(r)) + ',' + csv(incidents.getCity(r))
+					+ ',' + csv(incidents.getAddress(r)) + ',' + incidents.getnumKilled(r) + ','
+					+ incidents.getnumInjured(r) + '\n');
+		}
+		Metrics.get().report().recordSince(start);
+	}
+
+	/**
+	 * Quotes a field when it holds a comma, quote or line break
+	 */
+	private static String csv(String value) {
+		if (value == null) return "";
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			return value;
+		}
+		return '"' + value.replace("\"", "\"\"") + '"';
+	}
+
+	/**
+	 * One query as read from the file
+	 */
+	private static class Query {
+		private String id, address, state, from, to, error;
+		private double latitude, longitude, range;
+		private int fromDay, toDay;
+		private boolean located;
+	}
+
+	/**
+	 * Outcome of one query
+	 */
+	private static class Answer {
+		private final Query query;
+		// the incidents found, only when they are written out
+		private QueryResult result;
+		private SummedAreaTable.Totals totals;
+		private String error;
+
+		Answer(Query query) {
+			this.query = query;
+		}
+	}
+}
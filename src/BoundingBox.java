@@ -0,0 +1,127 @@
+/**
+ * The latitude and longitude box around a circle on the earth. Every point within the circle
+ * is inside the box, so points outside the box can be rejected with comparisons only before any
+ * distance is computed.
+ *
+ * A box near the 180th meridian wraps around, its minimum longitude is then larger than its
+ * maximum. A circle that reaches a pole covers every longitude.
+ *
+ * @version 1.0
+ */
+public class BoundingBox {
+
+	private final double minLat, maxLat;
+	private final double minLon, maxLon;
+
+	/**
+	 * Creates a box from its edges
+	 *
+	 * @param minLat Southern edge
+	 * @param maxLat Northern edge
+	 * @param minLon Western edge, larger than the eastern edge if the box wraps around
+	 * @param maxLon Eastern edge
+	 */
+	public BoundingBox(double minLat, double maxLat, double minLon, double maxLon) {
+		this.minLat = minLat;
+		this.maxLat = maxLat;
+		this.minLon = minLon;
+		this.maxLon = maxLon;
+	}
+
+	/**
+	 * Creates the box around a circle
+	 *
+	 * @param latitude Latitude coordinate of the center
+	 * @param longitude Longitude coordinate of the center
+	 * @param range Radius of the circle in kilometers
+	 * @return Smallest box holding every point within range of the center
+	 */
+	public static BoundingBox around(double latitude, double longitude, double range) {
+		double arc = range / Incidents.KM_PER_DEGREE;
+		double minLat = latitude - arc;
+		double maxLat = latitude + arc;
+		if (minLat <= -90 || maxLat >= 90) {
+			return new BoundingBox(Math.max(minLat, -90), Math.min(maxLat, 90), -180, 180);
+		}
+		// widest longitude spread of the circle, reached where a meridian is tangent to it
+		double sin = Math.sin(Math.toRadians(arc)) / Math.cos(Math.toRadians(latitude));
+		if (sin >= 1) {
+			return new BoundingBox(minLat, maxLat, -180, 180);
+		}
+		double lonArc = Math.toDegrees(Math.asin(sin));
+		if (lonArc >= 180) {
+			return new BoundingBox(minLat, maxLat, -180, 180);
+		}
+		return new BoundingBox(minLat, maxLat, normalize(longitude - lonArc), normalize(longitude + lonArc));
+	}
+
+	/**
+	 * Checks whether a point is inside the box
+	 *
+	 * @param latitude Latitude coordinate of the point
+	 * @param longitude Longitude coordinate of the point
+	 * @return True if the point is inside the box
+	 */
+	public boolean contains(double latitude, double longitude) {
+		if (latitude < minLat || latitude > maxLat) return false;
+		if (minLon <= maxLon) return longitude >= minLon && longitude <= maxLon;
+		return longitude >= minLon || longitude <= maxLon;
+	}
+
+	/**
+	 * Checks whether the box wraps around the 180th meridian
+	 *
+	 * @return True if the western edge is east of the eastern edge
+	 */
+	public boolean wraps() {
+		return minLon > maxLon;
+	}
+
+	/**
+	 * Southern edge of the box
+	 *
+	 * @return Smallest latitude in the box
+	 */
+	public double getMinLat() {
+		return minLat;
+	}
+
+	/**
+	 * Northern edge of the box
+	 *
+	 * @return Largest latitude in the box
+	 */
+	public double getMaxLat() {
+		return maxLat;
+	}
+
+	/**
+	 * Western edge of the box
+	 *
+	 * @return Longitude of the western edge
+	 */
+	public double getMinLon() {
+		return minLon;
+	}
+
+	/**
+	 * Eastern edge of the box
+	 *
+	 * @return Longitude of the eastern edge
+	 */
+	public double getMaxLon() {
+		return maxLon;
+	}
+
+	/**
+	 * Moves a longitude into the range -180 to 180
+	 *
+	 * @param longitude Longitude in degrees
+	 * @return The same meridian between -180 and 180
+	 */
+	private static double normalize(double longitude) {
+		if (longitude < -180) return longitude + 360;
+		if (longitude > 180) return longitude - 360;
+		return longitude;
+	}
+}
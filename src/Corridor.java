@@ -0,0 +1,324 @@
+/**
+ * The area within a distance of a route, a polyline of locations joined by great circle
+ * segments. An incident is in the corridor when its distance to the closest point of any
+ * segment is within the width, and its position is how far along the route that closest point
+ * lies.
+ *
+ * Every segment is enclosed in a latitude and longitude box widened by the corridor width, so a
+ * spatial index can skip whole nodes that overlap no segment box and only measure incidents
+ * inside one. The route points are kept as unit vectors with the normal of every segment, so
+ * the distance to a segment is a few dot products and a square root.
+ *
+ * @version 1.0
+ */
+public class Corridor {
+
+	// segments shorter than this angle in radians are treated as a single point
+	private static final double MIN_SEGMENT = 1e-12;
+
+	private final double[] latitude, longitude;
+	private final double width;
+	// haversine of the angle the width spans
+	private final double threshold;
+	private final int segments;
+	// unit vector of every route point
+	private final double[] x, y, z;
+	// per segment: unit normal of its great circle, unit tangent at its start towards its end and
+	// unit vector at its end pointing back into it, all zero for a segment of a single point
+	private final double[] normal, tangent, back;
+	// per segment: distance along the route to its start and its length in kilometers
+	private final double[] start, length;
+	// per segment: southern, northern, western and eastern edge of its widened box
+	private final double[] box;
+	// box around every segment box
+	private double south = 90, north = -90, west = 180, east = -180;
+
+	/**
+	 * Creates the corridor around a route
+	 *
+	 * @param latitudes Latitude coordinate of every route point in order
+	 * @param longitudes Longitude coordinate of every route point in order
+	 * @param width Largest distance in kilometers an incident may be from the route
+	 * @throws IllegalArgumentException If the route has no points, a coordinate is not on the
+	 * earth, two consecutive points are opposite each other or the width is negative
+	 */
+	public Corridor(double[] latitudes, double[] longitudes, double width) {
+		if (latitudes.length == 0 || latitudes.length != longitudes.length) {
+			throw new IllegalArgumentException("A route needs a latitude and longitude for every point");
+		}
+		if (Double.isNaN(width) || width < 0) {
+			throw new IllegalArgumentException("Width must be a positive distance: " + width);
+		}
+		int n = latitudes.length;
+		this.latitude = latitudes.clone();
+		this.longitude = longitudes.clone();
+		this.width = width;
+		this.threshold = DistanceKernel.threshold(width);
+		// a route of one point is a single segment from that point to itself
+		this.segments = Math.max(1, n - 1);
+		x = new double[n];
+		y = new double[n];
+		z = new double[n];
+		for (int i = 0; i < n; i++) {
+			if (!(Math.abs(latitude[i]) <= 90) || !(Math.abs(longitude[i]) <= 180)) {
+				throw new IllegalArgumentException("Not a location: " + latitude[i] + ", " + longitude[i]);
+			}
+			double lat = Math.toRadians(latitude[i]), lon = Math.toRadians(longitude[i]);
+			x[i] = Math.cos(lat) * Math.cos(lon);
+			y[i] = Math.cos(lat) * Math.sin(lon);
+			z[i] = Math.sin(lat);
+		}
+		normal = new double[3 * segments];
+		tangent = new double[3 * segments];
+		back = new double[3 * segments];
+		start = new double[segments];
+		length = new double[segments];
+		box = new double[4 * segments];
+		double along = 0;
+		for (int s = 0; s < segments; s++) {
+			start[s] = along;
+			prepare(s);
+			along += length[s];
+			south = Math.min(south, box[4 * s]);
+			north = Math.max(north, box[4 * s + 1]);
+			west = Math.min(west, box[4 * s + 2]);
+			east = Math.max(east, box[4 * s + 3]);
+		}
+	}
+
+	/**
+	 * Computes the vectors, length and box of a segment
+	 */
+	private void prepare(int s) {
+		int a = s, b = Math.min(s + 1, latitude.length - 1);
+		double cx = y[a] * z[b] - z[a] * y[b];
+		double cy = z[a] * x[b] - x[a] * z[b];
+		double cz = x[a] * y[b] - y[a] * x[b];
+		double sin = Math.sqrt(cx * cx + cy * cy + cz * cz);
+		double cos = x[a] * x[b] + y[a] * y[b] + z[a] * z[b];
+		double arc = Math.atan2(sin, cos);
+		length[s] = arc * DistanceKernel.EARTH_RADIUS;
+		double minLat = Math.min(latitude[a], latitude[b]), maxLat = Math.max(latitude[a], latitude[b]);
+		if (arc >= MIN_SEGMENT) {
+			if (sin < MIN_SEGMENT) {
+				throw new IllegalArgumentException("Route points " + a + " and " + b + " are opposite each other");
+			}
+			double nx = cx / sin, ny = cy / sin, nz = cz / sin;
+			set(normal, s, nx, ny, nz);
+			// n x A and B x n are unit vectors in the plane of the segment
+			set(tangent, s, ny * z[a] - nz * y[a], nz * x[a] - nx * z[a], nx * y[a] - ny * x[a]);
+			set(back, s, y[b] * nz - z[b] * ny, z[b] * nx - x[b] * nz, x[b] * ny - y[b] * nx);
+			// the great circle is furthest north where the north pole projects onto its plane, and
+			// furthest south opposite that, which only matters when that point is on the segment
+			double px = -nz * nx, py = -nz * ny, pz = 1 - nz * nz;
+			double norm = Math.sqrt(px * px + py * py + pz * pz);
+			if (norm > MIN_SEGMENT) {
+				double top = Math.toDegrees(Math.asin(Math.min(1, pz / norm)));
+				if (onSegment(s, px, py, pz)) maxLat = Math.max(maxLat, top);
+				if (onSegment(s, -px, -py, -pz)) minLat = Math.min(minLat, -top);
+			}
+		}
+		double arcDegrees = width / Incidents.KM_PER_DEGREE;
+		double widestLat = Math.max(Math.abs(minLat), Math.abs(maxLat));
+		minLat -= arcDegrees;
+		maxLat += arcDegrees;
+		box[4 * s] = Math.max(minLat, -90);
+		box[4 * s + 1] = Math.min(maxLat, 90);
+		box[4 * s + 2] = -180;
+		box[4 * s + 3] = 180;
+		// a segment across the 180th meridian or a box reaching a pole keeps every longitude
+		double west = Math.min(longitude[a], longitude[b]), east = Math.max(longitude[a], longitude[b]);
+		if (minLat <= -90 || maxLat >= 90 || east - west >= 180) return;
+		// widest longitude spread of a circle around the segment point furthest from the equator
+		double sinSpread = Math.sin(Math.toRadians(arcDegrees)) / Math.cos(Math.toRadians(widestLat));
+		if (sinSpread >= 1) return;
+		double spread = Math.toDegrees(Math.asin(sinSpread));
+		if (west - spread < -180 || east + spread > 180) return;
+		box[4 * s + 2] = west - spread;
+		box[4 * s + 3] = east + spread;
+	}
+
+	private static void set(double[] vectors, int s, double vx, double vy, double vz) {
+		vectors[3 * s] = vx;
+		vectors[3 * s + 1] = vy;
+		vectors[3 * s + 2] = vz;
+	}
+
+	/**
+	 * Checks whether a vector in the plane of a segment, or projecting onto it, lies between its
+	 * ends
+	 */
+	private boolean onSegment(int s, double vx, double vy, double vz) {
+		return vx * tangent[3 * s] + vy * tangent[3 * s + 1] + vz * tangent[3 * s + 2] >= 0
+				&& vx * back[3 * s] + vy * back[3 * s + 1] + vz * back[3 * s + 2] >= 0;
+	}
+
+	/**
+	 * Number of segments of the route, one for a route of a single point
+	 *
+	 * @return Count of segments
+	 */
+	public int segments() {
+		return segments;
+	}
+
+	/**
+	 * Largest distance an incident may be from the route
+	 *
+	 * @return Width in kilometers
+	 */
+	public double getWidth() {
+		return width;
+	}
+
+	/**
+	 * Length of the route
+	 *
+	 * @return Distance in kilometers from the first route point to the last along the route
+	 */
+	public double getLength() {
+		return start[segments - 1] + length[segments - 1];
+	}
+
+	/**
+	 * Number of points of the route
+	 *
+	 * @return Count of route points
+	 */
+	public int size() {
+		return latitude.length;
+	}
+
+	/**
+	 * Latitude coordinate of a route point
+	 *
+	 * @param i Index of the point along the route
+	 * @return Latitude of the point
+	 */
+	public double getLatitude(int i) {
+		return latitude[i];
+	}
+
+	/**
+	 * Longitude coordinate of a route point
+	 *
+	 * @param i Index of the point along the route
+	 * @return Longitude of the point
+	 */
+	public double getLongitude(int i) {
+		return longitude[i];
+	}
+
+	/**
+	 * Checks whether a box overlaps the box around the whole corridor, so a tree away from the
+	 * route is skipped without looking at its segments
+	 *
+	 * @param south Southern edge of the box
+	 * @param north Northern edge of the box
+	 * @param west Western edge of the box
+	 * @param east Eastern edge of the box
+	 * @return True if some segment box may overlap the box
+	 */
+	boolean overlaps(double south, double north, double west, double east) {
+		return this.south <= north && this.north >= south && this.west <= east && this.east >= west;
+	}
+
+	/**
+	 * Copies the segments whose widened box overlaps a box
+	 *
+	 * @param from Segment indices to look at
+	 * @param count Number of indices in from
+	 * @param into Array receiving the overlapping segment indices, as long as from
+	 * @param south Southern edge of the box
+	 * @param north Northern edge of the box
+	 * @param west Western edge of the box
+	 * @param east Eastern edge of the box
+	 * @return Number of segment indices copied into into
+	 */
+	int overlapping(int[] from, int count, int[] into, double south, double north, double west, double east) {
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			int s = from[i];
+			if (box[4 * s] <= north && box[4 * s + 1] >= south && box[4 * s + 2] <= east && box[4 * s + 3] >= west) {
+				into[n++] = s;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Measures an incident against some segments of the route
+	 *
+	 * @param lat Latitude of the incident in degrees
+	 * @param lon Longitude of the incident in degrees
+	 * @param latRad Latitude of the incident in radians
+	 * @param lonRad Longitude of the incident in radians
+	 * @param cosLat Cosine of the latitude of the incident
+	 * @param segments Segment indices to measure against
+	 * @param count Number of indices in segments
+	 * @param found Array receiving the distance in kilometers to the route and the position
+	 * along the route of the closest point when the incident is in the corridor
+	 * @return True if the incident is within the width of one of the segments
+	 */
+	boolean locate(double lat, double lon, double latRad, double lonRad, double cosLat, int[] segments, int count,
+			double[] found) {
+		// segments are compared on the haversine of their distance, which needs no inverse
+		// trigonometry, and only the closest one is measured in kilometers
+		double best = threshold;
+		int closest = -1, end = 0;
+		double px = 0, py = 0, pz = 0;
+		boolean measured = false;
+		for (int i = 0; i < count; i++) {
+			int s = segments[i];
+			if (lat < box[4 * s] || lat > box[4 * s + 1] || lon < box[4 * s + 2] || lon > box[4 * s + 3]) continue;
+			if (!measured) {
+				px = cosLat * Math.cos(lonRad);
+				py = cosLat * Math.sin(lonRad);
+				pz = Math.sin(latRad);
+				measured = true;
+			}
+			boolean inside = (tangent[3 * s] != 0 || tangent[3 * s + 1] != 0 || tangent[3 * s + 2] != 0)
+					&& onSegment(s, px, py, pz);
+			if (inside) {
+				// the closest point is inside the segment, the distance is to its great circle
+				double cross = px * normal[3 * s] + py * normal[3 * s + 1] + pz * normal[3 * s + 2];
+				double sin2 = Math.min(1, cross * cross);
+				double haversine = sin2 / (2 * (1 + Math.sqrt(1 - sin2)));
+				if (haversine <= best) {
+					best = haversine;
+					closest = s;
+					end = -1;
+				}
+			} else {
+				// a chord of length c spans an angle whose haversine is c * c / 4
+				int a = s, b = Math.min(s + 1, latitude.length - 1);
+				double toStart = chord(px, py, pz, a) * 0.25, toEnd = chord(px, py, pz, b) * 0.25;
+				if (toStart <= best || toEnd <= best) {
+					best = Math.min(toStart, toEnd);
+					closest = s;
+					end = toStart <= toEnd ? 0 : 1;
+				}
+			}
+		}
+		if (closest < 0) return false;
+		double along;
+		if (end < 0) {
+			int s = closest;
+			along = Math.atan2(px * tangent[3 * s] + py * tangent[3 * s + 1] + pz * tangent[3 * s + 2],
+					px * x[s] + py * y[s] + pz * z[s]) * DistanceKernel.EARTH_RADIUS;
+		} else {
+			along = end == 0 ? 0 : length[closest];
+		}
+		found[0] = DistanceKernel.toKilometers(best);
+		found[1] = start[closest] + along;
+		return true;
+	}
+
+	/**
+	 * Squared length of the chord between a unit vector and a route point
+	 */
+	private double chord(double px, double py, double pz, int i) {
+		double dx = px - x[i], dy = py - y[i], dz = pz - z[i];
+		return dx * dx + dy * dy + dz * dz;
+	}
+}
@@ -0,0 +1,154 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The incidents found by one corridor query, kept as row indices into the incident store with
+ * their distance to the route and their position along it. Every incident is held once however
+ * many segments of the route it is near, at the position of the closest point of the route.
+ *
+ * @version 1.0
+ */
+public class CorridorResult {
+
+	private final IncidentStore store;
+	private int size = 0;
+	private int[] rows;
+	private double[] distances;
+	private double[] positions;
+
+	/**
+	 * Creates an empty result for incidents of a store
+	 *
+	 * @param store Store the row indices refer to
+	 */
+	public CorridorResult(IncidentStore store) {
+		this.store = store;
+		this.rows = new int[16];
+		this.distances = new double[16];
+		this.positions = new double[16];
+	}
+
+	/**
+	 * Adds an incident to the result
+	 *
+	 * @param row Row index of the incident
+	 * @param distance Distance in kilometers from the route to the incident
+	 * @param position Distance in kilometers along the route to the point closest to the incident
+	 */
+	public void add(int row, double distance, double position) {
+		if (size == rows.length) {
+			rows = Arrays.copyOf(rows, size * 2);
+			distances = Arrays.copyOf(distances, size * 2);
+			positions = Arrays.copyOf(positions, size * 2);
+		}
+		rows[size] = row;
+		distances[size] = distance;
+		positions[size] = position;
+		size++;
+	}
+
+	/**
+	 * Orders the incidents from the start of the route to its end, incidents at the same
+	 * position closest to the route first. Each position and its index are packed into one long
+	 * so the sort runs over primitives as in QueryResult.
+	 */
+	public void sortByPosition() {
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = ((long) Float.floatToIntBits((float) positions[i]) << 32) | i;
+		}
+		Arrays.sort(keys);
+		int[] sortedRows = new int[rows.length];
+		double[] sortedDistances = new double[distances.length];
+		double[] sortedPositions = new double[positions.length];
+		for (int i = 0; i < size; i++) {
+			int from = (int) keys[i];
+			sortedRows[i] = rows[from];
+			sortedDistances[i] = distances[from];
+			sortedPositions[i] = positions[from];
+		}
+		// positions that round to the same float may be out of order, an insertion pass fixes them
+		for (int i = 1; i < size; i++) {
+			int row = sortedRows[i];
+			double distance = sortedDistances[i], position = sortedPositions[i];
+			int j = i - 1;
+			while (j >= 0 && (sortedPositions[j] > position
+					|| (sortedPositions[j] == position && sortedDistances[j] > distance))) {
+				sortedRows[j + 1] = sortedRows[j];
+				sortedDistances[j + 1] = sortedDistances[j];
+				sortedPositions[j + 1] = sortedPositions[j];
+				j--;
+			}
+			sortedRows[j + 1] = row;
+			sortedDistances[j + 1] = distance;
+			sortedPositions[j + 1] = position;
+		}
+		rows = sortedRows;
+		distances = sortedDistances;
+		positions = sortedPositions;
+	}
+
+	/**
+	 * Number of incidents in the result
+	 *
+	 * @return Count of incidents found
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Row index of an incident in the result
+	 *
+	 * @param i Position in the result
+	 * @return Row index into the store
+	 */
+	public int getRow(int i) {
+		return rows[i];
+	}
+
+	/**
+	 * Distance from the route to an incident in the result
+	 *
+	 * @param i Position in the result
+	 * @return Distance in kilometers from the closest point of the route to the incident
+	 */
+	public double getDistance(int i) {
+		return distances[i];
+	}
+
+	/**
+	 * Position along the route of an incident in the result
+	 *
+	 * @param i Position in the result
+	 * @return Distance in kilometers along the route from its first point to the point closest
+	 * to the incident
+	 */
+	public double getPosition(int i) {
+		return positions[i];
+	}
+
+	/**
+	 * Store the row indices refer to
+	 *
+	 * @return IncidentStore holding the incidents
+	 */
+	public IncidentStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Builds an Incidents ADT for every incident in the result so they can be shown to the user
+	 *
+	 * @return ArrayList of Incidents in result order with their distance to the route set
+	 */
+	public ArrayList<Incidents> getIncidents() {
+		ArrayList<Incidents> incidents = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			Incidents incident = store.get(rows[i]);
+			incident.setDisToIncident(distances[i]);
+			incidents.add(incident);
+		}
+		return incidents;
+	}
+}
@@ -0,0 +1,430 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * A single pass CSV reader that works directly on the bytes of the file. Fields are split by
+ * a small state machine instead of a regular expression so quoted fields that contain commas,
+ * escaped quotes or line breaks are handled in one scan without joining lines together.
+ * The position of every record in the stream is tracked so a record can be found and read
+ * again later without keeping its text.
+ *
+ * @version 1.2
+ */
+public class CsvReader {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	// states of the field splitting state machine
+	private static final int FIELD_START = 0;
+	private static final int UNQUOTED = 1;
+	private static final int QUOTED = 2;
+	private static final int QUOTE_IN_QUOTED = 3;
+
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15 };
+
+	private final InputStream input;
+	private final byte[] buffer;
+	private int position = 0;
+	private int limit = 0;
+	private boolean endOfInput = false;
+	// offset of the first byte of the stream, and bytes of the stream before the buffer
+	private final long base;
+	private long consumed = 0;
+	// offset and length in bytes of the current record, line break included
+	private long recordOffset;
+	private int recordBytes;
+	// fields read of every record, the rest of a record is skipped
+	private int wanted = Integer.MAX_VALUE;
+
+	// bytes of every field in the current record stored back to back
+	private byte[] record = new byte[1024];
+	private int recordLength = 0;
+	private int[] fieldStart = new int[32];
+	private int[] fieldEnd = new int[32];
+	private int fieldCount = 0;
+
+	/**
+	 * Creates a reader over a stream of UTF-8 encoded CSV data, a leading byte order mark is skipped
+	 *
+	 * @param input Stream the CSV data is read from
+	 * @throws IOException If the stream can not be read
+	 */
+	public CsvReader(InputStream input) throws IOException {
+		this(input, 0);
+	}
+
+	/**
+	 * Creates a reader over a stream of UTF-8 encoded CSV data that starts part way into a file,
+	 * a leading byte order mark is skipped
+	 *
+	 * @param input Stream the CSV data is read from
+	 * @param base Offset in the file of the first byte of the stream, added to record offsets
+	 * @throws IOException If the stream can not be read
+	 */
+	public CsvReader(InputStream input, long base) throws IOException {
+		this.input = input;
+		this.buffer = new byte[BUFFER_SIZE];
+		this.base = base;
+		fill();
+		if (limit >= 3 && (buffer[0] & 0xFF) == 0xEF && (buffer[1] & 0xFF) == 0xBB && (buffer[2] & 0xFF) == 0xBF) {
+			position = 3;
+		}
+	}
+
+	/**
+	 * Creates a reader over CSV data already in memory, such as one record read back from a file
+	 *
+	 * @param bytes Array holding the UTF-8 encoded data, it is read in place and not copied
+	 * @param offset Position of the first byte of the data in the array
+	 * @param length Number of bytes of data
+	 */
+	public CsvReader(byte[] bytes, int offset, int length) {
+		this.input = null;
+		this.buffer = bytes;
+		this.base = -offset;
+		this.position = offset;
+		this.limit = offset + length;
+		this.endOfInput = true;
+	}
+
+	/**
+	 * Reads the next record into this reader, blank lines are skipped
+	 *
+	 * @return True if a record was read, false once the end of the data is reached
+	 * @throws IOException If the stream can not be read
+	 */
+	public boolean next() throws IOException {
+		do {
+			if (!parseRecord()) return false;
+		} while (fieldCount == 1 && fieldEnd[0] == fieldStart[0]);
+		return true;
+	}
+
+	/**
+	 * Reads the next record into this reader but only its first fields, the rest of the record
+	 * is skipped without being decoded
+	 *
+	 * @param fields Number of fields to read, at least 2
+	 * @return True if a record was read, false once the end of the data is reached
+	 * @throws IOException If the stream can not be read
+	 */
+	public boolean next(int fields) throws IOException {
+		wanted = fields;
+		try {
+			return next();
+		} finally {
+			wanted = Integer.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Number of fields in the current record
+	 *
+	 * @return Count of fields read for the current record
+	 */
+	public int size() {
+		return fieldCount;
+	}
+
+	/**
+	 * Checks whether a field of the current record is missing or has no characters
+	 *
+	 * @param column Index of the field
+	 * @return True if the field is not present or empty
+	 */
+	public boolean isEmpty(int column) {
+		return column >= fieldCount || fieldStart[column] == fieldEnd[column];
+	}
+
+	/**
+	 * Position of the current record in the file
+	 *
+	 * @return Offset in bytes of the first byte of the record
+	 */
+	public long getRecordOffset() {
+		return recordOffset;
+	}
+
+	/**
+	 * Size of the current record in the file
+	 *
+	 * @return Number of bytes from the start of the record to its line break, the line break included
+	 */
+	public int getRecordLength() {
+		return recordBytes;
+	}
+
+	/**
+	 * Decodes a field of the current record, quotes are already removed
+	 *
+	 * @param column Index of the field
+	 * @return Text of the field, an empty string if the field is not present
+	 */
+	public String get(int column) {
+		if (column >= fieldCount) return "";
+		return new String(record, fieldStart[column], fieldEnd[column] - fieldStart[column], StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Parses a field of the current record as a whole number without creating a string
+	 *
+	 * @param column Index of the field
+	 * @return Value of the field
+	 * @throws NumberFormatException If the field is not a whole number or does not fit in a long
+	 */
+	public long getLong(int column) {
+		if (isEmpty(column)) throw new NumberFormatException("empty field " + column);
+		int start = fieldStart[column];
+		int end = fieldEnd[column];
+		boolean negative = record[start] == '-';
+		if (negative || record[start] == '+') start++;
+		if (start == end) throw new NumberFormatException(get(column));
+		// summed as a negative number, as Long.parseLong does, so Long.MIN_VALUE can be read
+		long value = 0;
+		try {
+			for (int i = start; i < end; i++) {
+				int digit = record[i] - '0';
+				if (digit < 0 || digit > 9) throw new NumberFormatException(get(column));
+				value = Math.subtractExact(Math.multiplyExact(value, 10), digit);
+			}
+			return negative ? value : Math.negateExact(value);
+		} catch (ArithmeticException e) {
+			throw new NumberFormatException("Out of range: " + get(column));
+		}
+	}
+
+	/**
+	 * Parses a field of the current record as a whole number
+	 *
+	 * @param column Index of the field
+	 * @return Value of the field
+	 * @throws NumberFormatException If the field is not a whole number or does not fit in an int
+	 */
+	public int getInt(int column) {
+		long value = getLong(column);
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new NumberFormatException("Out of range: " + get(column));
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Parses a field of the current record as a decimal number
+	 *
+	 * @param column Index of the field
+	 * @return Value of the field
+	 * @throws NumberFormatException If the field is not a number
+	 */
+	public double getDouble(int column) {
+		if (isEmpty(column)) throw new NumberFormatException("empty field " + column);
+		int start = fieldStart[column];
+		int end = fieldEnd[column];
+		// plain decimals such as 40.3467 are handled without going through Double.parseDouble
+		boolean negative = record[start] == '-';
+		int i = negative ? start + 1 : start;
+		long digits = 0;
+		int scale = 0;
+		int count = 0;
+		boolean fraction = false;
+		for (; i < end; i++) {
+			byte b = record[i];
+			if (b == '.' && !fraction) {
+				fraction = true;
+			} else if (b >= '0' && b <= '9' && count < 15) {
+				digits = digits * 10 + (b - '0');
+				count++;
+				if (fraction) scale++;
+			} else {
+				return Double.parseDouble(get(column));
+			}
+		}
+		if (count == 0) throw new NumberFormatException(get(column));
+		double value = digits / POWERS_OF_TEN[scale];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parses a field of the current record written as yyyy-mm-dd into a day count
+	 *
+	 * @param column Index of the field
+	 * @return Days since 1970-01-01 of the date in the field
+	 * @throws NumberFormatException If the field is not a valid date
+	 */
+	public int getEpochDay(int column) {
+		int start = fieldStart[column];
+		if (isEmpty(column) || fieldEnd[column] - start != 10 || record[start + 4] != '-' || record[start + 7] != '-') {
+			throw new NumberFormatException("not a date " + get(column));
+		}
+		int year = digits(start, 4), month = digits(start + 5, 2), day = digits(start + 8, 2);
+		if (year < 0 || month < 0 || day < 0) throw new NumberFormatException("not a date " + get(column));
+		try {
+			return (int) LocalDate.of(year, month, day).toEpochDay();
+		} catch (DateTimeException e) {
+			throw new NumberFormatException("not a date " + get(column));
+		}
+	}
+
+	/**
+	 * Reads a run of digits of the current record
+	 *
+	 * @return Value of the digits, -1 if one of them is not a digit
+	 */
+	private int digits(int start, int length) {
+		int value = 0;
+		for (int i = start; i < start + length; i++) {
+			int digit = record[i] - '0';
+			if (digit < 0 || digit > 9) return -1;
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Closes the underlying stream
+	 *
+	 * @throws IOException If the stream can not be closed
+	 */
+	public void close() throws IOException {
+		if (input != null) input.close();
+	}
+
+	/**
+	 * Runs the state machine over the bytes of one record
+	 *
+	 * @return False if there was no data left to read
+	 * @throws IOException If the stream can not be read
+	 */
+	@SuppressWarnings("fallthrough")
+	private boolean parseRecord() throws IOException {
+		recordLength = 0;
+		fieldCount = 0;
+		if (position >= limit && !fill()) return false;
+		recordOffset = base + consumed + position;
+
+		int state = FIELD_START;
+		startField();
+		while (true) {
+			if (position >= limit && !fill()) {
+				endField();
+				endRecord();
+				return true;
+			}
+			byte b = buffer[position++];
+			switch (state) {
+			case FIELD_START:
+				if (b == '"') {
+					state = QUOTED;
+					break;
+				}
+				state = UNQUOTED;
+				// fall through, the byte belongs to an unquoted field
+			case UNQUOTED:
+				if (b == ',') {
+					endField();
+					if (fieldCount == wanted) {
+						skipRecord();
+						return true;
+					}
+					startField();
+					state = FIELD_START;
+				} else if (b == '\n') {
+					endField();
+					endRecord();
+					return true;
+				} else if (b != '\r') {
+					append(b);
+				}
+				break;
+			case QUOTED:
+				if (b == '"') state = QUOTE_IN_QUOTED;
+				else append(b);
+				break;
+			case QUOTE_IN_QUOTED:
+				if (b == '"') {
+					// a doubled quote is an escaped quote inside the field
+					append(b);
+					state = QUOTED;
+				} else if (b == ',') {
+					endField();
+					if (fieldCount == wanted) {
+						skipRecord();
+						return true;
+					}
+					startField();
+					state = FIELD_START;
+				} else if (b == '\n') {
+					endField();
+					endRecord();
+					return true;
+				} else if (b != '\r') {
+					append(b);
+					state = UNQUOTED;
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Refills the buffer from the stream
+	 *
+	 * @return False if the end of the stream was reached
+	 * @throws IOException If the stream can not be read
+	 */
+	private boolean fill() throws IOException {
+		if (endOfInput) return false;
+		consumed += limit;
+		position = 0;
+		limit = 0;
+		int read = input.read(buffer, 0, buffer.length);
+		if (read <= 0) {
+			endOfInput = true;
+			return false;
+		}
+		limit = read;
+		return true;
+	}
+
+	/**
+	 * Moves past the rest of the current record from the start of a field
+	 */
+	private void skipRecord() throws IOException {
+		boolean quoted = false;
+		while (position < limit || fill()) {
+			byte b = buffer[position++];
+			if (b == '"') {
+				quoted = !quoted;
+			} else if (b == '\n' && !quoted) {
+				break;
+			}
+		}
+		endRecord();
+	}
+
+	private void endRecord() {
+		recordBytes = (int) Math.min(Integer.MAX_VALUE, base + consumed + position - recordOffset);
+	}
+
+	private void startField() {
+		if (fieldCount == fieldStart.length) {
+			fieldStart = Arrays.copyOf(fieldStart, fieldCount * 2);
+			fieldEnd = Arrays.copyOf(fieldEnd, fieldCount * 2);
+		}
+		fieldStart[fieldCount] = recordLength;
+	}
+
+	private void endField() {
+		fieldEnd[fieldCount] = recordLength;
+		fieldCount++;
+	}
+
+	private void append(byte b) {
+		if (recordLength == record.length) record = Arrays.copyOf(record, recordLength * 2);
+		record[recordLength++] = b;
+	}
+}
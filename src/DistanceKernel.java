@@ -0,0 +1,81 @@
+/**
+ * Great circle distances from one query location to many incidents. The trigonometry of the
+ * query location is done once when the kernel is created, and each incident brings its own
+ * latitude and longitude in radians and the cosine of its latitude from the store, so a distance
+ * costs two sines and a few multiplications.
+ *
+ * The haversine formula is used because it stays accurate for points close together, where the
+ * arc cosine of the spherical law of cosines loses most of its precision.
+ *
+ * @version 1.0
+ */
+public final class DistanceKernel {
+
+	// radius of the sphere that matches Incidents.KM_PER_DEGREE
+	public static final double EARTH_RADIUS = Incidents.KM_PER_DEGREE * 180 / Math.PI;
+
+	private final double latitude;
+	private final double longitude;
+	private final double cosLatitude;
+
+	/**
+	 * Creates a kernel for distances from the users desired location
+	 *
+	 * @param userLat Latitude coordinate of users desired location in degrees
+	 * @param userLong Longitude coordinate of users desired location in degrees
+	 */
+	public DistanceKernel(double userLat, double userLong) {
+		this.latitude = Math.toRadians(userLat);
+		this.longitude = Math.toRadians(userLong);
+		this.cosLatitude = Math.cos(latitude);
+	}
+
+	/**
+	 * Haversine of the angle to an incident. It grows with the distance so it can be compared to
+	 * a threshold without converting it to kilometers.
+	 *
+	 * @param latRad Latitude of the incident in radians
+	 * @param lonRad Longitude of the incident in radians
+	 * @param cosLat Cosine of the latitude of the incident
+	 * @return Haversine of the central angle between the two locations
+	 */
+	public double haversine(double latRad, double lonRad, double cosLat) {
+		double sinLat = Math.sin((latRad - latitude) * 0.5);
+		double sinLon = Math.sin((lonRad - longitude) * 0.5);
+		return sinLat * sinLat + cosLatitude * cosLat * sinLon * sinLon;
+	}
+
+	/**
+	 * Distance to an incident
+	 *
+	 * @param latRad Latitude of the incident in radians
+	 * @param lonRad Longitude of the incident in radians
+	 * @param cosLat Cosine of the latitude of the incident
+	 * @return Distance in kilometers from users desired location to the incident
+	 */
+	public double distance(double latRad, double lonRad, double cosLat) {
+		return toKilometers(haversine(latRad, lonRad, cosLat));
+	}
+
+	/**
+	 * Converts a haversine to a distance
+	 *
+	 * @param haversine Haversine of a central angle
+	 * @return Distance in kilometers along the surface
+	 */
+	public static double toKilometers(double haversine) {
+		return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(Math.min(1, haversine)));
+	}
+
+	/**
+	 * Largest haversine of an incident within range
+	 *
+	 * @param range Distance from users desired location in kilometers
+	 * @return Haversine of the central angle the range spans
+	 */
+	public static double threshold(double range) {
+		if (range >= Math.PI * EARTH_RADIUS) return 1;
+		double sin = Math.sin(range / (2 * EARTH_RADIUS));
+		return sin * sin;
+	}
+}
@@ -0,0 +1,306 @@
+/**
+ * A nationwide spatial index over every incident, keyed by geohash. The latitude and longitude
+ * of each incident are quantized and their bits interleaved into one cell code, so incidents
+ * that are close on the map are mostly close in code order. The incidents are sorted by code
+ * and a radius query covers its box with a small set of geohash cells, each of which is one
+ * contiguous run of the sorted codes.
+ *
+ * The work of a query depends on the area of the circle and the incidents in it, not on how
+ * many States the circle touches, so no State has to be given.
+ *
+ * @version 1.3
+ */
+public class GeohashIndex {
+
+	// bits of each coordinate, the cell code holds twice as many
+	private static final int BITS = 26;
+	private static final double CELLS = 1L << BITS;
+	// a covering cell is split while it is larger than the range divided by this
+	private static final double COVER_DETAIL = 2;
+
+	private final long[] codes;
+	private final int[] rows;
+	private final double[] latitude;
+	private final double[] longitude;
+	private final int[] stateCode;
+	private final int[] date;
+	private final double[] latitudeRadians;
+	private final double[] longitudeRadians;
+	private final double[] cosLatitude;
+
+	/**
+	 * Builds the index over every incident of a store
+	 *
+	 * @param store Store holding the incidents
+	 */
+	public GeohashIndex(IncidentStore store) {
+		this(store, null);
+	}
+
+	/**
+	 * Builds the index over every incident of a store, in the order saved from another index
+	 * over the same store when there is one so the rows are not sorted again
+	 *
+	 * @param store Store holding the incidents
+	 * @param order Row of every position as given by getRows, null to sort the rows by code
+	 */
+	GeohashIndex(IncidentStore store, int[] order) {
+		int n = store.size();
+		long[] keys = new long[n];
+		for (int row = 0; row < n; row++) {
+			keys[row] = encode(store.getLatitude(row), store.getLongitude(row));
+		}
+		if (order == null) {
+			order = sortByCode(keys);
+		}
+		codes = new long[n];
+		rows = new int[n];
+		latitude = new double[n];
+		longitude = new double[n];
+		stateCode = new int[n];
+		date = new int[n];
+		latitudeRadians = new double[n];
+		longitudeRadians = new double[n];
+		cosLatitude = new double[n];
+		for (int i = 0; i < n; i++) {
+			int row = order[i];
+			codes[i] = keys[row];
+			rows[i] = row;
+			latitude[i] = store.getLatitude(row);
+			longitude[i] = store.getLongitude(row);
+			stateCode[i] = store.getStateCode(row);
+			date[i] = store.getDate(row);
+			latitudeRadians[i] = store.getLatitudeRadians(row);
+			longitudeRadians[i] = store.getLongitudeRadians(row);
+			cosLatitude[i] = store.getCosLatitude(row);
+		}
+	}
+
+	/**
+	 * Number of incidents in the index
+	 *
+	 * @return Count of incidents
+	 */
+	public int size() {
+		return codes.length;
+	}
+
+	/**
+	 * Row of every position of the index, shared with the index and not to be changed
+	 *
+	 * @return Rows in code order
+	 */
+	int[] getRows() {
+		return rows;
+	}
+
+	/**
+	 * Finds every incident within a range of the users desired location in any State
+	 *
+	 * @param userLat Latitude coordinate of users desired location
+	 * @param userLong Longitude coordinate of users desired location
+	 * @param range Distance from users desired location in kilometers
+	 * @param result Result the incidents in range are added to, ordered by distance
+	 */
+	public void radius(double userLat, double userLong, double range, QueryResult result) {
+		radius(userLat, userLong, range, -1, result);
+	}
+
+	/**
+	 * Finds every incident within a range of the users desired location in one State
+	 *
+	 * @param userLat Latitude coordinate of users desired location
+	 * @param userLong Longitude coordinate of users desired location
+	 * @param range Distance from users desired location in kilometers
+	 * @param state Code of the State to keep incidents of, -1 to keep every State
+	 * @param result Result the incidents in range are added to, ordered by distance
+	 */
+	public void radius(double userLat, double userLong, double range, int state, QueryResult result) {
+		radius(userLat, userLong, range, state, Integer.MIN_VALUE, Integer.MAX_VALUE, result);
+	}
+
+	/**
+	 * Finds every incident within a range of the users desired location in one State that took
+	 * place between two dates. The cells are ordered by location only, so the dates are compared
+	 * for every incident inside the box.
+	 *
+	 * @param userLat Latitude coordinate of users desired location
+	 * @param userLong Longitude coordinate of users desired location
+	 * @param range Distance from users desired location in kilometers
+	 * @param state Code of the State to keep incidents of, -1 to keep every State
+	 * @param fromDay First day to keep, in days since 1970-01-01
+	 * @param toDay Last day to keep, in days since 1970-01-01
+	 * @param result Result the incidents in range are added to, ordered by distance
+	 */
+	public void radius(double userLat, double userLong, double range, int state, int fromDay, int toDay,
+			QueryResult result) {
+		Search search = new Search(userLat, userLong, range, state, fromDay, toDay, result);
+		BoundingBox box = search.box;
+		if (box.wraps()) {
+			cover(0, 0, -90, 90, -180, 180, box.getMinLon(), 180, search);
+			cover(0, 0, -90, 90, -180, 180, -180, box.getMaxLon(), search);
+		} else {
+			cover(0, 0, -90, 90, -180, 180, box.getMinLon(), box.getMaxLon(), search);
+		}
+		result.sortByDistance();
+	}
+
+	/**
+	 * Quantizes a location and interleaves the bits, longitude first as in a geohash
+	 *
+	 * @param latitude Latitude coordinate
+	 * @param longitude Longitude coordinate
+	 * @return Geohash cell code of the location
+	 */
+	static long encode(double latitude, double longitude) {
+		long lat = quantize(latitude + 90, 180);
+		long lon = quantize(longitude + 180, 360);
+		return spread(lon) << 1 | spread(lat);
+	}
+
+	private static long quantize(double offset, double span) {
+		long cell = (long) (offset / span * CELLS);
+		return Math.max(0, Math.min((long) CELLS - 1, cell));
+	}
+
+	/**
+	 * Moves the bits of a coordinate apart so another coordinate can fill the gaps
+	 *
+	 * @param x Quantized coordinate
+	 * @return The bits of x at every second position
+	 */
+	private static long spread(long x) {
+		x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+		x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+		x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		x = (x | (x << 2)) & 0x3333333333333333L;
+		x = (x | (x << 1)) & 0x5555555555555555L;
+		return x;
+	}
+
+	/**
+	 * Visits the geohash cells under one cell that overlap a longitude span of the box. A cell
+	 * entirely inside the box, or small enough, is scanned as one run of codes, larger cells are
+	 * split in four.
+	 *
+	 * @param prefix Code bits of the cell
+	 * @param level Number of splits of each coordinate that led to the cell
+	 * @param cellMinLat Southern edge of the cell
+	 * @param cellMaxLat Northern edge of the cell
+	 * @param cellMinLon Western edge of the cell
+	 * @param cellMaxLon Eastern edge of the cell
+	 * @param minLon Western edge of the span being covered
+	 * @param maxLon Eastern edge of the span being covered
+	 * @param search Query being answered
+	 */
+	private void cover(long prefix, int level, double cellMinLat, double cellMaxLat, double cellMinLon,
+			double cellMaxLon, double minLon, double maxLon, Search search) {
+		double minLat = search.box.getMinLat(), maxLat = search.box.getMaxLat();
+		if (cellMaxLat < minLat || cellMinLat > maxLat || cellMaxLon < minLon || cellMinLon > maxLon) return;
+		boolean inside = cellMinLat >= minLat && cellMaxLat <= maxLat && cellMinLon >= minLon && cellMaxLon <= maxLon;
+		if (inside || level == BITS || cellMaxLat - cellMinLat <= search.detail) {
+			int shift = 2 * (BITS - level);
+			scan(prefix << shift, ((prefix + 1) << shift) - 1, search);
+			return;
+		}
+		double midLat = (cellMinLat + cellMaxLat) / 2;
+		double midLon = (cellMinLon + cellMaxLon) / 2;
+		// children in code order: the longitude bit comes before the latitude bit
+		cover(prefix << 2, level + 1, cellMinLat, midLat, cellMinLon, midLon, minLon, maxLon, search);
+		cover(prefix << 2 | 1, level + 1, midLat, cellMaxLat, cellMinLon, midLon, minLon, maxLon, search);
+		cover(prefix << 2 | 2, level + 1, cellMinLat, midLat, midLon, cellMaxLon, minLon, maxLon, search);
+		cover(prefix << 2 | 3, level + 1, midLat, cellMaxLat, midLon, cellMaxLon, minLon, maxLon, search);
+	}
+
+	/**
+	 * Tests every incident whose code is in a range
+	 *
+	 * @param from Smallest code of the range
+	 * @param to Largest code of the range
+	 * @param search Query being answered
+	 */
+	private void scan(long from, long to, Search search) {
+		for (int i = lowerBound(from); i < codes.length && codes[i] <= to; i++) {
+			if (search.state >= 0 && stateCode[i] != search.state) continue;
+			if (date[i] < search.fromDay || date[i] > search.toDay) continue;
+			if (!search.box.contains(latitude[i], longitude[i])) continue;
+			double haversine = search.kernel.haversine(latitudeRadians[i], longitudeRadians[i], cosLatitude[i]);
+			if (haversine <= search.threshold) {
+				search.result.add(rows[i], DistanceKernel.toKilometers(haversine));
+			}
+		}
+	}
+
+	/**
+	 * Position of the first code that is not smaller than a value
+	 *
+	 * @param code Code to search for
+	 * @return Position in the sorted codes
+	 */
+	private int lowerBound(long code) {
+		int lo = 0, hi = codes.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (codes[mid] < code) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Orders rows by cell code with a least significant digit radix sort, ties keep row order
+	 *
+	 * @param keys Cell code of every row
+	 * @return Row indices in code order
+	 */
+	private static int[] sortByCode(long[] keys) {
+		int n = keys.length;
+		int[] order = new int[n];
+		int[] next = new int[n];
+		for (int row = 0; row < n; row++) {
+			order[row] = row;
+		}
+		for (int shift = 0; shift < 2 * BITS; shift += 16) {
+			int[] count = new int[(1 << 16) + 1];
+			for (int i = 0; i < n; i++) {
+				count[(int) (keys[order[i]] >>> shift & 0xFFFF) + 1]++;
+			}
+			for (int d = 0; d < 1 << 16; d++) {
+				count[d + 1] += count[d];
+			}
+			for (int i = 0; i < n; i++) {
+				next[count[(int) (keys[order[i]] >>> shift & 0xFFFF)]++] = order[i];
+			}
+			int[] swap = order;
+			order = next;
+			next = swap;
+		}
+		return order;
+	}
+
+	/**
+	 * State of one radius query
+	 */
+	private static class Search {
+		private final DistanceKernel kernel;
+		private final double threshold;
+		private final int state;
+		private final int fromDay, toDay;
+		private final QueryResult result;
+		private final BoundingBox box;
+		// cells no taller than this are scanned instead of split
+		private final double detail;
+
+		Search(double userLat, double userLong, double range, int state, int fromDay, int toDay, QueryResult result) {
+			this.kernel = new DistanceKernel(userLat, userLong);
+			this.threshold = DistanceKernel.threshold(range);
+			this.state = state;
+			// incidents of unknown date are only kept when there are no date limits
+			this.fromDay = IncidentStore.firstDay(fromDay, toDay);
+			this.toDay = toDay;
+			this.result = result;
+			this.box = BoundingBox.around(userLat, userLong, range);
+			this.detail = Math.max(range / Incidents.KM_PER_DEGREE / COVER_DETAIL, 180 / CELLS);
+		}
+	}
+}
@@ -0,0 +1,343 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.imageio.ImageIO;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * The number of incidents around every cell of a national grid, computed once so the danger
+ * level of any location is a single read instead of a radius query.
+ *
+ * Cells are about the same number of kilometers tall and wide at the middle latitude of the
+ * grid. The value of a cell is the number of incidents in the cells whose centers are within
+ * a radius of its center, saturating at 65535. The incidents are first counted per cell with
+ * running sums along every row of cells, so the disc around a cell costs one subtraction per
+ * row of the disc, and the rows of the raster are filled in parallel.
+ *
+ * Layout of the raster file, all numbers big endian:
+ * header: magic, version, rows, columns, south, west, cell height, cell width in degrees, radius
+ * then one unsigned 16 bit count per cell, row after row from the south
+ *
+ * A raster read from a file is memory mapped, so opening it costs nothing however large it is.
+ *
+ * @version 1.0
+ */
+public class HeatmapRaster {
+
+	private static final int MAGIC = 0x5444484D; // "TDHM"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 56;
+	private static final int MAX_COUNT = 0xFFFF;
+	// side in pixels of the image tiles, one pixel per cell
+	private static final int TILE_SIZE = 256;
+	// colours of the tiles by danger level, with the alpha of a cell holding MAX_COUNT
+	private static final int LOW_COLOUR = 0x2E7D32, MODERATE_COLOUR = 0xF9A825, HIGH_COLOUR = 0xC62828;
+
+	private final int rows, columns;
+	private final double south, west, latStep, lonStep, radius;
+	private final CharBuffer counts;
+
+	private HeatmapRaster(int rows, int columns, double south, double west, double latStep, double lonStep,
+			double radius, CharBuffer counts) {
+		this.rows = rows;
+		this.columns = columns;
+		this.south = south;
+		this.west = west;
+		this.latStep = latStep;
+		this.lonStep = lonStep;
+		this.radius = radius;
+		this.counts = counts;
+	}
+
+	/**
+	 * Counts the incidents around every cell of a grid. Incidents outside the grid are left out.
+	 *
+	 * @param store Store holding the incidents
+	 * @param south Southern edge of the grid
+	 * @param north Northern edge of the grid
+	 * @param west Western edge of the grid
+	 * @param east Eastern edge of the grid
+	 * @param cellKm Side of a cell in kilometers
+	 * @param radiusKm Radius around a cell its incidents are counted in, in kilometers
+	 * @param parallelism Number of worker threads to fill the rows on
+	 * @return The raster
+	 * @throws IllegalArgumentException If the cell side is not positive, the radius is negative,
+	 * or the grid is empty or has more cells than fit in one array
+	 */
+	public static HeatmapRaster build(IncidentStore store, double south, double north, double west, double east,
+			double cellKm, double radiusKm, int parallelism) {
+		if (!(cellKm > 0) || !(radiusKm >= 0)) {
+			throw new IllegalArgumentException("Cells of " + cellKm + " km counting a radius of " + radiusKm + " km");
+		}
+		double latStep = cellKm / Incidents.KM_PER_DEGREE;
+		double lonStep = latStep / Math.cos(Math.toRadians((south + north) / 2));
+		int rows = (int) Math.ceil((north - south) / latStep);
+		int columns = (int) Math.ceil((east - west) / lonStep);
+		if (rows <= 0 || columns <= 0 || (long) rows * (columns + 1) > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Grid of " + rows + " by " + columns + " cells");
+		}
+
+		// running count of the incidents along every row, entry j of a row counts the cells before j
+		int width = columns + 1;
+		int[] sums = new int[rows * width];
+		for (int row = 0; row < store.size(); row++) {
+			int i = (int) Math.floor((store.getLatitude(row) - south) / latStep);
+			int j = (int) Math.floor((store.getLongitude(row) - west) / lonStep);
+			if (i >= 0 && i < rows && j >= 0 && j < columns) sums[i * width + j + 1]++;
+		}
+		for (int i = 0; i < rows; i++) {
+			for (int j = 1; j <= columns; j++) {
+				sums[i * width + j] += sums[i * width + j - 1];
+			}
+		}
+
+		char[] counts = new char[rows * columns];
+		HeatmapRaster raster = new HeatmapRaster(rows, columns, south, west, latStep, lonStep, radiusKm,
+				CharBuffer.wrap(counts));
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(raster.new Fill(sums, counts, cellKm, 0, rows));
+		} finally {
+			pool.shutdown();
+		}
+		return raster;
+	}
+
+	/**
+	 * Fills the counts of a range of rows, splitting it while it is large
+	 */
+	private class Fill extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		// ranges this small are filled on one thread
+		private static final int SPLIT_ROWS = 16;
+		private final int[] sums;
+		private final char[] counts;
+		private final double cellKm;
+		private final int from, to;
+
+		Fill(int[] sums, char[] counts, double cellKm, int from, int to) {
+			this.sums = sums;
+			this.counts = counts;
+			this.cellKm = cellKm;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from > SPLIT_ROWS) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Fill(sums, counts, cellKm, from, mid), new Fill(sums, counts, cellKm, mid, to));
+				return;
+			}
+			int reach = (int) (radius / cellKm);
+			int[] halfWidth = new int[2 * reach + 1];
+			int width = columns + 1;
+			for (int i = from; i < to; i++) {
+				// cells get narrower away from the equator, so the disc spans more of them
+				double cellWidth = lonStep * Incidents.KM_PER_DEGREE * Math.cos(Math.toRadians(south + (i + 0.5) * latStep));
+				for (int d = -reach; d <= reach; d++) {
+					double across = Math.sqrt(Math.max(0, radius * radius - d * cellKm * d * cellKm));
+					halfWidth[d + reach] = (int) (across / cellWidth);
+				}
+				for (int j = 0; j < columns; j++) {
+					int count = 0;
+					for (int d = -reach; d <= reach; d++) {
+						int row = i + d;
+						if (row < 0 || row >= rows) continue;
+						int lo = Math.max(0, j - halfWidth[d + reach]);
+						int hi = Math.min(columns, j + halfWidth[d + reach] + 1);
+						count += sums[row * width + hi] - sums[row * width + lo];
+					}
+					counts[i * columns + j] = (char) Math.min(MAX_COUNT, count);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Memory maps a raster written by write
+	 *
+	 * @param file Raster file
+	 * @return The raster, reading its counts from the file
+	 * @throws IOException If the file can not be read or is not a raster file
+	 */
+	public static HeatmapRaster open(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+				throw new IOException("Not a heatmap raster: " + file);
+			}
+			int rows = raf.readInt(), columns = raf.readInt();
+			double south = raf.readDouble(), west = raf.readDouble();
+			double latStep = raf.readDouble(), lonStep = raf.readDouble(), radius = raf.readDouble();
+			if (raf.length() != HEADER_SIZE + 2L * rows * columns) {
+				throw new IOException("Truncated heatmap raster: " + file);
+			}
+			CharBuffer counts = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, 2L * rows * columns)
+					.asCharBuffer();
+			return new HeatmapRaster(rows, columns, south, west, latStep, lonStep, radius, counts);
+		}
+	}
+
+	/**
+	 * Writes the raster to a file. The file is written next to the target and moved into place
+	 * once complete so a reader never maps half a raster, and is deleted if the raster can not be
+	 * completed.
+	 *
+	 * @param file Raster file to write
+	 * @throws IOException If the file can not be written
+	 */
+	public void write(File file) throws IOException {
+		File temp = new File(file.getPath() + ".tmp");
+		try {
+			try (RandomAccessFile raf = new RandomAccessFile(temp, "rw"); FileChannel channel = raf.getChannel()) {
+				raf.setLength(0);
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(columns);
+				header.putDouble(south).putDouble(west).putDouble(latStep).putDouble(lonStep).putDouble(radius);
+				header.flip();
+				while (header.hasRemaining()) channel.write(header);
+				ByteBuffer body = ByteBuffer.allocate(1 << 16);
+				for (int i = 0; i < counts.limit(); i++) {
+					if (!body.hasRemaining()) {
+						body.flip();
+						while (body.hasRemaining()) channel.write(body);
+						body.clear();
+					}
+					body.putChar(counts.get(i));
+				}
+				body.flip();
+				while (body.hasRemaining()) channel.write(body);
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException | RuntimeException e) {
+			temp.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Number of incidents around a location
+	 *
+	 * @param latitude Latitude of the location
+	 * @param longitude Longitude of the location
+	 * @return Count of the cell holding the location, 0 outside the grid
+	 */
+	public int count(double latitude, double longitude) {
+		int i = (int) Math.floor((latitude - south) / latStep);
+		int j = (int) Math.floor((longitude - west) / lonStep);
+		if (i < 0 || i >= rows || j < 0 || j >= columns) return 0;
+		return counts.get(i * columns + j);
+	}
+
+	/**
+	 * Danger level around a location, as a radius query of the raster radius would show it
+	 *
+	 * @param latitude Latitude of the location
+	 * @param longitude Longitude of the location
+	 * @return Danger level shown to the user
+	 */
+	public String dangerLevel(double latitude, double longitude) {
+		return ReadAllocation.dangerLevel(count(latitude, longitude));
+	}
+
+	/**
+	 * Writes the raster as PNG tiles of TILE_SIZE cells a side, coloured by danger level and
+	 * more opaque where more incidents are counted, with cells without incidents transparent.
+	 * Tiles are named by their row from the north and their column from the west, and
+	 * tiles.json lists the bounds of every tile.
+	 *
+	 * @param directory Directory the tiles are written to, created if missing
+	 * @return Number of tiles written
+	 * @throws IOException If a tile can not be written
+	 */
+	public int writeTiles(File directory) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Can not create " + directory);
+		}
+		int tileRows = (rows + TILE_SIZE - 1) / TILE_SIZE, tileColumns = (columns + TILE_SIZE - 1) / TILE_SIZE;
+		JsonArray tiles = new JsonArray();
+		for (int ty = 0; ty < tileRows; ty++) {
+			for (int tx = 0; tx < tileColumns; tx++) {
+				// tile rows run north to south like image rows, raster rows run south to north
+				int top = rows - ty * TILE_SIZE, height = Math.min(TILE_SIZE, top);
+				int left = tx * TILE_SIZE, width = Math.min(TILE_SIZE, columns - left);
+				BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+				for (int y = 0; y < height; y++) {
+					int i = top - 1 - y;
+					for (int x = 0; x < width; x++) {
+						image.setRGB(x, y, colour(counts.get(i * columns + left + x)));
+					}
+				}
+				String name = ty + "_" + tx + ".png";
+				ImageIO.write(image, "png", new File(directory, name));
+				JsonObject tile = new JsonObject();
+				tile.addProperty("file", name);
+				tile.addProperty("north", south + top * latStep);
+				tile.addProperty("south", south + (top - height) * latStep);
+				tile.addProperty("west", west + left * lonStep);
+				tile.addProperty("east", west + (left + width) * lonStep);
+				tiles.add(tile);
+			}
+		}
+		JsonObject index = new JsonObject();
+		index.addProperty("radiusKm", radius);
+		index.addProperty("tileSize", TILE_SIZE);
+		index.add("tiles", tiles);
+		try (Writer out = Files.newBufferedWriter(new File(directory, "tiles.json").toPath(), StandardCharsets.UTF_8)) {
+			new GsonBuilder().setPrettyPrinting().create().toJson(index, out);
+		}
+		return tiles.size();
+	}
+
+	/**
+	 * Colour of a cell, its alpha grows with the logarithm of its count
+	 */
+	private static int colour(int count) {
+		if (count == 0) return 0;
+		int rgb = count < ReadAllocation.MODERATE_DANGER ? LOW_COLOUR
+				: count < ReadAllocation.HIGH_DANGER ? MODERATE_COLOUR : HIGH_COLOUR;
+		int alpha = 64 + (int) (191 * Math.log1p(count) / Math.log1p(MAX_COUNT));
+		return alpha << 24 | rgb;
+	}
+
+	/**
+	 * Number of rows of cells
+	 *
+	 * @return Rows from south to north
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * Number of columns of cells
+	 *
+	 * @return Columns from west to east
+	 */
+	public int getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Radius the incidents around a cell are counted in
+	 *
+	 * @return Radius in kilometers the raster was built with
+	 */
+	public double getRadius() {
+		return radius;
+	}
+}
@@ -0,0 +1,196 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary copy of the incident store. Loading the snapshot memory maps every column
+ * and copies it straight into the store, which skips parsing the CSV file on every launch. The
+ * header records the size, modification time and a sampled hash of the CSV file it was built
+ * from so a stale snapshot is detected and rebuilt.
+ *
+ * Layout, all numbers big endian:
+ * header: magic, version, source size, source modified time, source hash, store position
+ * indexes: the order of the rows in the spatial indexes of a QueryEngine, see IndexLayout
+ * store: row count, State and city dictionaries, first row of every State, then one column
+ * after another with the record positions last, followed by the addresses of the rows that
+ * have no record position
+ *
+ * The record positions point into the CSV file, which the snapshot only matches while the file
+ * is unchanged, so a snapshot is always read together with the file it was built from.
+ *
+ * The store read from a snapshot carries the saved index layout, so a QueryEngine built over
+ * it copies coordinates into the saved order instead of sorting and partitioning the rows.
+ *
+ * @version 2.2
+ */
+public class IncidentSnapshot {
+
+	private static final int MAGIC = 0x5444534E; // "TDSN"
+	private static final int VERSION = 5;
+	private static final int HEADER_SIZE = 40;
+
+	// the hash covers this many evenly spaced blocks of the source file
+	private static final int HASH_BLOCKS = 16;
+	private static final int HASH_BLOCK_SIZE = 1 << 16;
+
+	/**
+	 * Name of the snapshot file kept next to a CSV file
+	 *
+	 * @param file File name of the CSV file
+	 * @return File name of its snapshot
+	 */
+	public static String snapshotFile(String file) {
+		return file + ".snapshot";
+	}
+
+	/**
+	 * Loads the incidents from the snapshot of a CSV file, the snapshot is rebuilt first if it
+	 * is missing or out of date
+	 *
+	 * @param file File name of the CSV file
+	 * @param parallel True to parse the CSV file on every core when the snapshot is rebuilt
+	 * @return IncidentStore holding the incidents grouped by US State
+	 * @throws IOException If the CSV file or the snapshot can not be read
+	 */
+	public static IncidentStore load(String file, boolean parallel) throws IOException {
+		File snapshot = new File(snapshotFile(file));
+		if (snapshot.exists() && isCurrent(snapshot, new File(file))) {
+			return read(snapshot, new File(file));
+		}
+		return build(file, parallel);
+	}
+
+	/**
+	 * Parses a CSV file and writes its snapshot, no snapshot is written if the CSV file is missing
+	 *
+	 * @param file File name of the CSV file
+	 * @param parallel True to parse the CSV file on every core
+	 * @return IncidentStore holding the incidents grouped by US State
+	 * @throws IOException If the CSV file can not be read or the snapshot can not be written
+	 */
+	public static IncidentStore build(String file, boolean parallel) throws IOException {
+		if (!new File(file).isFile()) {
+			// read reports the missing file and gives an empty store, which is not worth a snapshot
+			return ReadAllocation.read(file);
+		}
+		IncidentStore incidents;
+		if (parallel) {
+			incidents = ParallelIngest.load(file);
+		} else {
+			incidents = ReadAllocation.read(file);
+		}
+		write(incidents, new File(file), new File(snapshotFile(file)));
+		return incidents;
+	}
+
+	/**
+	 * Checks whether a snapshot was built from the current contents of a CSV file
+	 *
+	 * @param snapshot Snapshot file
+	 * @param source CSV file
+	 * @return True if the snapshot version and the recorded size, modified time and hash of the
+	 * CSV file all match
+	 * @throws IOException If either file can not be read
+	 */
+	public static boolean isCurrent(File snapshot, File source) throws IOException {
+		if (!source.exists() || snapshot.length() < HEADER_SIZE) return false;
+		try (RandomAccessFile raf = new RandomAccessFile(snapshot, "r")) {
+			return raf.readInt() == MAGIC && raf.readInt() == VERSION && raf.readLong() == source.length()
+					&& raf.readLong() == source.lastModified() && raf.readLong() == hash(source);
+		}
+	}
+
+	/**
+	 * Writes the incident store to a snapshot file together with the layout of the indexes built
+	 * over it, the indexes are built here if the store does not carry a matching layout. The
+	 * file is written next to the target and moved into place once complete so a reader never
+	 * sees half a snapshot, and is deleted if the snapshot can not be completed.
+	 *
+	 * @param incidents IncidentStore holding every incident
+	 * @param source CSV file the incidents were read from
+	 * @param snapshot Snapshot file to write
+	 * @throws IOException If the snapshot can not be written
+	 */
+	public static void write(IncidentStore incidents, File source, File snapshot) throws IOException {
+		IndexLayout layout = incidents.getLayout();
+		if (layout == null || !layout.matches(incidents)) {
+			layout = new QueryEngine(incidents).layout();
+			incidents.setLayout(layout);
+		}
+		File temp = new File(snapshot.getPath() + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(source.length());
+				out.writeLong(source.lastModified());
+				out.writeLong(hash(source));
+				out.writeLong(HEADER_SIZE + layout.byteSize());
+				layout.writeTo(out);
+				incidents.writeTo(out);
+			}
+			Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException | RuntimeException e) {
+			temp.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the incident store from a snapshot file, the store carries the saved index layout
+	 *
+	 * @param snapshot Snapshot file to read
+	 * @param source CSV file the snapshot was built from, the text of the incidents is read from it
+	 * @return IncidentStore holding the incidents grouped by US State
+	 * @throws IOException If the snapshot or the CSV file can not be read or is not a snapshot file
+	 */
+	public static IncidentStore read(File snapshot, File source) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(snapshot, "r"); FileChannel channel = raf.getChannel()) {
+			if (raf.readInt() != MAGIC || raf.readInt() != VERSION) {
+				throw new IOException("Not a snapshot file: " + snapshot);
+			}
+			raf.seek(HEADER_SIZE - 8);
+			long storeOffset = raf.readLong();
+			IndexLayout layout = IndexLayout.readFrom(channel, HEADER_SIZE);
+			IncidentStore incidents = IncidentStore.readFrom(channel, storeOffset, new IncidentSource(source));
+			incidents.setLayout(layout);
+			return incidents;
+		}
+	}
+
+	/**
+	 * Hashes evenly spaced blocks of a file so a change anywhere in a large file is likely to
+	 * be noticed without reading all of it
+	 *
+	 * @param file File to hash
+	 * @return CRC32 of the sampled blocks
+	 * @throws IOException If the file can not be read
+	 */
+	private static long hash(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] block = new byte[HASH_BLOCK_SIZE];
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			long size = raf.length();
+			long step = Math.max(HASH_BLOCK_SIZE, size / HASH_BLOCKS);
+			for (long position = 0; position < size; position += step) {
+				raf.seek(position);
+				int read = raf.read(block, 0, (int) Math.min(block.length, size - position));
+				if (read > 0) crc.update(block, 0, read);
+			}
+			// always include the end of the file where new records are appended
+			if (size > HASH_BLOCK_SIZE) {
+				raf.seek(size - HASH_BLOCK_SIZE);
+				raf.readFully(block);
+				crc.update(block, 0, block.length);
+			}
+		}
+		return crc.getValue();
+	}
+}
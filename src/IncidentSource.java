@@ -0,0 +1,87 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The incidents file memory mapped so the record of any incident can be read back from its
+ * position in the file. The store keeps only the position of each record, and the text columns
+ * are decoded from the mapped bytes for the incidents that are shown, so the text of the whole
+ * file never has to be on the heap.
+ *
+ * A mapped buffer can not be larger than 2GB, so the file is mapped in windows that each reach
+ * MAX_RECORD_LENGTH bytes into the next one, and a record no longer than that always lies
+ * entirely in the window it starts in. The file must not change while it is mapped, the
+ * snapshot checks it has not changed since it was read.
+ *
+ * @version 1.0
+ */
+public class IncidentSource {
+
+	// records longer than this are not read back from the file, their address is kept instead
+	public static final int MAX_RECORD_LENGTH = 1 << 20;
+	private static final long WINDOW_SIZE = 1L << 30;
+
+	private final File file;
+	private final MappedByteBuffer[] windows;
+
+	/**
+	 * Maps a file, the mappings stay valid once the file is closed
+	 *
+	 * @param file Incidents file the records were read from
+	 * @throws IOException If the file can not be mapped
+	 */
+	public IncidentSource(File file) throws IOException {
+		this.file = file;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			long size = channel.size();
+			windows = new MappedByteBuffer[(int) Math.max(1, (size + WINDOW_SIZE - 1) / WINDOW_SIZE)];
+			for (int i = 0; i < windows.length; i++) {
+				long from = i * WINDOW_SIZE;
+				long to = Math.min(size, from + WINDOW_SIZE + MAX_RECORD_LENGTH);
+				windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.max(0, to - from));
+			}
+		}
+	}
+
+	/**
+	 * Reads a record back from the file
+	 *
+	 * @param offset Offset in bytes of the first byte of the record
+	 * @param length Number of bytes of the record, at most MAX_RECORD_LENGTH
+	 * @param fields Number of fields to decode from the start of the record, at least 2
+	 * @return Reader positioned on the record
+	 * @throws IllegalArgumentException If the record is not inside the file
+	 */
+	public CsvReader read(long offset, int length, int fields) {
+		int window = (int) (offset / WINDOW_SIZE);
+		if (offset < 0 || length < 0 || length > MAX_RECORD_LENGTH || window >= windows.length
+				|| offset % WINDOW_SIZE + length > windows[window].capacity()) {
+			throw new IllegalArgumentException("No record of " + length + " bytes at " + offset + " in " + file);
+		}
+		byte[] bytes = new byte[length];
+		// a duplicate has its own position, so records can be read on any number of threads
+		ByteBuffer view = windows[window].duplicate();
+		view.position((int) (offset % WINDOW_SIZE));
+		view.get(bytes);
+		CsvReader record = new CsvReader(bytes, 0, length);
+		try {
+			record.next(fields);
+		} catch (IOException e) {
+			// a reader over an array never reads a stream
+			throw new IllegalStateException(e);
+		}
+		return record;
+	}
+
+	/**
+	 * File the records are read from
+	 *
+	 * @return Incidents file
+	 */
+	public File getFile() {
+		return file;
+	}
+}
@@ -0,0 +1,938 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import geocoding.DistrictGeocoding;
+
+/**
+ * Column store of every gun incident. Each attribute of an incident is kept in its own primitive
+ * array so a scan over coordinates reads memory sequentially, and the State and city names are
+ * dictionary encoded so every row only holds two small codes. An incident is identified by its
+ * row index, Incidents objects are only built for rows that are shown to the user.
+ *
+ * The address and the other text columns of an incident read from a file are not kept, each
+ * row holds the offset and length of its record in the file packed into one long, and the text
+ * is decoded from the memory mapped file when a row is shown. Rows added with their address,
+ * and records too long to read back, keep the address itself.
+ *
+ * @version 1.4
+ */
+public class IncidentStore {
+
+	private static final int INITIAL_CAPACITY = 1024;
+	// columns are written through a buffer of this many bytes at a time
+	private static final int COLUMN_BLOCK = 1 << 16;
+	// date of an incident whose date is unknown, it sorts before every real date and is left out
+	// of every query limited by date
+	public static final int NO_DATE = Integer.MIN_VALUE;
+	// columns of the text read back from the record of an incident
+	public static final int ADDRESS_COLUMN = 4;
+	public static final int NOTES_COLUMN = 10;
+	public static final int FIRST_PARTICIPANT_COLUMN = 11;
+	public static final int PARTICIPANT_COLUMNS = 7;
+	public static final int SOURCES_COLUMN = 18;
+	// record position of a row added with its address
+	private static final long NO_RECORD = -1;
+	// low bits of a record position holding its length, the offset is in the bits above
+	private static final int LENGTH_BITS = 21;
+
+	private int size = 0;
+	private long[] id;
+	private double[] latitude;
+	private double[] longitude;
+	private int[] killed;
+	private int[] injured;
+	// days since 1970-01-01
+	private int[] date;
+	private int[] stateCode;
+	private int[] cityCode;
+	// offset of the record of every row shifted over its length, NO_RECORD for rows added with their address
+	private long[] record;
+	// address of the rows without a record, null until such a row is added
+	private String[] address;
+	private IncidentSource source;
+	// order of the rows in the indexes of a QueryEngine, saved with the store in its snapshot
+	private IndexLayout layout;
+	// derived from latitude and longitude once the rows are grouped, not stored in snapshots
+	private double[] latitudeRadians;
+	private double[] longitudeRadians;
+	private double[] cosLatitude;
+	// index of the district of every row in districtNames, -1 outside every district
+	private int[] districtCode;
+	private String[] districtNames;
+
+	private final Dictionary states = new Dictionary();
+	private final Dictionary cities = new Dictionary();
+
+	// first row of every State once the rows are grouped, indexed by State code
+	private int[] stateStart;
+
+	/**
+	 * Creates an empty store
+	 */
+	public IncidentStore() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty store with room for a number of incidents
+	 *
+	 * @param capacity Number of incidents the store can hold before growing
+	 */
+	public IncidentStore(int capacity) {
+		capacity = Math.max(capacity, 1);
+		id = new long[capacity];
+		latitude = new double[capacity];
+		longitude = new double[capacity];
+		killed = new int[capacity];
+		injured = new int[capacity];
+		date = new int[capacity];
+		stateCode = new int[capacity];
+		cityCode = new int[capacity];
+		record = new long[capacity];
+	}
+
+	/**
+	 * Adds an incident to the end of the store
+	 *
+	 * @param UId Unique Id of the Incident
+	 * @param address Address gun incident took place
+	 * @param State US State location of incident
+	 * @param City US City location of incident
+	 * @param longitude Precise longitude location of incident
+	 * @param latitude Precise latitude location of incident
+	 * @param numKilled Number of people killed in the incident
+	 * @param numInjured Number of people injured in the incident
+	 * @param date Days since 1970-01-01 of the incident, NO_DATE if it is unknown
+	 * @return Row index of the new incident
+	 */
+	public int add(long UId, String address, String State, String City, double longitude, double latitude,
+			int numKilled, int numInjured, int date) {
+		ensureCapacity(size + 1);
+		if (this.address == null) this.address = new String[id.length];
+		this.address[size] = address;
+		this.record[size] = NO_RECORD;
+		return append(UId, State, City, longitude, latitude, numKilled, numInjured, date);
+	}
+
+	/**
+	 * Adds an incident to the end of the store, its address is read back from its record in the
+	 * file when it is needed
+	 *
+	 * @param UId Unique Id of the Incident
+	 * @param recordOffset Offset in bytes of the record of the incident in the file
+	 * @param recordLength Number of bytes of the record, at most IncidentSource.MAX_RECORD_LENGTH
+	 * @param State US State location of incident
+	 * @param City US City location of incident
+	 * @param longitude Precise longitude location of incident
+	 * @param latitude Precise latitude location of incident
+	 * @param numKilled Number of people killed in the incident
+	 * @param numInjured Number of people injured in the incident
+	 * @param date Days since 1970-01-01 of the incident, NO_DATE if it is unknown
+	 * @return Row index of the new incident
+	 * @throws IllegalArgumentException If the record is too long or does not fit the packed position
+	 */
+	public int add(long UId, long recordOffset, int recordLength, String State, String City, double longitude,
+			double latitude, int numKilled, int numInjured, int date) {
+		if (!isRecord(recordOffset, recordLength)) {
+			throw new IllegalArgumentException("Record of " + recordLength + " bytes at " + recordOffset + " can not be kept");
+		}
+		ensureCapacity(size + 1);
+		this.record[size] = recordOffset << LENGTH_BITS | recordLength;
+		return append(UId, State, City, longitude, latitude, numKilled, numInjured, date);
+	}
+
+	/**
+	 * Checks whether the position of a record can be kept in place of its text
+	 *
+	 * @param recordOffset Offset in bytes of the record in the file
+	 * @param recordLength Number of bytes of the record
+	 * @return True if the record is short enough to be read back and its offset fits the packed position
+	 */
+	public static boolean isRecord(long recordOffset, int recordLength) {
+		return recordOffset >= 0 && recordOffset < 1L << (63 - LENGTH_BITS) && recordLength >= 0
+				&& recordLength <= IncidentSource.MAX_RECORD_LENGTH;
+	}
+
+	/**
+	 * Fills every column but the address and record of the next row
+	 */
+	private int append(long UId, String State, String City, double longitude, double latitude, int numKilled,
+			int numInjured, int date) {
+		this.id[size] = UId;
+		this.stateCode[size] = states.code(State);
+		this.cityCode[size] = cities.code(City);
+		this.longitude[size] = longitude;
+		this.latitude[size] = latitude;
+		this.killed[size] = numKilled;
+		this.injured[size] = numInjured;
+		this.date[size] = date;
+		stateStart = null;
+		districtCode = null;
+		return size++;
+	}
+
+	/**
+	 * Adds every incident of another store to the end of this store
+	 *
+	 * @param other Store whose incidents are copied
+	 */
+	public void addAll(IncidentStore other) {
+		ensureCapacity(size + other.size);
+		if (other.source != null && source != other.source) {
+			if (source != null || hasRecords()) {
+				throw new IllegalArgumentException("Incidents read from " + other.source.getFile()
+						+ " can not be added to incidents read from another file");
+			}
+			source = other.source;
+		}
+		System.arraycopy(other.id, 0, id, size, other.size);
+		System.arraycopy(other.record, 0, record, size, other.size);
+		if (other.address != null) {
+			if (address == null) address = new String[id.length];
+			System.arraycopy(other.address, 0, address, size, other.size);
+		}
+		System.arraycopy(other.longitude, 0, longitude, size, other.size);
+		System.arraycopy(other.latitude, 0, latitude, size, other.size);
+		System.arraycopy(other.killed, 0, killed, size, other.size);
+		System.arraycopy(other.injured, 0, injured, size, other.size);
+		System.arraycopy(other.date, 0, date, size, other.size);
+
+		// the other store numbers its names differently, translate its codes into ours
+		int[] stateMap = other.states.translate(states);
+		int[] cityMap = other.cities.translate(cities);
+		for (int i = 0; i < other.size; i++) {
+			stateCode[size + i] = stateMap[other.stateCode[i]];
+			cityCode[size + i] = cityMap[other.cityCode[i]];
+		}
+		size += other.size;
+		stateStart = null;
+		districtCode = null;
+	}
+
+	/**
+	 * Reorders the rows so the incidents of each State are next to each other, and the incidents
+	 * within a State are ordered by date. Incidents on the same date keep their order.
+	 */
+	public void groupByState() {
+		if (stateStart != null) return;
+		int[] start = new int[states.size() + 1];
+		for (int i = 0; i < size; i++) {
+			start[stateCode[i] + 1]++;
+		}
+		for (int c = 0; c < states.size(); c++) {
+			start[c + 1] += start[c];
+		}
+
+		// counting sort gives the position of every row among the rows of its State
+		int[] next = Arrays.copyOf(start, states.size());
+		int[] source = new int[size];
+		for (int i = 0; i < size; i++) {
+			source[next[stateCode[i]]++] = i;
+		}
+		// each State is then sorted on its dates, the position breaks ties so the sort is stable
+		long[] keys = new long[size];
+		for (int p = 0; p < size; p++) {
+			keys[p] = ((long) date[source[p]] << 32) | p;
+		}
+		for (int c = 0; c < states.size(); c++) {
+			Arrays.sort(keys, start[c], start[c + 1]);
+		}
+		int[] target = new int[size];
+		boolean sorted = true;
+		for (int p = 0; p < size; p++) {
+			int row = source[(int) keys[p]];
+			target[row] = p;
+			sorted &= row == p;
+		}
+		if (!sorted) {
+			id = permute(id, target);
+			latitude = permute(latitude, target);
+			longitude = permute(longitude, target);
+			killed = permute(killed, target);
+			injured = permute(injured, target);
+			date = permute(date, target);
+			stateCode = permute(stateCode, target);
+			cityCode = permute(cityCode, target);
+			record = permute(record, target);
+			if (address != null) address = permute(address, target);
+		}
+		computeRadians();
+		stateStart = start;
+	}
+
+	/**
+	 * Fills the radians and latitude cosine of every row so distances need no per row setup
+	 */
+	private void computeRadians() {
+		latitudeRadians = new double[size];
+		longitudeRadians = new double[size];
+		cosLatitude = new double[size];
+		for (int i = 0; i < size; i++) {
+			latitudeRadians[i] = Math.toRadians(latitude[i]);
+			longitudeRadians[i] = Math.toRadians(longitude[i]);
+			cosLatitude[i] = Math.cos(latitudeRadians[i]);
+		}
+	}
+
+	/**
+	 * Finds the district of every incident from boundary polygons. The rows are split into
+	 * ranges that are located in parallel, each row is written by exactly one task.
+	 *
+	 * @param districts Boundaries of the districts
+	 * @param parallelism Number of worker threads to locate incidents on
+	 */
+	public void tagDistricts(DistrictGeocoding districts, int parallelism) {
+		int[] codes = new int[size];
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new TagDistricts(districts, codes, 0, size));
+		} finally {
+			pool.shutdown();
+		}
+		String[] names = new String[districts.size()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = districts.getName(i);
+		}
+		districtNames = names;
+		districtCode = codes;
+	}
+
+	/**
+	 * Locates the incidents of a range of rows, splitting it while it is large
+	 */
+	private class TagDistricts extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		// ranges this small are located on one thread
+		private static final int SPLIT_SIZE = 4096;
+		private final DistrictGeocoding districts;
+		private final int[] codes;
+		private final int from, to;
+
+		TagDistricts(DistrictGeocoding districts, int[] codes, int from, int to) {
+			this.districts = districts;
+			this.codes = codes;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from > SPLIT_SIZE) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new TagDistricts(districts, codes, from, mid), new TagDistricts(districts, codes, mid, to));
+				return;
+			}
+			for (int row = from; row < to; row++) {
+				codes[row] = districts.locate(latitude[row], longitude[row]);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the district of every incident has been found
+	 *
+	 * @return True if tagDistricts ran since the last incident was added
+	 */
+	public boolean hasDistricts() {
+		return districtCode != null;
+	}
+
+	/**
+	 * District an incident took place in
+	 *
+	 * @param row Row index of the incident
+	 * @return Name of the district, null if the incident is outside every district or the
+	 * districts were not tagged
+	 */
+	public String getDistrict(int row) {
+		if (districtCode == null || districtCode[row] < 0) return null;
+		return districtNames[districtCode[row]];
+	}
+
+	/**
+	 * Builds an Incidents ADT for one row so it can be shown to the user
+	 *
+	 * @param row Row index of the incident
+	 * @return Incidents ADT with the values of the row
+	 */
+	public Incidents get(int row) {
+		if (record[row] == NO_RECORD) {
+			return new Incidents(Long.toString(id[row]), address[row], getState(row), getCity(row), longitude[row],
+					latitude[row], killed[row], injured[row]);
+		}
+		// the record is decoded once for all of its text columns
+		CsvReader text = read(row, SOURCES_COLUMN + 1);
+		Incidents incident = new Incidents(Long.toString(id[row]), text.get(ADDRESS_COLUMN), getState(row),
+				getCity(row), longitude[row], latitude[row], killed[row], injured[row]);
+		String[] participants = new String[PARTICIPANT_COLUMNS];
+		for (int c = 0; c < PARTICIPANT_COLUMNS; c++) {
+			participants[c] = text.get(FIRST_PARTICIPANT_COLUMN + c);
+		}
+		incident.setDetails(text.get(NOTES_COLUMN), participants, text.get(SOURCES_COLUMN));
+		return incident;
+	}
+
+	/**
+	 * Reads the record of a row back from the file, up to the fields needed
+	 *
+	 * @throws IllegalStateException If the store has no file to read records from
+	 */
+	private CsvReader read(int row, int fields) {
+		if (source == null) throw new IllegalStateException("Incidents were read without their file");
+		return source.read(record[row] >>> LENGTH_BITS, (int) (record[row] & ((1 << LENGTH_BITS) - 1)),
+				Math.max(2, fields));
+	}
+
+	/**
+	 * Checks whether any row keeps the position of its record instead of its address
+	 */
+	private boolean hasRecords() {
+		for (int i = 0; i < size; i++) {
+			if (record[i] != NO_RECORD) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Sets the file the records of the rows are read back from
+	 *
+	 * @param source Mapped incidents file the rows were read from
+	 */
+	public void setSource(IncidentSource source) {
+		this.source = source;
+	}
+
+	/**
+	 * File the records of the rows are read back from
+	 *
+	 * @return Mapped incidents file, null if the rows were not read from a file
+	 */
+	public IncidentSource getSource() {
+		return source;
+	}
+
+	/**
+	 * Sets the layout of the indexes built over the rows of this store, a QueryEngine built
+	 * over the store takes the rows in the same order
+	 *
+	 * @param layout Layout of the indexes of a QueryEngine over this store
+	 */
+	public void setLayout(IndexLayout layout) {
+		this.layout = layout;
+	}
+
+	/**
+	 * Layout of the indexes built over the rows of this store
+	 *
+	 * @return Layout saved with the store, null if there is none
+	 */
+	public IndexLayout getLayout() {
+		return layout;
+	}
+
+	/**
+	 * Number of incidents in the store
+	 *
+	 * @return Count of incidents
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Unique Id of an incident
+	 *
+	 * @param row Row index of the incident
+	 * @return Unique Id of the incident
+	 */
+	public long getUId(int row) {
+		return id[row];
+	}
+
+	/**
+	 * Latitude coordinate of an incident
+	 *
+	 * @param row Row index of the incident
+	 * @return Latitude coordinate of the incident
+	 */
+	public double getLatitude(int row) {
+		return latitude[row];
+	}
+
+	/**
+	 * Longitude coordinate of an incident
+	 *
+	 * @param row Row index of the incident
+	 * @return Longitude coordinate of the incident
+	 */
+	public double getLongitude(int row) {
+		return longitude[row];
+	}
+
+	/**
+	 * Latitude of an incident in radians, the rows must be grouped by State
+	 *
+	 * @param row Row index of the incident
+	 * @return Latitude of the incident in radians
+	 */
+	public double getLatitudeRadians(int row) {
+		return latitudeRadians[row];
+	}
+
+	/**
+	 * Longitude of an incident in radians, the rows must be grouped by State
+	 *
+	 * @param row Row index of the incident
+	 * @return Longitude of the incident in radians
+	 */
+	public double getLongitudeRadians(int row) {
+		return longitudeRadians[row];
+	}
+
+	/**
+	 * Cosine of the latitude of an incident, the rows must be grouped by State
+	 *
+	 * @param row Row index of the incident
+	 * @return Cosine of the latitude of the incident
+	 */
+	public double getCosLatitude(int row) {
+		return cosLatitude[row];
+	}
+
+	/**
+	 * Number of people killed in an incident
+	 *
+	 * @param row Row index of the incident
+	 * @return Count of people killed
+	 */
+	public int getnumKilled(int row) {
+		return killed[row];
+	}
+
+	/**
+	 * Number of people injured in an incident
+	 *
+	 * @param row Row index of the incident
+	 * @return Count of people injured
+	 */
+	public int getnumInjured(int row) {
+		return injured[row];
+	}
+
+	/**
+	 * Date of an incident
+	 *
+	 * @param row Row index of the incident
+	 * @return Days since 1970-01-01 of the incident, NO_DATE if it is unknown
+	 */
+	public int getDate(int row) {
+		return date[row];
+	}
+
+	/**
+	 * Street location of an incident
+	 *
+	 * @param row Row index of the incident
+	 * @return Address the incident took place
+	 */
+	public String getAddress(int row) {
+		return record[row] == NO_RECORD ? address[row] : read(row, ADDRESS_COLUMN + 1).get(ADDRESS_COLUMN);
+	}
+
+	/**
+	 * Any text column of the record of an incident, such as the notes or sources
+	 *
+	 * @param row Row index of the incident
+	 * @param column Index of the column in the incidents file
+	 * @return Text of the column, the address and an empty string for every other column if
+	 * the incident was added with its address
+	 */
+	public String getField(int row, int column) {
+		if (record[row] == NO_RECORD) return column == ADDRESS_COLUMN ? address[row] : "";
+		return read(row, column + 1).get(column);
+	}
+
+	/**
+	 * US State of an incident
+	 *
+	 * @param row Row index of the incident
+	 * @return State name of the incident
+	 */
+	public String getState(int row) {
+		return states.name(stateCode[row]);
+	}
+
+	/**
+	 * City of an incident
+	 *
+	 * @param row Row index of the incident
+	 * @return City name of the incident
+	 */
+	public String getCity(int row) {
+		return cities.name(cityCode[row]);
+	}
+
+	/**
+	 * Dictionary code of the US State of an incident
+	 *
+	 * @param row Row index of the incident
+	 * @return State code of the incident
+	 */
+	public int getStateCode(int row) {
+		return stateCode[row];
+	}
+
+	/**
+	 * Dictionary code of the city of an incident
+	 *
+	 * @param row Row index of the incident
+	 * @return City code of the incident
+	 */
+	public int getCityCode(int row) {
+		return cityCode[row];
+	}
+
+	/**
+	 * Number of distinct US States in the store
+	 *
+	 * @return Count of State codes
+	 */
+	public int stateCount() {
+		return states.size();
+	}
+
+	/**
+	 * Name of a US State code
+	 *
+	 * @param code State code
+	 * @return State name
+	 */
+	public String stateName(int code) {
+		return states.name(code);
+	}
+
+	/**
+	 * Code of a US State name
+	 *
+	 * @param name State name
+	 * @return State code, -1 if no incident took place in that State
+	 */
+	public int stateCode(String name) {
+		Integer code = states.codes.get(name);
+		return code == null ? -1 : code;
+	}
+
+	/**
+	 * Number of distinct cities in the store
+	 *
+	 * @return Count of city codes
+	 */
+	public int cityCount() {
+		return cities.size();
+	}
+
+	/**
+	 * Name of a city code
+	 *
+	 * @param code City code
+	 * @return City name
+	 */
+	public String cityName(int code) {
+		return cities.name(code);
+	}
+
+	/**
+	 * First row of a US State, the rows must be grouped by State
+	 *
+	 * @param code State code
+	 * @return Row index of the first incident of the State
+	 */
+	public int stateStart(int code) {
+		groupByState();
+		return stateStart[code];
+	}
+
+	/**
+	 * First day a date range keeps. Integer.MIN_VALUE is both NO_DATE and the missing first day
+	 * of a range, so a range limited only by its last day starts the day after NO_DATE to leave
+	 * out the incidents of unknown date.
+	 *
+	 * @param fromDay First day of the range, Integer.MIN_VALUE for no limit
+	 * @param toDay Last day of the range, Integer.MAX_VALUE for no limit
+	 * @return First day to keep, Integer.MIN_VALUE only if the range has no limits
+	 */
+	public static int firstDay(int fromDay, int toDay) {
+		if (fromDay == Integer.MIN_VALUE && toDay != Integer.MAX_VALUE) return NO_DATE + 1;
+		return fromDay;
+	}
+
+	/**
+	 * First row of a US State dated on or after a day, the rows must be grouped by State
+	 *
+	 * @param code State code
+	 * @param day Days since 1970-01-01
+	 * @return Row index of the first incident of the State on or after the day, the end of the
+	 * State if there is none
+	 */
+	public int firstRowOnOrAfter(int code, int day) {
+		int lo = stateStart(code), hi = stateEnd(code);
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (date[mid] < day) lo = mid + 1;
+			else hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Row after the last row of a US State, the rows must be grouped by State
+	 *
+	 * @param code State code
+	 * @return Row index after the last incident of the State
+	 */
+	public int stateEnd(int code) {
+		groupByState();
+		return stateStart[code + 1];
+	}
+
+	/**
+	 * Writes the columns, dictionaries and State groups of the store. The rows are grouped by
+	 * State first, the record positions are written as a column and the addresses of the rows
+	 * without a record last.
+	 *
+	 * @param out Stream to write to
+	 * @throws IOException If the stream can not be written
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		groupByState();
+		ArrayList<byte[]> names = new ArrayList<>();
+		long namesLength = 0;
+		for (String name : states.names) names.add(name.getBytes(StandardCharsets.UTF_8));
+		for (String name : cities.names) names.add(name.getBytes(StandardCharsets.UTF_8));
+		for (byte[] name : names) namesLength += 4 + name.length;
+
+		out.writeInt(size);
+		out.writeInt(states.size());
+		out.writeInt(cities.size());
+		out.writeLong(namesLength);
+		for (byte[] name : names) {
+			out.writeInt(name.length);
+			out.write(name);
+		}
+		writeColumn(out, stateStart, states.size() + 1);
+		writeColumn(out, id, size);
+		writeColumn(out, latitude, size);
+		writeColumn(out, longitude, size);
+		writeColumn(out, killed, size);
+		writeColumn(out, injured, size);
+		writeColumn(out, date, size);
+		writeColumn(out, stateCode, size);
+		writeColumn(out, cityCode, size);
+		writeColumn(out, record, size);
+		for (int i = 0; i < size; i++) {
+			if (record[i] == NO_RECORD) writeString(out, address[i]);
+		}
+	}
+
+	/**
+	 * Reads a store written by writeTo. Every column is memory mapped on its own and bulk copied
+	 * into its array.
+	 *
+	 * @param channel Channel of the file holding the store
+	 * @param offset Position of the store in the file, the store runs to the end of the file
+	 * @param source Incidents file the records of the rows are read back from
+	 * @return The store that was written
+	 * @throws IOException If the file can not be mapped
+	 */
+	static IncidentStore readFrom(FileChannel channel, long offset, IncidentSource source) throws IOException {
+		ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, offset, 20);
+		int size = head.getInt();
+		int stateCount = head.getInt();
+		int cityCount = head.getInt();
+		long namesLength = head.getLong();
+		offset += 20;
+
+		IncidentStore store = new IncidentStore(size);
+		ByteBuffer names = channel.map(FileChannel.MapMode.READ_ONLY, offset, namesLength);
+		for (int i = 0; i < stateCount; i++) store.states.code(readString(names));
+		for (int i = 0; i < cityCount; i++) store.cities.code(readString(names));
+		offset += namesLength;
+
+		int[] start = new int[stateCount + 1];
+		offset = readColumn(channel, offset, start, stateCount + 1);
+		offset = readColumn(channel, offset, store.id, size);
+		offset = readColumn(channel, offset, store.latitude, size);
+		offset = readColumn(channel, offset, store.longitude, size);
+		offset = readColumn(channel, offset, store.killed, size);
+		offset = readColumn(channel, offset, store.injured, size);
+		offset = readColumn(channel, offset, store.date, size);
+		offset = readColumn(channel, offset, store.stateCode, size);
+		offset = readColumn(channel, offset, store.cityCode, size);
+		offset = readColumn(channel, offset, store.record, size);
+		ByteBuffer addresses = channel.map(FileChannel.MapMode.READ_ONLY, offset, channel.size() - offset);
+		for (int i = 0; i < size; i++) {
+			if (store.record[i] != NO_RECORD) continue;
+			if (store.address == null) store.address = new String[size];
+			store.address[i] = readString(addresses);
+		}
+		store.source = source;
+		store.size = size;
+		store.computeRadians();
+		store.stateStart = start;
+		return store;
+	}
+
+	static void writeColumn(DataOutputStream out, int[] column, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(COLUMN_BLOCK);
+		for (int i = 0; i < length; i += COLUMN_BLOCK / 4) {
+			int count = Math.min(COLUMN_BLOCK / 4, length - i);
+			buffer.clear();
+			buffer.asIntBuffer().put(column, i, count);
+			out.write(buffer.array(), 0, count * 4);
+		}
+	}
+
+	private static void writeColumn(DataOutputStream out, long[] column, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(COLUMN_BLOCK);
+		for (int i = 0; i < length; i += COLUMN_BLOCK / 8) {
+			int count = Math.min(COLUMN_BLOCK / 8, length - i);
+			buffer.clear();
+			buffer.asLongBuffer().put(column, i, count);
+			out.write(buffer.array(), 0, count * 8);
+		}
+	}
+
+	private static void writeColumn(DataOutputStream out, double[] column, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(COLUMN_BLOCK);
+		for (int i = 0; i < length; i += COLUMN_BLOCK / 8) {
+			int count = Math.min(COLUMN_BLOCK / 8, length - i);
+			buffer.clear();
+			buffer.asDoubleBuffer().put(column, i, count);
+			out.write(buffer.array(), 0, count * 8);
+		}
+	}
+
+	static long readColumn(FileChannel channel, long offset, int[] column, int length) throws IOException {
+		channel.map(FileChannel.MapMode.READ_ONLY, offset, length * 4L).asIntBuffer().get(column, 0, length);
+		return offset + length * 4L;
+	}
+
+	private static long readColumn(FileChannel channel, long offset, long[] column, int length) throws IOException {
+		channel.map(FileChannel.MapMode.READ_ONLY, offset, length * 8L).asLongBuffer().get(column, 0, length);
+		return offset + length * 8L;
+	}
+
+	private static long readColumn(FileChannel channel, long offset, double[] column, int length) throws IOException {
+		channel.map(FileChannel.MapMode.READ_ONLY, offset, length * 8L).asDoubleBuffer().get(column, 0, length);
+		return offset + length * 8L;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Grows every column to hold at least a number of incidents
+	 *
+	 * @param capacity Number of incidents needed
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity <= id.length) return;
+		int length = Math.max(capacity, id.length + (id.length >> 1));
+		id = Arrays.copyOf(id, length);
+		latitude = Arrays.copyOf(latitude, length);
+		longitude = Arrays.copyOf(longitude, length);
+		killed = Arrays.copyOf(killed, length);
+		injured = Arrays.copyOf(injured, length);
+		date = Arrays.copyOf(date, length);
+		stateCode = Arrays.copyOf(stateCode, length);
+		cityCode = Arrays.copyOf(cityCode, length);
+		record = Arrays.copyOf(record, length);
+		if (address != null) address = Arrays.copyOf(address, length);
+	}
+
+	private long[] permute(long[] column, int[] target) {
+		long[] result = new long[size];
+		for (int i = 0; i < size; i++) result[target[i]] = column[i];
+		return result;
+	}
+
+	private double[] permute(double[] column, int[] target) {
+		double[] result = new double[size];
+		for (int i = 0; i < size; i++) result[target[i]] = column[i];
+		return result;
+	}
+
+	private int[] permute(int[] column, int[] target) {
+		int[] result = new int[size];
+		for (int i = 0; i < size; i++) result[target[i]] = column[i];
+		return result;
+	}
+
+	private String[] permute(String[] column, int[] target) {
+		String[] result = new String[size];
+		for (int i = 0; i < size; i++) result[target[i]] = column[i];
+		return result;
+	}
+
+	/**
+	 * Maps each distinct name to a small code in the order the names are first seen
+	 */
+	private static class Dictionary {
+		private final ArrayList<String> names = new ArrayList<>();
+		private final HashMap<String, Integer> codes = new HashMap<>();
+
+		/**
+		 * Code of a name, a new code is assigned to names not seen before
+		 *
+		 * @param name Name to encode
+		 * @return Code of the name
+		 */
+		int code(String name) {
+			Integer code = codes.get(name);
+			if (code == null) {
+				code = names.size();
+				names.add(name);
+				codes.put(name, code);
+			}
+			return code;
+		}
+
+		String name(int code) {
+			return names.get(code);
+		}
+
+		int size() {
+			return names.size();
+		}
+
+		/**
+		 * Codes the names of this dictionary have in another dictionary
+		 *
+		 * @param other Dictionary to translate into, missing names are added to it
+		 * @return Code in the other dictionary indexed by code in this dictionary
+		 */
+		int[] translate(Dictionary other) {
+			int[] map = new int[names.size()];
+			for (int i = 0; i < map.length; i++) {
+				map[i] = other.code(names.get(i));
+			}
+			return map;
+		}
+	}
+}
@@ -2,11 +2,14 @@
  * Storing Information for Gun Incident
  * 
  * @author Harsh Patel
- * @version 3.0
+ * @version 4.1
  */
 
 public class Incidents implements Comparable<Incidents> {
 
+	// Kilometers per degree of great circle arc, 60 nautical miles converted to miles then to km
+	public static final double KM_PER_DEGREE = 60 * 1.1515 * 1.609344;
+
 	private String UId;
 	private double longitude;
 	private double latitude;
@@ -15,9 +18,11 @@ public class Incidents implements Comparable<Incidents> {
 	private String City;
 	private int numKilled;
 	private int numInjured;
-	private double userLongitude = 0;
-	private double userLatitude = 0;
 	private double disToIncident = 0;
+	// text read back from the record of the incident, empty when it was not read
+	private String notes = "";
+	private String[] participants = new String[0];
+	private String sources = "";
 
 	/**
 	 * Constructor of an Incident ADT with required Information
@@ -97,24 +102,6 @@ public class Incidents implements Comparable<Incidents> {
 		return latitude;
 	}
 
-	/**
-	 * Change userLatitiude to location that the user enters
-	 * 
-	 * @param userLatitude Latitude coordinate of users desired location
-	 */
-	public void setUserLatitude(double userLatitude) {
-		this.userLatitude = userLatitude;
-	}
-
-	/**
-	 * Change userLongitude to location that the user enters
-	 * 
-	 * @param userLongitude Longitude coordinate of users desired location
-	 */
-	public void setUserLongitude(double userLongitude) {
-		this.userLongitude = userLongitude;
-	}
-
 	/**
 	 * Number of people killed in incident
 	 * 
@@ -142,22 +129,75 @@ public class Incidents implements Comparable<Incidents> {
 	 * @param userLongitude Longitude coordinate of users desired location
 	 * @return Distance in Kilometers from incident to users desired location
 	 */
-	// Finding distance between two sets of longitude latitude points from :
-	// https://www.geodatasource.com/developers/java
 	public double toDistance(double latitude, double longitude, double userLatitude, double userLongitude) {
-		if ((latitude == userLatitude) && (longitude == userLongitude)) {
-			return 0;
-		} else {
-			double theta = longitude - userLongitude;
-			double dist = Math.sin(Math.toRadians(latitude)) * Math.sin(Math.toRadians(userLatitude))
-					+ Math.cos(Math.toRadians(latitude)) * Math.cos(Math.toRadians(userLatitude)) * Math.cos(Math.toRadians(theta));
-			dist = Math.acos(dist);
-			dist = Math.toDegrees(dist);
-			dist = dist * 60 * 1.1515; //Calculates distance in miles
-			dist = dist * 1.609344; //Converts from miles to km
-			disToIncident = dist;
-			return (dist);
-		}
+		disToIncident = distance(latitude, longitude, userLatitude, userLongitude);
+		return disToIncident;
+	}
+	
+	/**
+	 * Calculate distance between two locations without storing it, using the haversine
+	 * formula which stays accurate for locations close together
+	 * 
+	 * @param latitude Latitude coordinate of the first location
+	 * @param longitude Longitude coordinate of the first location
+	 * @param userLatitude Latitude coordinate of the second location
+	 * @param userLongitude Longitude coordinate of the second location
+	 * @return Distance in Kilometers between the two locations
+	 */
+	public static double distance(double latitude, double longitude, double userLatitude, double userLongitude) {
+		double latRad = Math.toRadians(latitude);
+		return new DistanceKernel(userLatitude, userLongitude).distance(latRad, Math.toRadians(longitude), Math.cos(latRad));
+	}
+	
+	/**
+	 * Set the text columns of the incident that are only read when it is shown
+	 * 
+	 * @param notes Notes on the incident
+	 * @param participants Participant age, age group, gender, name, relationship, status and type
+	 * columns, each listing every participant as index::value separated by ||
+	 * @param sources Links to reports of the incident separated by ||
+	 */
+	public void setDetails(String notes, String[] participants, String sources) {
+		this.notes = notes;
+		this.participants = participants;
+		this.sources = sources;
+	}
+
+	/**
+	 * Notes on the incident
+	 * 
+	 * @return Notes, an empty string if there are none
+	 */
+	public String getNotes() {
+		return notes;
+	}
+
+	/**
+	 * Participant columns of the incident
+	 * 
+	 * @return Participant age, age group, gender, name, relationship, status and type columns,
+	 * an empty array if they were not read
+	 */
+	public String[] getParticipants() {
+		return participants;
+	}
+
+	/**
+	 * Links to reports of the incident
+	 * 
+	 * @return Sources separated by ||, an empty string if there are none
+	 */
+	public String getSources() {
+		return sources;
+	}
+
+	/**
+	 * Set the distance from users desired location to incident when it was computed elsewhere
+	 * 
+	 * @param disToIncident Distance in kilometers from users desired location to incident
+	 */
+	public void setDisToIncident(double disToIncident) {
+		this.disToIncident = disToIncident;
 	}
 	
 	/**
@@ -174,23 +214,26 @@ public class Incidents implements Comparable<Incidents> {
 	 * 
 	 */
 	public String toString() {
-		return String.format("id : %s, city : %s, state : %s, address : %s, Killed : %d, Injured : %d, Distance to You: %.2f", UId, City, State, address, numKilled, numInjured, disToIncident);
+		String text = String.format("id : %s, city : %s, state : %s, address : %s, Killed : %d, Injured : %d, Distance to You: %.2f", UId, City, State, address, numKilled, numInjured, disToIncident);
+		// notes may run over several lines in the file, they are shown on one
+		return notes.isEmpty() ? text : text + ", notes : " + notes.replaceAll("\\s*\\R\\s*", " ");
 	}
 	
 	/**
 	 * Compares this incident with another in terms of distance from incident 
-	 * to users desired location
+	 * to users desired location. Both distances must already be set, so comparing
+	 * never depends on or changes which location the user asked about.
 	 * 
 	 * @param that Another incident to compare to
-	 * @return 1 If this incident is closer, -1 if this incident is further,
+	 * @return 1 If this incident is further, -1 if this incident is closer,
 	 * 0 if they are the same distance from users desired location
 	 */
 	@Override
 	public int compareTo(Incidents that) {
-		if (this.toDistance(latitude, longitude, userLatitude, userLongitude) > that.toDistance(that.getLatitude(), that.getLongitude(), userLatitude, userLongitude)) {
+		if (this.disToIncident > that.disToIncident) {
 			return 1;
 		} 
-		else if (this.toDistance(latitude, longitude, userLatitude, userLongitude) < that.toDistance(that.getLatitude(), that.getLongitude(), userLatitude, userLongitude)) {
+		else if (this.disToIncident < that.disToIncident) {
 			return -1;
 		}
 		else {
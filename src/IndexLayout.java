@@ -0,0 +1,179 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The order of the rows in the spatial indexes of a QueryEngine, saved with the store in its
+ * snapshot. Building the indexes is mostly sorting the rows by geohash and partitioning the
+ * rows of every period into a tree, so an engine built over a store that carries its layout
+ * only copies the coordinates into the saved order. The summed area tables take little time to
+ * build and are not part of the layout.
+ *
+ * Layout, all numbers big endian: row count, State count, period count of every State, row
+ * count of every period, rows of the geohash index, rows of every period tree, then the
+ * splitting axes of every period tree
+ *
+ * @version 1.0
+ */
+public class IndexLayout {
+
+	private final int size;
+	// row at every position of the nationwide geohash index
+	private final int[] geohashRows;
+	// rows and splitting axes of the tree of every period, by State code and period
+	private final int[][][] treeRows;
+	private final byte[][][] treeAxis;
+
+	/**
+	 * Takes the layout of the indexes of a QueryEngine, sharing their arrays
+	 *
+	 * @param store Store the indexes were built over
+	 * @param geohash Nationwide index
+	 * @param states Every State of the store
+	 */
+	IndexLayout(IncidentStore store, GeohashIndex geohash, States[] states) {
+		this.size = store.size();
+		this.geohashRows = geohash.getRows();
+		this.treeRows = new int[store.stateCount()][][];
+		this.treeAxis = new byte[store.stateCount()][][];
+		for (int code = 0; code < treeRows.length; code++) {
+			treeRows[code] = new int[0][];
+			treeAxis[code] = new byte[0][];
+		}
+		for (States state : states) {
+			int code = store.stateCode(state.getStateName());
+			treeRows[code] = new int[state.periodCount()][];
+			treeAxis[code] = new byte[state.periodCount()][];
+			for (int p = 0; p < state.periodCount(); p++) {
+				treeRows[code][p] = state.getPeriod(p).getRows();
+				treeAxis[code][p] = state.getPeriod(p).getAxis();
+			}
+		}
+	}
+
+	private IndexLayout(int size, int[] geohashRows, int[][][] treeRows, byte[][][] treeAxis) {
+		this.size = size;
+		this.geohashRows = geohashRows;
+		this.treeRows = treeRows;
+		this.treeAxis = treeAxis;
+	}
+
+	/**
+	 * Order of the rows in the nationwide geohash index
+	 *
+	 * @param store Store the index is built over
+	 * @return Row of every position, null if the layout was saved with a different store
+	 */
+	int[] geohashRows(IncidentStore store) {
+		return matches(store) ? geohashRows : null;
+	}
+
+	/**
+	 * Tree over the rows of one period of a State in the saved order
+	 *
+	 * @param store Store the tree is built over
+	 * @param code State code in the store
+	 * @param period Index of the period in the State
+	 * @param start Row index of the first incident of the period
+	 * @param end Row index after the last incident of the period
+	 * @return Tree taking the saved order, null if the layout does not hold that period
+	 */
+	KdTree tree(IncidentStore store, int code, int period, int start, int end) {
+		if (!matches(store) || period >= treeRows[code].length) return null;
+		int[] rows = treeRows[code][period];
+		if (rows.length != end - start || (rows.length > 0 && store.getStateCode(rows[0]) != code)) return null;
+		return new KdTree(store, rows, treeAxis[code][period]);
+	}
+
+	/**
+	 * Checks whether the layout was taken from indexes over a store of the same shape
+	 *
+	 * @param store Store to check
+	 * @return True if the store has as many rows and States as the saved one
+	 */
+	boolean matches(IncidentStore store) {
+		return store.size() == size && store.stateCount() == treeRows.length;
+	}
+
+	/**
+	 * Number of bytes writeTo writes
+	 *
+	 * @return Length of the layout in a file
+	 */
+	long byteSize() {
+		long bytes = 8 + 4L * treeRows.length + 4L * size;
+		for (int[][] periods : treeRows) {
+			bytes += 4L * periods.length;
+			for (int[] rows : periods) bytes += 5L * rows.length;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Writes the layout in byteSize bytes
+	 *
+	 * @param out Stream to write to
+	 * @throws IOException If the stream can not be written
+	 */
+	void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		out.writeInt(treeRows.length);
+		for (int[][] periods : treeRows) out.writeInt(periods.length);
+		for (int[][] periods : treeRows) {
+			for (int[] rows : periods) out.writeInt(rows.length);
+		}
+		IncidentStore.writeColumn(out, geohashRows, size);
+		for (int[][] periods : treeRows) {
+			for (int[] rows : periods) IncidentStore.writeColumn(out, rows, rows.length);
+		}
+		for (byte[][] periods : treeAxis) {
+			for (byte[] axis : periods) out.write(axis);
+		}
+	}
+
+	/**
+	 * Reads a layout written by writeTo
+	 *
+	 * @param channel Channel of the file holding the layout
+	 * @param offset Position of the layout in the file
+	 * @return The layout that was written
+	 * @throws IOException If the file can not be mapped
+	 */
+	static IndexLayout readFrom(FileChannel channel, long offset) throws IOException {
+		ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, offset, 8);
+		int size = head.getInt();
+		int stateCount = head.getInt();
+		offset += 8;
+
+		int[] periodCount = new int[stateCount];
+		offset = IncidentStore.readColumn(channel, offset, periodCount, stateCount);
+		int total = 0;
+		for (int count : periodCount) total += count;
+		int[] length = new int[total];
+		offset = IncidentStore.readColumn(channel, offset, length, total);
+		int[] geohashRows = new int[size];
+		offset = IncidentStore.readColumn(channel, offset, geohashRows, size);
+
+		int[][][] treeRows = new int[stateCount][][];
+		byte[][][] treeAxis = new byte[stateCount][][];
+		long axisLength = 0;
+		for (int code = 0, p = 0; code < stateCount; code++) {
+			treeRows[code] = new int[periodCount[code]][];
+			treeAxis[code] = new byte[periodCount[code]][];
+			for (int i = 0; i < periodCount[code]; i++, p++) {
+				treeRows[code][i] = new int[length[p]];
+				offset = IncidentStore.readColumn(channel, offset, treeRows[code][i], length[p]);
+				axisLength += length[p];
+			}
+		}
+		ByteBuffer axes = channel.map(FileChannel.MapMode.READ_ONLY, offset, axisLength);
+		for (int code = 0; code < stateCount; code++) {
+			for (int i = 0; i < periodCount[code]; i++) {
+				treeAxis[code][i] = new byte[treeRows[code][i].length];
+				axes.get(treeAxis[code][i]);
+			}
+		}
+		return new IndexLayout(size, geohashRows, treeRows, treeAxis);
+	}
+}
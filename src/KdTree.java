@@ -0,0 +1,426 @@
+import java.util.Arrays;
+
+/**
+ * A 2-d tree over the incidents of one US State used to answer radius queries without looking
+ * at every incident. The tree is implicit: the incidents are reordered so the middle of every
+ * range is the splitting point of that range, which needs no node objects or child pointers.
+ * Coordinates, their radians and the cosine of the latitude are copied into tree order so a
+ * search reads them sequentially.
+ *
+ * Besides radius queries the tree finds the k incidents nearest a location, visiting its nodes
+ * best first from the one that can hold the closest incident, and the incidents in a corridor
+ * around a route, narrowing the segments of the route to the ones near each node on the way down.
+ *
+ * @version 1.6
+ */
+public class KdTree {
+
+	// ranges this small are scanned instead of split further
+	private static final int LEAF_SIZE = 8;
+	private static final int LATITUDE = 0;
+	private static final int LONGITUDE = 1;
+
+	private final IncidentStore store;
+	private final int[] rows;
+	private final double[] latitude;
+	private final double[] longitude;
+	private final double[] latitudeRadians;
+	private final double[] longitudeRadians;
+	private final double[] cosLatitude;
+	// splitting axis of the node at every middle position
+	private final byte[] axis;
+	// box around every incident of the tree
+	private double lowLat = Double.POSITIVE_INFINITY, highLat = Double.NEGATIVE_INFINITY;
+	private double lowLon = Double.POSITIVE_INFINITY, highLon = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * Builds the tree over a range of rows of a store
+	 *
+	 * @param store Store holding the incidents
+	 * @param start Row index of the first incident
+	 * @param end Row index after the last incident
+	 */
+	public KdTree(IncidentStore store, int start, int end) {
+		this.store = store;
+		int n = end - start;
+		rows = new int[n];
+		latitude = new double[n];
+		longitude = new double[n];
+		latitudeRadians = new double[n];
+		longitudeRadians = new double[n];
+		cosLatitude = new double[n];
+		axis = new byte[n];
+		for (int i = 0; i < n; i++) {
+			rows[i] = start + i;
+			latitude[i] = store.getLatitude(start + i);
+			longitude[i] = store.getLongitude(start + i);
+			lowLat = Math.min(lowLat, latitude[i]);
+			highLat = Math.max(highLat, latitude[i]);
+			lowLon = Math.min(lowLon, longitude[i]);
+			highLon = Math.max(highLon, longitude[i]);
+		}
+		build(0, n);
+		gatherRadians();
+	}
+
+	/**
+	 * Builds the tree over rows of a store already in tree order, as saved from another tree
+	 * over the same rows, so only the coordinates are copied
+	 *
+	 * @param store Store holding the incidents
+	 * @param rows Row of every position as given by getRows, kept by the tree
+	 * @param axis Splitting axis of every position as given by getAxis, kept by the tree
+	 */
+	KdTree(IncidentStore store, int[] rows, byte[] axis) {
+		this.store = store;
+		this.rows = rows;
+		this.axis = axis;
+		int n = rows.length;
+		latitude = new double[n];
+		longitude = new double[n];
+		latitudeRadians = new double[n];
+		longitudeRadians = new double[n];
+		cosLatitude = new double[n];
+		for (int i = 0; i < n; i++) {
+			latitude[i] = store.getLatitude(rows[i]);
+			longitude[i] = store.getLongitude(rows[i]);
+			lowLat = Math.min(lowLat, latitude[i]);
+			highLat = Math.max(highLat, latitude[i]);
+			lowLon = Math.min(lowLon, longitude[i]);
+			highLon = Math.max(highLon, longitude[i]);
+		}
+		gatherRadians();
+	}
+
+	/**
+	 * Copies the radians and the cosine of the latitude of every row into tree order
+	 */
+	private void gatherRadians() {
+		for (int i = 0; i < rows.length; i++) {
+			latitudeRadians[i] = store.getLatitudeRadians(rows[i]);
+			longitudeRadians[i] = store.getLongitudeRadians(rows[i]);
+			cosLatitude[i] = store.getCosLatitude(rows[i]);
+		}
+	}
+
+	/**
+	 * Number of incidents in the tree
+	 *
+	 * @return Count of incidents
+	 */
+	public int size() {
+		return rows.length;
+	}
+
+	/**
+	 * Row of every position of the tree, shared with the tree and not to be changed
+	 *
+	 * @return Rows in tree order
+	 */
+	int[] getRows() {
+		return rows;
+	}
+
+	/**
+	 * Splitting axis of every position of the tree, shared with the tree and not to be changed
+	 *
+	 * @return Axes in tree order
+	 */
+	byte[] getAxis() {
+		return axis;
+	}
+
+	/**
+	 * Finds every incident within a range of the users desired location
+	 *
+	 * @param userLat Latitude coordinate of users desired location
+	 * @param userLong Longitude coordinate of users desired location
+	 * @param range Distance from users desired location in kilometers
+	 * @param result Result the incidents in range are added to, ordered by distance
+	 */
+	public void radius(double userLat, double userLong, double range, QueryResult result) {
+		collect(userLat, userLong, range, 0, Integer.MAX_VALUE, result);
+		result.sortByDistance();
+	}
+
+	/**
+	 * Adds the incidents within a range of the users desired location whose rows are in a span
+	 * to a result without ordering it, so the incidents of several trees can be ordered together
+	 *
+	 * @param userLat Latitude coordinate of users desired location
+	 * @param userLong Longitude coordinate of users desired location
+	 * @param range Distance from users desired location in kilometers
+	 * @param minRow Smallest row index to keep
+	 * @param maxRow Row index after the largest one to keep
+	 * @param result Result the incidents in range are added to
+	 */
+	public void collect(double userLat, double userLong, double range, int minRow, int maxRow, QueryResult result) {
+		Search search = new Search(userLat, userLong, range, minRow, maxRow, result);
+		search(0, rows.length, search);
+	}
+
+	/**
+	 * Adds the incidents nearest the location of a buffer whose rows are in a span to the
+	 * buffer. Nodes are taken from the buffer frontier closest first, and the search stops once
+	 * the closest node left can not hold an incident nearer than the furthest one kept, so
+	 * several trees can be searched into one buffer.
+	 *
+	 * @param buffer Buffer reset for the query, holding the nearest incidents found so far
+	 * @param minRow Smallest row index to keep
+	 * @param maxRow Row index after the largest one to keep
+	 */
+	public void nearest(NearestBuffer buffer, int minRow, int maxRow) {
+		if (rows.length == 0) return;
+		DistanceKernel kernel = buffer.kernel();
+		buffer.clearFrontier();
+		buffer.push(0, rows.length, lowLat, highLat, lowLon, highLon);
+		while (buffer.hasNode()) {
+			int node = buffer.pop();
+			int lo = buffer.nodeLo(node), hi = buffer.nodeHi(node);
+			double south = buffer.nodeBox(node, 0), north = buffer.nodeBox(node, 1);
+			double west = buffer.nodeBox(node, 2), east = buffer.nodeBox(node, 3);
+			if (hi - lo <= LEAF_SIZE) {
+				for (int i = lo; i < hi; i++) {
+					offer(buffer, kernel, i, minRow, maxRow);
+				}
+				continue;
+			}
+			int mid = (lo + hi) >>> 1;
+			offer(buffer, kernel, mid, minRow, maxRow);
+			if (axis[mid] == LATITUDE) {
+				buffer.push(lo, mid, south, latitude[mid], west, east);
+				buffer.push(mid + 1, hi, latitude[mid], north, west, east);
+			} else {
+				buffer.push(lo, mid, south, north, west, longitude[mid]);
+				buffer.push(mid + 1, hi, south, north, longitude[mid], east);
+			}
+		}
+	}
+
+	/**
+	 * Adds the incidents in a corridor whose rows are in a span to a result without ordering it.
+	 * Every incident of the tree is measured at most once against the whole route, so one near
+	 * several segments is still added once.
+	 *
+	 * @param corridor Route and width to search
+	 * @param minRow Smallest row index to keep
+	 * @param maxRow Row index after the largest one to keep
+	 * @param result Result the incidents in the corridor are added to
+	 */
+	public void corridor(Corridor corridor, int minRow, int maxRow, CorridorResult result) {
+		if (rows.length == 0 || !corridor.overlaps(lowLat, highLat, lowLon, highLon)) return;
+		CorridorSearch search = new CorridorSearch(corridor, minRow, maxRow, result);
+		int[] all = new int[corridor.segments()];
+		for (int s = 0; s < all.length; s++) {
+			all[s] = s;
+		}
+		search(0, rows.length, lowLat, highLat, lowLon, highLon, 0, all, all.length, search);
+	}
+
+	/**
+	 * Visits a node with the segments near its parent, keeping the ones whose box overlaps the
+	 * box of the node and skipping the node when there are none
+	 *
+	 * @param lo First position of the range
+	 * @param hi Position after the range
+	 * @param south Southern edge of the node
+	 * @param north Northern edge of the node
+	 * @param west Western edge of the node
+	 * @param east Eastern edge of the node
+	 * @param depth Depth of the node, the segments kept are written to the scratch array of that depth
+	 * @param near Segments whose box overlaps the parent
+	 * @param count Number of segments in near
+	 * @param search Query being answered
+	 */
+	private void search(int lo, int hi, double south, double north, double west, double east, int depth, int[] near,
+			int count, CorridorSearch search) {
+		int[] kept = search.level(depth);
+		count = search.corridor.overlapping(near, count, kept, south, north, west, east);
+		if (count == 0) return;
+		if (hi - lo <= LEAF_SIZE) {
+			for (int i = lo; i < hi; i++) {
+				search.test(i, kept, count);
+			}
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		search.test(mid, kept, count);
+		if (axis[mid] == LATITUDE) {
+			search(lo, mid, south, latitude[mid], west, east, depth + 1, kept, count, search);
+			search(mid + 1, hi, latitude[mid], north, west, east, depth + 1, kept, count, search);
+		} else {
+			search(lo, mid, south, north, west, longitude[mid], depth + 1, kept, count, search);
+			search(mid + 1, hi, south, north, longitude[mid], east, depth + 1, kept, count, search);
+		}
+	}
+
+	private void offer(NearestBuffer buffer, DistanceKernel kernel, int i, int minRow, int maxRow) {
+		if (rows[i] < minRow || rows[i] >= maxRow) return;
+		buffer.offer(rows[i], kernel.haversine(latitudeRadians[i], longitudeRadians[i], cosLatitude[i]));
+	}
+
+	/**
+	 * Smallest haversine from the location of a buffer to any incident of the tree
+	 *
+	 * @param buffer Buffer reset for the query
+	 * @return Haversine no incident of the tree can be closer than, infinite for an empty tree
+	 */
+	public double bound(NearestBuffer buffer) {
+		if (rows.length == 0) return Double.POSITIVE_INFINITY;
+		return buffer.bound(lowLat, highLat, lowLon, highLon);
+	}
+
+	/**
+	 * Arranges a range so its middle splits it on the axis with the largest spread
+	 *
+	 * @param lo First position of the range
+	 * @param hi Position after the range
+	 */
+	private void build(int lo, int hi) {
+		if (hi - lo <= LEAF_SIZE) return;
+		double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+		double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+		for (int i = lo; i < hi; i++) {
+			minLat = Math.min(minLat, latitude[i]);
+			maxLat = Math.max(maxLat, latitude[i]);
+			minLon = Math.min(minLon, longitude[i]);
+			maxLon = Math.max(maxLon, longitude[i]);
+		}
+		int mid = (lo + hi) >>> 1;
+		int split = (maxLat - minLat) >= (maxLon - minLon) ? LATITUDE : LONGITUDE;
+		select(lo, hi - 1, mid, split == LATITUDE ? latitude : longitude);
+		axis[mid] = (byte) split;
+		build(lo, mid);
+		build(mid + 1, hi);
+	}
+
+	/**
+	 * Partially sorts a range so the k-th position holds the value it would have if the range
+	 * was sorted on one axis, smaller values before it and larger ones after
+	 *
+	 * @param lo First position of the range
+	 * @param hi Last position of the range
+	 * @param k Position to place
+	 * @param key Coordinates of the axis being sorted on
+	 */
+	private void select(int lo, int hi, int k, double[] key) {
+		while (hi > lo) {
+			double pivot = key[(lo + hi) >>> 1];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (key[i] < pivot) i++;
+				while (key[j] > pivot) j--;
+				if (i <= j) swap(i++, j--);
+			}
+			if (k <= j) hi = j;
+			else if (k >= i) lo = i;
+			else return;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int row = rows[i];
+		rows[i] = rows[j];
+		rows[j] = row;
+		double lat = latitude[i];
+		latitude[i] = latitude[j];
+		latitude[j] = lat;
+		double lon = longitude[i];
+		longitude[i] = longitude[j];
+		longitude[j] = lon;
+	}
+
+	/**
+	 * Visits the part of a range that can overlap the search box
+	 *
+	 * @param lo First position of the range
+	 * @param hi Position after the range
+	 * @param search Query being answered
+	 */
+	private void search(int lo, int hi, Search search) {
+		if (hi - lo <= LEAF_SIZE) {
+			for (int i = lo; i < hi; i++) {
+				search.test(i);
+			}
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		search.test(mid);
+		if (axis[mid] == LATITUDE) {
+			if (search.minLat <= latitude[mid]) search(lo, mid, search);
+			if (search.maxLat >= latitude[mid]) search(mid + 1, hi, search);
+		} else {
+			if (search.minLon <= longitude[mid]) search(lo, mid, search);
+			if (search.maxLon >= longitude[mid]) search(mid + 1, hi, search);
+		}
+	}
+
+	/**
+	 * State of one radius query. The circle is enclosed in a latitude and longitude box so
+	 * whole subtrees outside of it are skipped with comparisons only.
+	 */
+	private class Search {
+		private final DistanceKernel kernel;
+		private final double threshold;
+		private final BoundingBox box;
+		private final double minLat, maxLat, minLon, maxLon;
+		private final int minRow, maxRow;
+		private final QueryResult result;
+
+		Search(double userLat, double userLong, double range, int minRow, int maxRow, QueryResult result) {
+			this.kernel = new DistanceKernel(userLat, userLong);
+			this.threshold = DistanceKernel.threshold(range);
+			this.minRow = minRow;
+			this.maxRow = maxRow;
+			this.result = result;
+			this.box = BoundingBox.around(userLat, userLong, range);
+			minLat = box.getMinLat();
+			maxLat = box.getMaxLat();
+			boolean wraps = box.wraps();
+			// a box across the 180th meridian has longitudes on both ends of every split
+			minLon = wraps ? -180 : box.getMinLon();
+			maxLon = wraps ? 180 : box.getMaxLon();
+		}
+
+		void test(int i) {
+			if (rows[i] < minRow || rows[i] >= maxRow || !box.contains(latitude[i], longitude[i])) return;
+			double haversine = kernel.haversine(latitudeRadians[i], longitudeRadians[i], cosLatitude[i]);
+			if (haversine <= threshold) {
+				result.add(rows[i], DistanceKernel.toKilometers(haversine));
+			}
+		}
+	}
+
+	/**
+	 * State of one corridor query, with a scratch array of segments for every depth of the tree
+	 * so narrowing the segments allocates nothing past the first visit of a depth
+	 */
+	private class CorridorSearch {
+		private final Corridor corridor;
+		private final int minRow, maxRow;
+		private final CorridorResult result;
+		private final double[] found = new double[2];
+		private int[][] levels = new int[16][];
+
+		CorridorSearch(Corridor corridor, int minRow, int maxRow, CorridorResult result) {
+			this.corridor = corridor;
+			this.minRow = minRow;
+			this.maxRow = maxRow;
+			this.result = result;
+		}
+
+		int[] level(int depth) {
+			if (depth == levels.length) levels = Arrays.copyOf(levels, depth * 2);
+			if (levels[depth] == null) levels[depth] = new int[corridor.segments()];
+			return levels[depth];
+		}
+
+		void test(int i, int[] segments, int count) {
+			if (rows[i] < minRow || rows[i] >= maxRow) return;
+			if (corridor.locate(latitude[i], longitude[i], latitudeRadians[i], longitudeRadians[i], cosLatitude[i],
+					segments, count, found)) {
+				result.add(rows[i], found[0], found[1]);
+			}
+		}
+	}
+}
@@ -0,0 +1,276 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+import geocoding.CachingGeocoding;
+import geocoding.Geocoding;
+import geocoding.GeocodingException;
+
+/**
+ * Where the time of a run goes, kept in one place for the whole JVM. Startup is measured in
+ * phases, each the total time and number of calls of one step of loading the incidents. The
+ * work of every query is recorded in latency histograms:
+ *
+ * <pre>
+ * geocode    resolving an address to coordinates, cache hits included
+ * lookup     finding the incidents of a query in the indexes, the distances to the incidents
+ *            the indexes do not rule out are measured during the lookup and are part of it
+ * distance   measuring the distance to every incident of a State and sorting them, as done
+ *            by SortIncidents and filterIncidents
+ * report     writing the answer of a query to the user, a file or a client
+ * </pre>
+ *
+ * Counters give the rows parsed and rejected while loading and the geocoding cache hits and
+ * misses. Recording costs two reads of the clock and a few atomic increments, small next to
+ * the work measured. The metrics are published as a JMX MBean once register is called, and
+ * dump gives all of them as JSON.
+ *
+ * @version 1.0
+ */
+public class Metrics implements MetricsMBean {
+
+	// name the MBean is registered under
+	public static final String OBJECT_NAME = "ThreatDetect:type=Metrics";
+
+	private static final Metrics INSTANCE = new Metrics();
+
+	private final LatencyHistogram geocode = new LatencyHistogram();
+	private final LatencyHistogram lookup = new LatencyHistogram();
+	private final LatencyHistogram distance = new LatencyHistogram();
+	private final LatencyHistogram report = new LatencyHistogram();
+	private final LongAdder rowsParsed = new LongAdder();
+	private final LongAdder rowsRejected = new LongAdder();
+	// total nanoseconds and calls of every startup phase, in the order they first ran
+	private final Map<String, long[]> phases = new LinkedHashMap<>();
+	private volatile CachingGeocoding cache;
+
+	private Metrics() {
+	}
+
+	/**
+	 * Metrics of this JVM
+	 *
+	 * @return The one Metrics every part of the program records into
+	 */
+	public static Metrics get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Publishes the metrics to the platform MBean server, registering again does nothing
+	 *
+	 * @throws IllegalStateException If the MBean cannot be registered
+	 */
+	public void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+		} catch (InstanceAlreadyExistsException e) {
+			// registered by an earlier call
+		} catch (JMException e) {
+			throw new IllegalStateException("Metrics could not be registered as " + OBJECT_NAME, e);
+		}
+	}
+
+	/**
+	 * Adds the time from a start until now to a startup phase
+	 *
+	 * @param name Name of the phase
+	 * @param startNanos Value of System.nanoTime when the phase started
+	 */
+	public void phase(String name, long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		synchronized (phases) {
+			long[] phase = phases.get(name);
+			if (phase == null) {
+				phase = new long[2];
+				phases.put(name, phase);
+			}
+			phase[0] += nanos;
+			phase[1]++;
+		}
+	}
+
+	/**
+	 * Counts the records of a CSV file, added once per file or chunk rather than per row
+	 *
+	 * @param parsed Records read
+	 * @param rejected Records of them that were left out
+	 */
+	public void countRows(long parsed, long rejected) {
+		rowsParsed.add(parsed);
+		rowsRejected.add(rejected);
+	}
+
+	/**
+	 * Reads the hits and misses of a geocoding cache with the other metrics
+	 *
+	 * @param cache Cache answering the geocoding of this run
+	 */
+	public void watch(CachingGeocoding cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Wraps a geocoder so the time of every address it resolves is recorded
+	 *
+	 * @param delegate Geocoder resolving the addresses
+	 * @return Geocoding recording into the geocode histogram
+	 */
+	public Geocoding timed(Geocoding delegate) {
+		return new Geocoding() {
+			@Override
+			public String getDistrict(double latitude, double longitude) throws GeocodingException {
+				return delegate.getDistrict(latitude, longitude);
+			}
+
+			@Override
+			public JsonObject getLatLng(String address) throws GeocodingException {
+				long start = System.nanoTime();
+				try {
+					return delegate.getLatLng(address);
+				} finally {
+					geocode.recordSince(start);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Time to resolve an address to coordinates
+	 *
+	 * @return Histogram recorded into by geocoders wrapped with timed
+	 */
+	public LatencyHistogram geocode() {
+		return geocode;
+	}
+
+	/**
+	 * Time to find the incidents of a query in the indexes
+	 *
+	 * @return Histogram recorded into by QueryEngine
+	 */
+	public LatencyHistogram lookup() {
+		return lookup;
+	}
+
+	/**
+	 * Time to measure and sort the distance to every incident of a State
+	 *
+	 * @return Histogram recorded into by SortIncidents and filterIncidents
+	 */
+	public LatencyHistogram distance() {
+		return distance;
+	}
+
+	/**
+	 * Time to write the answer of a query
+	 *
+	 * @return Histogram recorded into where answers are written
+	 */
+	public LatencyHistogram report() {
+		return report;
+	}
+
+	@Override
+	public long getRowsParsed() {
+		return rowsParsed.sum();
+	}
+
+	@Override
+	public long getRowsRejected() {
+		return rowsRejected.sum();
+	}
+
+	@Override
+	public long getGeocodeCacheHits() {
+		CachingGeocoding watched = cache;
+		return watched == null ? 0 : watched.getHits() + watched.getDiskHits();
+	}
+
+	@Override
+	public long getGeocodeCacheMisses() {
+		CachingGeocoding watched = cache;
+		return watched == null ? 0 : watched.getMisses();
+	}
+
+	@Override
+	public long getQueries() {
+		return lookup.getCount();
+	}
+
+	@Override
+	public double percentile(String histogram, double percentile) {
+		return histogram(histogram).getPercentile(percentile) / 1e3;
+	}
+
+	private LatencyHistogram histogram(String name) {
+		switch (name) {
+		case "geocode":
+			return geocode;
+		case "lookup":
+			return lookup;
+		case "distance":
+			return distance;
+		case "report":
+			return report;
+		default:
+			throw new IllegalArgumentException("No histogram named " + name);
+		}
+	}
+
+	@Override
+	public String dump() {
+		return new GsonBuilder().setPrettyPrinting().create().toJson(toJson());
+	}
+
+	/**
+	 * Every phase, histogram and counter
+	 *
+	 * @return JsonObject with the phases in milliseconds and the histograms in microseconds
+	 */
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		JsonObject startup = new JsonObject();
+		synchronized (phases) {
+			for (Map.Entry<String, long[]> phase : phases.entrySet()) {
+				JsonObject entry = new JsonObject();
+				entry.addProperty("ms", phase.getValue()[0] / 1e6);
+				entry.addProperty("calls", phase.getValue()[1]);
+				startup.add(phase.getKey(), entry);
+			}
+		}
+		json.add("phases", startup);
+		JsonObject histograms = new JsonObject();
+		histograms.add("geocode", geocode.toJson());
+		histograms.add("lookup", lookup.toJson());
+		histograms.add("distance", distance.toJson());
+		histograms.add("report", report.toJson());
+		json.add("histograms", histograms);
+		JsonObject counters = new JsonObject();
+		counters.addProperty("rows_parsed", getRowsParsed());
+		counters.addProperty("rows_rejected", getRowsRejected());
+		counters.addProperty("geocode_cache_hits", getGeocodeCacheHits());
+		counters.addProperty("geocode_cache_misses", getGeocodeCacheMisses());
+		counters.addProperty("queries", getQueries());
+		json.add("counters", counters);
+		return json;
+	}
+
+	@Override
+	public void reset() {
+		geocode.reset();
+		lookup.reset();
+		distance.reset();
+		report.reset();
+		rowsParsed.reset();
+		rowsRejected.reset();
+	}
+}
@@ -0,0 +1,65 @@
+/**
+ * Management interface of Metrics, the attributes and operations JMX clients such as jconsole
+ * see under ThreatDetect:type=Metrics
+ *
+ * @version 1.0
+ */
+public interface MetricsMBean {
+
+	/**
+	 * Incident records read from CSV files
+	 *
+	 * @return Count of records parsed, kept or not
+	 */
+	long getRowsParsed();
+
+	/**
+	 * Incident records left out because a required column was empty or not a number
+	 *
+	 * @return Count of records rejected
+	 */
+	long getRowsRejected();
+
+	/**
+	 * Addresses answered by the geocoding cache, from memory or from disk
+	 *
+	 * @return Count of cache hits, 0 if no cache is watched
+	 */
+	long getGeocodeCacheHits();
+
+	/**
+	 * Addresses the geocoding cache had to ask the remote geocoder for
+	 *
+	 * @return Count of cache misses, 0 if no cache is watched
+	 */
+	long getGeocodeCacheMisses();
+
+	/**
+	 * Queries answered by the engine
+	 *
+	 * @return Count of index lookups
+	 */
+	long getQueries();
+
+	/**
+	 * Latency percentile of one histogram
+	 *
+	 * @param histogram Name of the histogram: geocode, lookup, distance or report
+	 * @param percentile Share of the latencies in percent, from 0 to 100
+	 * @return Latency in microseconds
+	 * @throws IllegalArgumentException If there is no histogram of that name
+	 */
+	double percentile(String histogram, double percentile);
+
+	/**
+	 * Every phase, histogram and counter as JSON
+	 *
+	 * @return JSON text of the metrics
+	 */
+	String dump();
+
+	/**
+	 * Forgets the histograms and counters, the startup phases are kept
+	 */
+	void reset();
+}
@@ -0,0 +1,384 @@
+import java.util.Arrays;
+
+/**
+ * Working space and result of k nearest incident queries. A buffer holds the k closest
+ * incidents found so far in a max heap on their haversine, so the furthest of them is known at
+ * once, and the frontier of tree nodes still to visit in a min heap on the smallest haversine
+ * any incident of the node can have. States and periods are searched closest first, ordered on
+ * a stack of candidates so an ordering can be nested in another. The heaps and the stack are
+ * plain arrays that are kept between queries, so answering many queries with one buffer
+ * allocates nothing once the arrays have grown.
+ *
+ * A buffer is used by one thread at a time.
+ *
+ * @version 1.1
+ */
+public class NearestBuffer {
+
+	private double userLat, userLong, cosUserLat;
+	private DistanceKernel kernel;
+	private int k;
+	// haversine an incident must not exceed, the range of the query until k incidents are found
+	private double limit;
+
+	private int size;
+	private int[] rows = new int[16];
+	private double[] haversines = new double[16];
+	private boolean sorted;
+
+	// frontier nodes: range of tree positions, box of their coordinates and the smallest haversine in it
+	private int frontier;
+	private int[] nodeLo = new int[64], nodeHi = new int[64];
+	private double[] nodeBound = new double[64];
+	private double[] nodeBox = new double[4 * 64];
+
+	// candidates being ordered: sort key, id and bound, an ordering is a slice at the top
+	private int candidates;
+	private long[] candidateKey = new long[64];
+	private int[] candidateId = new int[64];
+	private double[] candidateBound = new double[64];
+
+	/**
+	 * Starts a new query, forgetting the incidents of the last one
+	 *
+	 * @param userLat Latitude coordinate of users desired location
+	 * @param userLong Longitude coordinate of users desired location
+	 * @param k Number of incidents to find
+	 * @param range Largest distance in kilometers an incident may be at, infinite for no limit
+	 * @throws IllegalArgumentException If k is not positive
+	 */
+	public void reset(double userLat, double userLong, int k, double range) {
+		if (k <= 0) throw new IllegalArgumentException("Number of incidents must be positive: " + k);
+		this.userLat = userLat;
+		this.userLong = userLong;
+		this.cosUserLat = Math.cos(Math.toRadians(userLat));
+		this.kernel = new DistanceKernel(userLat, userLong);
+		this.k = k;
+		this.limit = DistanceKernel.threshold(range);
+		this.size = 0;
+		this.sorted = false;
+		this.frontier = 0;
+		this.candidates = 0;
+		if (rows.length < k) {
+			rows = new int[k];
+			haversines = new double[k];
+		}
+	}
+
+	/**
+	 * Kernel measuring distances from the users desired location
+	 */
+	DistanceKernel kernel() {
+		return kernel;
+	}
+
+	/**
+	 * Largest haversine an incident can have and still be kept
+	 *
+	 * @return Haversine of the furthest of k incidents found, or of the range before that
+	 */
+	double worst() {
+		return limit;
+	}
+
+	/**
+	 * Keeps an incident if it is closer than the furthest one kept
+	 *
+	 * @param row Row index of the incident
+	 * @param haversine Haversine of the angle to the incident
+	 */
+	void offer(int row, double haversine) {
+		if (haversine > limit) return;
+		if (size < k) {
+			// sift up from the new leaf
+			int i = size++;
+			while (i > 0 && haversines[(i - 1) >>> 1] < haversine) {
+				int parent = (i - 1) >>> 1;
+				rows[i] = rows[parent];
+				haversines[i] = haversines[parent];
+				i = parent;
+			}
+			rows[i] = row;
+			haversines[i] = haversine;
+			if (size == k) limit = haversines[0];
+			return;
+		}
+		if (haversine >= haversines[0]) return;
+		siftDown(0, size, row, haversine);
+		limit = haversines[0];
+	}
+
+	/**
+	 * Places an incident at a position of the max heap of the first n entries and moves it down
+	 */
+	private void siftDown(int i, int n, int row, double haversine) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= n) break;
+			if (child + 1 < n && haversines[child + 1] > haversines[child]) child++;
+			if (haversines[child] <= haversine) break;
+			rows[i] = rows[child];
+			haversines[i] = haversines[child];
+			i = child;
+		}
+		rows[i] = row;
+		haversines[i] = haversine;
+	}
+
+	/**
+	 * Smallest haversine from the users desired location to any point of a box. The latitude and
+	 * longitude gaps to the box and the smallest cosine of its latitudes each bound their term
+	 * of the haversine formula from below. The sines and cosine are replaced by Taylor
+	 * polynomials that stay below them, so a bound needs no trigonometry.
+	 *
+	 * @param minLat Southern edge of the box
+	 * @param maxLat Northern edge of the box
+	 * @param minLon Western edge of the box
+	 * @param maxLon Eastern edge of the box
+	 * @return Haversine no incident inside the box can be closer than
+	 */
+	double bound(double minLat, double maxLat, double minLon, double maxLon) {
+		double dLat = userLat < minLat ? minLat - userLat : userLat > maxLat ? userLat - maxLat : 0;
+		double dLon = 0;
+		if (userLong < minLon || userLong > maxLon) {
+			double west = Math.abs(userLong - minLon) % 360, east = Math.abs(userLong - maxLon) % 360;
+			dLon = Math.min(Math.min(west, 360 - west), Math.min(east, 360 - east));
+		}
+		double sinLat = sinBelow(Math.toRadians(dLat) * 0.5);
+		double sinLon = sinBelow(Math.toRadians(dLon) * 0.5);
+		double cosBox = cosBelow(Math.toRadians(Math.max(Math.abs(minLat), Math.abs(maxLat))));
+		return sinLat * sinLat + cosUserLat * cosBox * sinLon * sinLon;
+	}
+
+	/**
+	 * Lower bound of the sine of an angle between 0 and pi / 2, x - x^3 / 6 is below the sine
+	 * there and still positive
+	 */
+	private static double sinBelow(double x) {
+		return x * (1 - x * x / 6);
+	}
+
+	/**
+	 * Lower bound of the cosine of an angle, the Taylor polynomial ending on its x^6 term is
+	 * below the cosine everywhere and within 0.0003 of it up to 80 degrees
+	 */
+	private static double cosBelow(double x) {
+		double x2 = x * x;
+		return Math.max(0, 1 - x2 / 2 * (1 - x2 / 12 * (1 - x2 / 30)));
+	}
+
+	/**
+	 * Adds a tree node to the frontier unless it can not hold an incident closer than the
+	 * furthest one kept
+	 */
+	void push(int lo, int hi, double minLat, double maxLat, double minLon, double maxLon) {
+		double bound = bound(minLat, maxLat, minLon, maxLon);
+		if (bound > limit) return;
+		if (frontier == nodeLo.length) {
+			int capacity = frontier * 2;
+			nodeLo = Arrays.copyOf(nodeLo, capacity);
+			nodeHi = Arrays.copyOf(nodeHi, capacity);
+			nodeBound = Arrays.copyOf(nodeBound, capacity);
+			nodeBox = Arrays.copyOf(nodeBox, 4 * capacity);
+		}
+		int i = frontier++;
+		while (i > 0 && nodeBound[(i - 1) >>> 1] > bound) {
+			move((i - 1) >>> 1, i);
+			i = (i - 1) >>> 1;
+		}
+		set(i, lo, hi, bound, minLat, maxLat, minLon, maxLon);
+	}
+
+	/**
+	 * Checks whether the frontier holds a node that may still improve the result
+	 *
+	 * @return True if the closest node of the frontier is not further than the furthest incident kept
+	 */
+	boolean hasNode() {
+		return frontier > 0 && nodeBound[0] <= limit;
+	}
+
+	/**
+	 * Removes the closest node of the frontier, its range and box stay readable until the next push
+	 *
+	 * @return Index of the removed node in the node arrays
+	 */
+	int pop() {
+		frontier--;
+		// the root is swapped with the last node, which is then sifted down in the shortened heap
+		swapNodes(0, frontier);
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= frontier) break;
+			if (child + 1 < frontier && nodeBound[child + 1] < nodeBound[child]) child++;
+			if (nodeBound[child] >= nodeBound[i]) break;
+			swapNodes(i, child);
+			i = child;
+		}
+		return frontier;
+	}
+
+	/**
+	 * Empties the frontier before another tree is searched
+	 */
+	void clearFrontier() {
+		frontier = 0;
+	}
+
+	int nodeLo(int node) {
+		return nodeLo[node];
+	}
+
+	int nodeHi(int node) {
+		return nodeHi[node];
+	}
+
+	double nodeBox(int node, int side) {
+		return nodeBox[4 * node + side];
+	}
+
+	private void set(int i, int lo, int hi, double bound, double minLat, double maxLat, double minLon, double maxLon) {
+		nodeLo[i] = lo;
+		nodeHi[i] = hi;
+		nodeBound[i] = bound;
+		nodeBox[4 * i] = minLat;
+		nodeBox[4 * i + 1] = maxLat;
+		nodeBox[4 * i + 2] = minLon;
+		nodeBox[4 * i + 3] = maxLon;
+	}
+
+	private void move(int from, int to) {
+		set(to, nodeLo[from], nodeHi[from], nodeBound[from], nodeBox[4 * from], nodeBox[4 * from + 1],
+				nodeBox[4 * from + 2], nodeBox[4 * from + 3]);
+	}
+
+	private void swapNodes(int i, int j) {
+		int lo = nodeLo[i], hi = nodeHi[i];
+		double bound = nodeBound[i];
+		double minLat = nodeBox[4 * i], maxLat = nodeBox[4 * i + 1], minLon = nodeBox[4 * i + 2],
+				maxLon = nodeBox[4 * i + 3];
+		move(j, i);
+		set(j, lo, hi, bound, minLat, maxLat, minLon, maxLon);
+	}
+
+	/**
+	 * Starts an ordering of candidates on top of any ordering still being walked
+	 *
+	 * @return Mark where the candidates of the ordering start
+	 */
+	int beginOrder() {
+		return candidates;
+	}
+
+	/**
+	 * Adds a candidate to the ordering on top
+	 *
+	 * @param id Number the caller knows the candidate by
+	 * @param bound Haversine no incident of the candidate can be closer than
+	 */
+	void addCandidate(int id, double bound) {
+		if (candidates == candidateKey.length) {
+			int capacity = candidates * 2;
+			candidateKey = Arrays.copyOf(candidateKey, capacity);
+			candidateId = Arrays.copyOf(candidateId, capacity);
+			candidateBound = Arrays.copyOf(candidateBound, capacity);
+		}
+		// a non negative float orders the same as its bits, the slot breaks ties and finds the id
+		candidateKey[candidates] = ((long) Float.floatToIntBits((float) bound) << 32) | candidates;
+		candidateId[candidates] = id;
+		candidateBound[candidates] = bound;
+		candidates++;
+	}
+
+	/**
+	 * Orders the candidates added since a mark, closest bound first
+	 *
+	 * @param mark Mark returned by beginOrder
+	 * @return Position after the last candidate of the ordering
+	 */
+	int sortCandidates(int mark) {
+		Arrays.sort(candidateKey, mark, candidates);
+		return candidates;
+	}
+
+	/**
+	 * Id of the candidate at a position of a sorted ordering
+	 */
+	int candidateId(int position) {
+		return candidateId[(int) candidateKey[position]];
+	}
+
+	/**
+	 * Exact bound of the candidate at a position of a sorted ordering
+	 */
+	double candidateBound(int position) {
+		return candidateBound[(int) candidateKey[position]];
+	}
+
+	/**
+	 * Removes an ordering and every ordering started after it
+	 *
+	 * @param mark Mark returned by beginOrder
+	 */
+	void endOrder(int mark) {
+		candidates = mark;
+	}
+
+	/**
+	 * Orders the incidents found from closest to furthest by sorting the heap in place
+	 */
+	private void sort() {
+		if (sorted) return;
+		for (int n = size - 1; n > 0; n--) {
+			int row = rows[n];
+			double haversine = haversines[n];
+			rows[n] = rows[0];
+			haversines[n] = haversines[0];
+			siftDown(0, n, row, haversine);
+		}
+		sorted = true;
+	}
+
+	/**
+	 * Number of incidents found, k unless fewer are within range
+	 *
+	 * @return Count of incidents found
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Row index of an incident, the closest first
+	 *
+	 * @param i Position from the closest incident
+	 * @return Row index into the store
+	 */
+	public int getRow(int i) {
+		sort();
+		return rows[i];
+	}
+
+	/**
+	 * Distance to an incident, the closest first
+	 *
+	 * @param i Position from the closest incident
+	 * @return Distance in kilometers from users desired location to the incident
+	 */
+	public double getDistance(int i) {
+		sort();
+		return DistanceKernel.toKilometers(haversines[i]);
+	}
+
+	/**
+	 * Copies the incidents found into a result, the closest first
+	 *
+	 * @param result Result the incidents are added to
+	 */
+	public void copyTo(QueryResult result) {
+		for (int i = 0; i < size; i++) {
+			result.add(getRow(i), getDistance(i));
+		}
+	}
+}
@@ -0,0 +1,293 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reads the incidents file on every core. The file is memory mapped and split into chunks that
+ * start on a record boundary, each chunk is parsed on a fork-join worker into its own column
+ * store and the stores of every chunk are merged in file order.
+ *
+ * A raw split offset can land inside a quoted field that spans several lines, so the chunks
+ * are aligned in three steps: the quotes in every raw chunk are counted in parallel, a prefix
+ * sum over those counts gives whether each raw offset is inside quotes, and each chunk then
+ * moves its start forward to the first line break that is outside of quotes. Every record
+ * keeps its offset in the whole file, so the merged store reads its text back from the file.
+ *
+ * @version 1.1
+ */
+public class ParallelIngest {
+
+	// a mapped buffer can not be larger than 2GB, chunks are kept well under that
+	private static final long MAX_CHUNK_SIZE = 1L << 28;
+	// files smaller than this are not worth splitting
+	private static final long MIN_CHUNK_SIZE = 1L << 20;
+
+	private final FileChannel channel;
+	private final long fileSize;
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates an ingest over an open file channel
+	 *
+	 * @param channel Channel of the incidents file
+	 * @param pool Fork-join pool the chunks are parsed on
+	 * @throws IOException If the size of the file can not be read
+	 */
+	private ParallelIngest(FileChannel channel, ForkJoinPool pool) throws IOException {
+		this.channel = channel;
+		this.fileSize = channel.size();
+		this.pool = pool;
+	}
+
+	/**
+	 * Reads the incidents file on all available cores
+	 *
+	 * @param file File name to be read from
+	 * @return IncidentStore holding the incidents read from the file
+	 * @throws IOException If file can not be read
+	 */
+	public static IncidentStore load(String file) throws IOException {
+		return load(file, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Reads the incidents file with the given number of worker threads
+	 *
+	 * @param file File name to be read from
+	 * @param parallelism Number of worker threads to parse chunks on
+	 * @return IncidentStore holding the incidents read from the file
+	 * @throws IOException If file can not be read
+	 */
+	public static IncidentStore load(String file, int parallelism) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			ParallelIngest ingest = new ParallelIngest(channel, pool);
+			IncidentStore incidents = ingest.merge(ingest.parse(ingest.split(parallelism)));
+			incidents.setSource(new IncidentSource(new File(file)));
+			return incidents;
+		} catch (RuntimeException e) {
+			// join may rethrow a copy of the worker's exception that wraps the original
+			for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+				if (cause instanceof IOException) throw (IOException) cause;
+			}
+			throw e;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Splits the file into chunks that each start at the beginning of a record
+	 *
+	 * @param parallelism Number of worker threads the chunks are shared between
+	 * @return Start offsets of every chunk followed by the file size
+	 * @throws IOException If file can not be read
+	 */
+	private long[] split(int parallelism) throws IOException {
+		int chunks = (int) Math.max(parallelism * 4L, (fileSize + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+		chunks = (int) Math.max(1, Math.min(chunks, fileSize / MIN_CHUNK_SIZE));
+
+		long[] raw = new long[chunks + 1];
+		for (int i = 0; i <= chunks; i++) {
+			raw[i] = fileSize * i / chunks;
+		}
+
+		// count the quotes of every raw chunk in parallel
+		List<RecursiveTask<Long>> counts = new ArrayList<>();
+		for (int i = 0; i < chunks; i++) {
+			final long from = raw[i], to = raw[i + 1];
+			counts.add(task(() -> countQuotes(map(from, to))));
+		}
+		runAll(counts);
+
+		// a raw offset is inside quotes when an odd number of quotes come before it
+		boolean[] quoted = new boolean[chunks];
+		long total = 0;
+		for (int i = 0; i < chunks; i++) {
+			quoted[i] = (total & 1) == 1;
+			total += counts.get(i).join();
+		}
+
+		// move every start forward to the first line break outside of quotes
+		List<RecursiveTask<Long>> starts = new ArrayList<>();
+		for (int i = 0; i < chunks; i++) {
+			final long from = raw[i], to = raw[i + 1];
+			final boolean inQuotes = quoted[i];
+			starts.add(task(() -> from == 0 ? 0 : recordStart(map(from, to), from, inQuotes)));
+		}
+		runAll(starts);
+
+		long[] aligned = new long[chunks + 1];
+		aligned[chunks] = fileSize;
+		for (int i = chunks - 1; i >= 0; i--) {
+			long start = starts.get(i).join();
+			// a record longer than a whole chunk leaves that chunk empty
+			aligned[i] = start < 0 ? aligned[i + 1] : start;
+		}
+		return aligned;
+	}
+
+	/**
+	 * Parses every chunk on the fork-join pool
+	 *
+	 * @param bounds Start offsets of every chunk followed by the file size
+	 * @return Incidents of every chunk, in chunk order
+	 */
+	private List<RecursiveTask<IncidentStore>> parse(long[] bounds) {
+		List<RecursiveTask<IncidentStore>> tasks = new ArrayList<>();
+		for (int i = 0; i + 1 < bounds.length; i++) {
+			final long from = bounds[i], to = bounds[i + 1];
+			tasks.add(task(() -> parseChunk(map(from, to), from)));
+		}
+		runAll(tasks);
+		return tasks;
+	}
+
+	/**
+	 * Merges the incidents of every chunk into one store
+	 *
+	 * @param chunks Parsed chunks in file order
+	 * @return IncidentStore holding the incidents of every chunk
+	 */
+	private IncidentStore merge(List<RecursiveTask<IncidentStore>> chunks) {
+		int size = 0;
+		for (RecursiveTask<IncidentStore> chunk : chunks) {
+			size += chunk.join().size();
+		}
+		IncidentStore incidents = new IncidentStore(size);
+		for (RecursiveTask<IncidentStore> chunk : chunks) {
+			incidents.addAll(chunk.join());
+		}
+		return incidents;
+	}
+
+	/**
+	 * Parses the records of one chunk
+	 *
+	 * @param chunk Mapped bytes of the chunk
+	 * @param offset File offset of the chunk, the chunk at 0 starts with the header line of the file
+	 * @return IncidentStore holding the incidents of the chunk
+	 * @throws IOException If file can not be read
+	 */
+	private static IncidentStore parseChunk(ByteBuffer chunk, long offset) throws IOException {
+		IncidentStore incidents = new IncidentStore();
+		CsvReader data = new CsvReader(new ByteBufferInputStream(chunk), offset);
+		if (offset == 0) data.next();
+		ReadAllocation.buildIncidents(data, incidents);
+		return incidents;
+	}
+
+	/**
+	 * Counts the quote characters in a chunk
+	 *
+	 * @param chunk Mapped bytes of the chunk
+	 * @return Number of quote characters
+	 */
+	private static long countQuotes(ByteBuffer chunk) {
+		long count = 0;
+		for (int i = chunk.position(), end = chunk.limit(); i < end; i++) {
+			if (chunk.get(i) == '"') count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Finds the first record that starts inside a chunk
+	 *
+	 * @param chunk Mapped bytes of the chunk
+	 * @param offset File offset of the first byte of the chunk
+	 * @param inQuotes True if the chunk starts inside a quoted field
+	 * @return File offset of the first record start, -1 if no record starts in the chunk
+	 */
+	private static long recordStart(ByteBuffer chunk, long offset, boolean inQuotes) {
+		for (int i = chunk.position(), end = chunk.limit(); i < end; i++) {
+			byte b = chunk.get(i);
+			if (b == '"') inQuotes = !inQuotes;
+			else if (b == '\n' && !inQuotes) return offset + i + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Starts every task on the fork-join pool, results are collected with join
+	 *
+	 * @param tasks Tasks to start
+	 */
+	private void runAll(List<? extends ForkJoinTask<?>> tasks) {
+		for (ForkJoinTask<?> task : tasks) {
+			pool.execute(task);
+		}
+	}
+
+	/**
+	 * Maps a region of the file into memory
+	 *
+	 * @param from Offset of the first byte
+	 * @param to Offset after the last byte
+	 * @return Read only buffer over the region
+	 * @throws IOException If file can not be mapped
+	 */
+	private MappedByteBuffer map(long from, long to) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+	}
+
+	/**
+	 * A unit of work run on the fork-join pool
+	 */
+	private interface Work<T> {
+		T run() throws IOException;
+	}
+
+	/**
+	 * Wraps work that reads the file into a fork-join task
+	 *
+	 * @param work Work to run
+	 * @return Task that runs the work
+	 */
+	private static <T> RecursiveTask<T> task(Work<T> work) {
+		return new RecursiveTask<T>() {
+			@Override
+			protected T compute() {
+				try {
+					return work.run();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Presents a mapped buffer as a stream so it can be read by CsvReader
+	 */
+	static class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) {
+			if (!buffer.hasRemaining()) return -1;
+			length = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, length);
+			return length;
+		}
+	}
+}
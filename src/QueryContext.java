@@ -0,0 +1,157 @@
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Everything one query asks for: the users desired location, the range around it, which
+ * US State to look in and which days. A context never changes once created so it can be shared
+ * freely between threads.
+ *
+ * @version 1.1
+ */
+public final class QueryContext {
+
+	private final double latitude;
+	private final double longitude;
+	private final double range;
+	private final String state;
+	private final int fromDay;
+	private final int toDay;
+
+	/**
+	 * Creates a query over every US State
+	 *
+	 * @param latitude Latitude coordinate of users desired location
+	 * @param longitude Longitude coordinate of users desired location
+	 * @param range Distance from users desired location in kilometers
+	 */
+	public QueryContext(double latitude, double longitude, double range) {
+		this(latitude, longitude, range, null);
+	}
+
+	/**
+	 * Creates a query over one US State
+	 *
+	 * @param latitude Latitude coordinate of users desired location
+	 * @param longitude Longitude coordinate of users desired location
+	 * @param range Distance from users desired location in kilometers
+	 * @param state Name of the US State to look in, null or empty to look in every State
+	 */
+	public QueryContext(double latitude, double longitude, double range, String state) {
+		this(latitude, longitude, range, state, Integer.MIN_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a query over one US State limited to the incidents between two dates
+	 *
+	 * @param latitude Latitude coordinate of users desired location
+	 * @param longitude Longitude coordinate of users desired location
+	 * @param range Distance from users desired location in kilometers
+	 * @param state Name of the US State to look in, null or empty to look in every State
+	 * @param fromDay First day to look in as days since 1970-01-01, Integer.MIN_VALUE for no limit
+	 * @param toDay Last day to look in as days since 1970-01-01, Integer.MAX_VALUE for no limit
+	 */
+	public QueryContext(double latitude, double longitude, double range, String state, int fromDay, int toDay) {
+		if (Double.isNaN(range) || range < 0) {
+			throw new IllegalArgumentException("Range must be a positive distance: " + range);
+		}
+		if (fromDay > toDay) {
+			throw new IllegalArgumentException("First date " + LocalDate.ofEpochDay(fromDay) + " is after last date "
+					+ LocalDate.ofEpochDay(toDay));
+		}
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.range = range;
+		this.state = (state == null || state.isEmpty()) ? null : state;
+		this.fromDay = fromDay;
+		this.toDay = toDay;
+	}
+
+	/**
+	 * Latitude coordinate of users desired location
+	 *
+	 * @return Latitude of the center of the query
+	 */
+	public double getLatitude() {
+		return latitude;
+	}
+
+	/**
+	 * Longitude coordinate of users desired location
+	 *
+	 * @return Longitude of the center of the query
+	 */
+	public double getLongitude() {
+		return longitude;
+	}
+
+	/**
+	 * Distance from users desired location to look for incidents in
+	 *
+	 * @return Range in kilometers
+	 */
+	public double getRange() {
+		return range;
+	}
+
+	/**
+	 * US State the query is limited to
+	 *
+	 * @return Name of the State, null if every State is searched
+	 */
+	public String getState() {
+		return state;
+	}
+
+	/**
+	 * First day the query looks in
+	 *
+	 * @return Days since 1970-01-01, Integer.MIN_VALUE if there is no limit
+	 */
+	public int getFromDay() {
+		return fromDay;
+	}
+
+	/**
+	 * Last day the query looks in
+	 *
+	 * @return Days since 1970-01-01, Integer.MAX_VALUE if there is no limit
+	 */
+	public int getToDay() {
+		return toDay;
+	}
+
+	/**
+	 * Checks whether the query is limited to some dates
+	 *
+	 * @return True if a first or last day is set
+	 */
+	public boolean hasDateRange() {
+		return fromDay != Integer.MIN_VALUE || toDay != Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Reads a date written as yyyy-mm-dd
+	 *
+	 * @param date Text of the date
+	 * @return Days since 1970-01-01 of the date
+	 * @throws IllegalArgumentException If the text is not a date
+	 */
+	public static int parseDay(String date) {
+		try {
+			return (int) LocalDate.parse(date.trim()).toEpochDay();
+		} catch (DateTimeParseException e) {
+			throw new IllegalArgumentException("Not a date, expected yyyy-mm-dd: " + date);
+		}
+	}
+
+	/**
+	 * String format of the query
+	 *
+	 */
+	public String toString() {
+		String dates = (fromDay == Integer.MIN_VALUE ? "any" : LocalDate.ofEpochDay(fromDay).toString()) + " to "
+				+ (toDay == Integer.MAX_VALUE ? "any" : LocalDate.ofEpochDay(toDay).toString());
+		return String.format("lat : %.5f, lng : %.5f, range : %.2f km, state : %s, dates : %s", latitude, longitude,
+				range, state == null ? "any" : state, dates);
+	}
+}
@@ -0,0 +1,210 @@
+/**
+ * Answers queries against one loaded set of incidents. The store and every index are built
+ * once in the constructor and only read afterwards, and each query works in its own result, so
+ * any number of threads can query the same engine at the same time.
+ *
+ * Queries that only want totals are answered from summed area tables over the incidents of
+ * each State and of the whole country, without finding the incidents themselves, and the
+ * incidents nearest a location are found best first in the per State trees. Corridor queries
+ * along a route search the same trees. The time of every query is recorded in the lookup
+ * histogram of Metrics.
+ *
+ * @version 1.6
+ */
+public class QueryEngine {
+
+	private final IncidentStore incidents;
+	private final RedBlackTree<String, States> StateTree;
+	private final GeohashIndex nationalIndex;
+	private final SummedAreaTable nationalTotals;
+	private final States[] states;
+
+	/**
+	 * Builds the per State and nationwide indexes over a store. When the store carries the
+	 * layout of the indexes, as one loaded from a snapshot does, the rows are taken in the saved
+	 * order instead of being sorted and partitioned again.
+	 *
+	 * @param incidents IncidentStore holding every incident, it must not be changed afterwards
+	 */
+	public QueryEngine(IncidentStore incidents) {
+		this.incidents = incidents;
+		IndexLayout layout = incidents.getLayout();
+		this.StateTree = ReadAllocation.buildBST(incidents, layout);
+		long start = System.nanoTime();
+		this.nationalIndex = new GeohashIndex(incidents, layout == null ? null : layout.geohashRows(incidents));
+		this.nationalTotals = new SummedAreaTable(incidents, 0, incidents.size());
+		Metrics.get().phase("indexes", start);
+		this.states = new States[StateTree.size()];
+		int i = 0;
+		for (String name : StateTree.keys()) {
+			states[i++] = StateTree.get(name);
+		}
+	}
+
+	/**
+	 * Layout of the indexes of this engine, to be saved with the store
+	 *
+	 * @return Order of the rows in the spatial indexes, sharing their arrays
+	 */
+	IndexLayout layout() {
+		return new IndexLayout(incidents, nationalIndex, states);
+	}
+
+	/**
+	 * Finds the incidents within range of the location of a query
+	 *
+	 * @param query Location, range and State to search
+	 * @return A new result holding the incidents in range ordered by distance, empty if the
+	 * query names a State without incidents
+	 */
+	public QueryResult radius(QueryContext query) {
+		long start = System.nanoTime();
+		QueryResult result = new QueryResult(incidents);
+		if (query.getState() == null) {
+			nationalIndex.radius(query.getLatitude(), query.getLongitude(), query.getRange(), -1, query.getFromDay(),
+					query.getToDay(), result);
+		} else {
+			States state = StateTree.get(query.getState());
+			if (state != null) {
+				state.radius(query.getLatitude(), query.getLongitude(), query.getRange(), query.getFromDay(),
+						query.getToDay(), result);
+			}
+		}
+		Metrics.get().lookup().recordSince(start);
+		return result;
+	}
+
+	/**
+	 * Finds the incidents nearest the location of a query
+	 *
+	 * @param query Location, State and dates to search, the range caps how far an incident may be
+	 * @param k Number of incidents to find
+	 * @return A new result holding the k nearest incidents, or fewer if fewer are in range,
+	 * ordered by distance
+	 */
+	public QueryResult nearest(QueryContext query, int k) {
+		NearestBuffer buffer = new NearestBuffer();
+		nearest(query, k, buffer);
+		QueryResult result = new QueryResult(incidents);
+		buffer.copyTo(result);
+		return result;
+	}
+
+	/**
+	 * Finds the incidents nearest the location of a query into a buffer that can be reused for
+	 * the next query. Without a State every State is searched, the closest first so the
+	 * furthest incident kept shrinks quickly and most States are skipped at their root.
+	 *
+	 * @param query Location, State and dates to search, the range caps how far an incident may be
+	 * @param k Number of incidents to find
+	 * @param buffer Buffer receiving the nearest incidents, closest first
+	 */
+	public void nearest(QueryContext query, int k, NearestBuffer buffer) {
+		long start = System.nanoTime();
+		buffer.reset(query.getLatitude(), query.getLongitude(), k, query.getRange());
+		if (query.getState() != null) {
+			States state = StateTree.get(query.getState());
+			if (state != null) state.nearest(buffer, query.getFromDay(), query.getToDay());
+			Metrics.get().lookup().recordSince(start);
+			return;
+		}
+		int mark = buffer.beginOrder();
+		for (int i = 0; i < states.length; i++) {
+			buffer.addCandidate(i, states[i].bound(buffer));
+		}
+		int end = buffer.sortCandidates(mark);
+		for (int c = mark; c < end; c++) {
+			if (buffer.candidateBound(c) > buffer.worst()) continue;
+			states[buffer.candidateId(c)].nearest(buffer, query.getFromDay(), query.getToDay());
+		}
+		buffer.endOrder(mark);
+		Metrics.get().lookup().recordSince(start);
+	}
+
+	/**
+	 * Finds the incidents in a corridor around a route. Every State tree is searched once for the
+	 * whole route, trees away from the route are skipped at their root, so an incident near
+	 * several segments is found once and the work follows the area of the corridor.
+	 *
+	 * @param corridor Route and width to search
+	 * @param state Name of the US State to look in, null to look in every State
+	 * @param fromDay First day to look in as days since 1970-01-01, Integer.MIN_VALUE for no limit
+	 * @param toDay Last day to look in as days since 1970-01-01, Integer.MAX_VALUE for no limit
+	 * @return A new result holding the incidents in the corridor ordered by their position along
+	 * the route, empty if the State has no incidents
+	 */
+	public CorridorResult corridor(Corridor corridor, String state, int fromDay, int toDay) {
+		long start = System.nanoTime();
+		CorridorResult result = new CorridorResult(incidents);
+		if (state != null && !state.isEmpty()) {
+			States only = StateTree.get(state);
+			if (only != null) only.corridor(corridor, fromDay, toDay, result);
+		} else {
+			for (States each : states) {
+				each.corridor(corridor, fromDay, toDay, result);
+			}
+		}
+		result.sortByPosition();
+		Metrics.get().lookup().recordSince(start);
+		return result;
+	}
+
+	/**
+	 * Counts the incidents within range of the location of a query and the people killed and
+	 * injured in them. The tables hold no dates, so a query limited to dates finds its incidents
+	 * and adds them up instead.
+	 *
+	 * @param query Location, range, State and dates to search
+	 * @return Totals over the incidents radius would find
+	 */
+	public SummedAreaTable.Totals totals(QueryContext query) {
+		if (query.hasDateRange()) {
+			// the lookup is recorded by radius
+			QueryResult result = radius(query);
+			SummedAreaTable.Totals totals = new SummedAreaTable.Totals();
+			for (int i = 0; i < result.size(); i++) {
+				totals.add(incidents, result.getRow(i));
+			}
+			return totals;
+		}
+		long start = System.nanoTime();
+		SummedAreaTable.Totals totals;
+		if (query.getState() == null) {
+			totals = nationalTotals.radius(query.getLatitude(), query.getLongitude(), query.getRange());
+		} else {
+			States state = StateTree.get(query.getState());
+			totals = state == null ? new SummedAreaTable.Totals()
+					: state.totals(query.getLatitude(), query.getLongitude(), query.getRange());
+		}
+		Metrics.get().lookup().recordSince(start);
+		return totals;
+	}
+
+	/**
+	 * Checks whether any incident took place in a US State
+	 *
+	 * @param state Name of the US State
+	 * @return True if the State has incidents
+	 */
+	public boolean hasState(String state) {
+		return StateTree.contains(state);
+	}
+
+	/**
+	 * RedBlackTree of the US States and their incidents
+	 *
+	 * @return RedBlackTree with State names as keys
+	 */
+	public RedBlackTree<String, States> getStateTree() {
+		return StateTree;
+	}
+
+	/**
+	 * Store holding every incident
+	 *
+	 * @return IncidentStore the results refer to
+	 */
+	public IncidentStore getIncidents() {
+		return incidents;
+	}
+}
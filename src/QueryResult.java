@@ -0,0 +1,139 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The incidents found by one query, kept as row indices into the incident store together with
+ * their distance to the users desired location. Each query fills its own result so the shared
+ * store is never changed.
+ *
+ * @version 1.0
+ */
+public class QueryResult {
+
+	private final IncidentStore store;
+	private int size = 0;
+	private int[] rows;
+	private double[] distances;
+
+	/**
+	 * Creates an empty result for incidents of a store
+	 *
+	 * @param store Store the row indices refer to
+	 */
+	public QueryResult(IncidentStore store) {
+		this.store = store;
+		this.rows = new int[16];
+		this.distances = new double[16];
+	}
+
+	/**
+	 * Adds an incident to the result
+	 *
+	 * @param row Row index of the incident
+	 * @param distance Distance in kilometers from users desired location to the incident
+	 */
+	public void add(int row, double distance) {
+		if (size == rows.length) {
+			rows = Arrays.copyOf(rows, size * 2);
+			distances = Arrays.copyOf(distances, size * 2);
+		}
+		rows[size] = row;
+		distances[size] = distance;
+		size++;
+	}
+
+	/**
+	 * Removes every incident so the result can be filled again
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Orders the incidents from closest to furthest. Each distance and its position are packed
+	 * into one long so the sort runs over primitives, a non negative float orders the same as
+	 * its bits read as an int.
+	 */
+	public void sortByDistance() {
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = ((long) Float.floatToIntBits((float) distances[i]) << 32) | i;
+		}
+		Arrays.sort(keys);
+		int[] sortedRows = new int[rows.length];
+		double[] sortedDistances = new double[distances.length];
+		for (int i = 0; i < size; i++) {
+			int from = (int) keys[i];
+			sortedRows[i] = rows[from];
+			sortedDistances[i] = distances[from];
+		}
+		// distances that round to the same float may be out of order, an insertion pass fixes them
+		for (int i = 1; i < size; i++) {
+			double distance = sortedDistances[i];
+			int row = sortedRows[i];
+			int j = i - 1;
+			while (j >= 0 && sortedDistances[j] > distance) {
+				sortedDistances[j + 1] = sortedDistances[j];
+				sortedRows[j + 1] = sortedRows[j];
+				j--;
+			}
+			sortedDistances[j + 1] = distance;
+			sortedRows[j + 1] = row;
+		}
+		rows = sortedRows;
+		distances = sortedDistances;
+	}
+
+	/**
+	 * Number of incidents in the result
+	 *
+	 * @return Count of incidents found
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Row index of an incident in the result
+	 *
+	 * @param i Position in the result
+	 * @return Row index into the store
+	 */
+	public int getRow(int i) {
+		return rows[i];
+	}
+
+	/**
+	 * Distance to an incident in the result
+	 *
+	 * @param i Position in the result
+	 * @return Distance in kilometers from users desired location to the incident
+	 */
+	public double getDistance(int i) {
+		return distances[i];
+	}
+
+	/**
+	 * Store the row indices refer to
+	 *
+	 * @return IncidentStore holding the incidents
+	 */
+	public IncidentStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Builds an Incidents ADT for every incident in the result so they can be shown to the user
+	 *
+	 * @return ArrayList of Incidents in result order with their distance set
+	 */
+	public ArrayList<Incidents> getIncidents() {
+		ArrayList<Incidents> incidents = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			Incidents incident = store.get(rows[i]);
+			incident.setDisToIncident(distances[i]);
+			incidents.add(incident);
+		}
+		return incidents;
+	}
+}
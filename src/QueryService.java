@@ -0,0 +1,419 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import geocoding.Geocoding;
+import geocoding.GeocodingException;
+
+/**
+ * Serves queries over HTTP with JSON answers, using the web server built into the JDK. The
+ * incidents are loaded once and every request is answered by the same QueryEngine.
+ *
+ * <pre>
+ * GET /radius?lat=..&amp;lng=..&amp;range=..[&amp;state=..][&amp;limit=..]   incidents in range and totals
+ * GET /radius?address=..&amp;range=..                             the same for an address
+ * GET /radius?...&amp;from=yyyy-mm-dd&amp;to=yyyy-mm-dd                 only incidents between two dates
+ * GET /summary?...                                             totals only, same parameters, read from
+ *                                                              the summed area tables
+ * GET /nearest?lat=..&amp;lng=..&amp;k=..[&amp;range=..][&amp;state=..]       the k incidents closest to a location,
+ *                                                              also by address and between dates
+ * GET /corridor?route=lat,lng;lat,lng;..&amp;range=..               incidents within range of a route, ordered
+ * GET /corridor?addresses=..;..&amp;range=..                        along it, also limited to a State and dates
+ * GET /health                                                  incidents loaded
+ * GET /metrics                                                 phases, latency histograms and counters
+ * </pre>
+ *
+ * Each request runs on its own virtual thread when the JVM has them, and on a pooled thread
+ * otherwise. At most a fixed number of requests are answered at once, a request that cannot
+ * get a permit within a short wait is turned away with 503 so an overloaded server sheds load
+ * instead of queueing without bound.
+ *
+ * @version 1.5
+ */
+public class QueryService {
+
+	// incidents listed by /radius when the request gives no limit
+	private static final int DEFAULT_LIMIT = 100;
+	// incidents listed by /nearest when the request gives no k
+	private static final int DEFAULT_NEAREST = 10;
+	// how long a request waits for a permit before it is turned away
+	private static final long PERMIT_WAIT_MILLIS = 100;
+
+	private final QueryEngine engine;
+	private final Geocoding geocode;
+	private final Semaphore permits;
+	private final Gson gson = new Gson();
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**
+	 * Creates a service over one engine
+	 *
+	 * @param engine Engine holding the loaded incidents
+	 * @param geocode Geocoding used for requests that give an address, it must be thread safe
+	 * @param maxConcurrent Number of requests answered at the same time
+	 */
+	public QueryService(QueryEngine engine, Geocoding geocode, int maxConcurrent) {
+		this.engine = engine;
+		this.geocode = geocode;
+		this.permits = new Semaphore(maxConcurrent);
+	}
+
+	/**
+	 * Starts listening for requests
+	 *
+	 * @param port Port to listen on, 0 for any free port
+	 * @return Port the server listens on
+	 * @throws IOException If the port cannot be opened
+	 */
+	public synchronized int start(int port) throws IOException {
+		// headers and body are written separately, with Nagle on each answer waits for a delayed ack
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		executor = newExecutor();
+		server.setExecutor(executor);
+		server.createContext("/radius", limited(exchange -> query(exchange, true)));
+		server.createContext("/summary", limited(exchange -> query(exchange, false)));
+		server.createContext("/nearest", limited(this::nearest));
+		server.createContext("/corridor", limited(this::corridor));
+		server.createContext("/health", limited(exchange -> {
+			JsonObject health = new JsonObject();
+			health.addProperty("status", "ok");
+			health.addProperty("incidents", engine.getIncidents().size());
+			send(exchange, 200, health);
+		}));
+		server.createContext("/metrics", limited(exchange -> send(exchange, 200, Metrics.get().toJson())));
+		server.start();
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops the server, requests being answered get a moment to finish
+	 */
+	public synchronized void stop() {
+		if (server == null) return;
+		server.stop(1);
+		executor.shutdown();
+		server = null;
+	}
+
+	/**
+	 * A thread per task executor on virtual threads when the JVM has them. They are looked up by
+	 * reflection so the service still runs on older JVMs, where a cached pool is used instead.
+	 */
+	private static ExecutorService newExecutor() {
+		try {
+			Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) virtual.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * Wraps a handler so it only runs while it holds a permit
+	 */
+	private HttpHandler limited(HttpHandler handler) {
+		return exchange -> {
+			try {
+				boolean acquired;
+				try {
+					acquired = permits.tryAcquire(PERMIT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					acquired = false;
+				}
+				if (!acquired) {
+					sendError(exchange, 503, "Too many concurrent requests");
+					return;
+				}
+				try {
+					if (!"GET".equals(exchange.getRequestMethod())) {
+						sendError(exchange, 405, "Only GET is supported");
+					} else {
+						handler.handle(exchange);
+					}
+				} finally {
+					permits.release();
+				}
+			} finally {
+				exchange.close();
+			}
+		};
+	}
+
+	/**
+	 * Answers a /radius or /summary request
+	 *
+	 * @param exchange Request and response
+	 * @param list True to list the incidents found as well as the totals
+	 */
+	private void query(HttpExchange exchange, boolean list) throws IOException {
+		Map<String, String> params = parameters(exchange.getRequestURI().getRawQuery());
+		QueryContext context = context(exchange, params, null);
+		if (context == null) return;
+		int limit;
+		try {
+			limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : DEFAULT_LIMIT;
+		} catch (NumberFormatException e) {
+			sendError(exchange, 400, e.getMessage());
+			return;
+		}
+
+		// /summary only needs the totals, they come from the summed area tables
+		SummedAreaTable.Totals totals;
+		JsonArray found = new JsonArray();
+		if (!list) {
+			totals = engine.totals(context);
+		} else {
+			totals = new SummedAreaTable.Totals();
+			QueryResult result = engine.radius(context);
+			IncidentStore incidents = engine.getIncidents();
+			for (int i = 0; i < result.size(); i++) {
+				int row = result.getRow(i);
+				totals.add(incidents, row);
+				if (i < limit) found.add(incident(incidents, row, result.getDistance(i)));
+			}
+		}
+		JsonObject answer = describe(context);
+		answer.addProperty("incidents", totals.getIncidents());
+		answer.addProperty("killed", totals.getKilled());
+		answer.addProperty("injured", totals.getInjured());
+		answer.addProperty("dangerLevel", ReadAllocation.dangerLevel(totals.getIncidents()));
+		if (list) {
+			answer.add("results", found);
+		}
+		send(exchange, 200, answer);
+	}
+
+	/**
+	 * Answers a /nearest request, the range is optional and the k closest incidents are listed
+	 *
+	 * @param exchange Request and response
+	 */
+	private void nearest(HttpExchange exchange) throws IOException {
+		Map<String, String> params = parameters(exchange.getRequestURI().getRawQuery());
+		QueryContext context = context(exchange, params, "Infinity");
+		if (context == null) return;
+		QueryResult result;
+		try {
+			int k = params.containsKey("k") ? Integer.parseInt(params.get("k")) : DEFAULT_NEAREST;
+			result = engine.nearest(context, k);
+		} catch (IllegalArgumentException e) {
+			sendError(exchange, 400, e.getMessage());
+			return;
+		}
+		IncidentStore incidents = engine.getIncidents();
+		JsonArray found = new JsonArray();
+		for (int i = 0; i < result.size(); i++) {
+			found.add(incident(incidents, result.getRow(i), result.getDistance(i)));
+		}
+		JsonObject answer = describe(context);
+		answer.add("results", found);
+		send(exchange, 200, answer);
+	}
+
+	/**
+	 * Answers a /corridor request, the route is given as coordinates or as addresses separated
+	 * by semicolons
+	 *
+	 * @param exchange Request and response
+	 */
+	private void corridor(HttpExchange exchange) throws IOException {
+		Map<String, String> params = parameters(exchange.getRequestURI().getRawQuery());
+		Corridor corridor;
+		int fromDay, toDay, limit;
+		try {
+			String[] points = params.containsKey("addresses") ? params.get("addresses").split(";")
+					: required(params, "route").split(";");
+			double[] latitudes = new double[points.length], longitudes = new double[points.length];
+			for (int i = 0; i < points.length; i++) {
+				if (params.containsKey("addresses")) {
+					JsonObject location = geocode.getLatLng(points[i].trim());
+					latitudes[i] = location.get("lat").getAsDouble();
+					longitudes[i] = location.get("lng").getAsDouble();
+				} else {
+					String[] point = points[i].split(",");
+					if (point.length != 2) throw new IllegalArgumentException("Route point is not lat,lng: " + points[i]);
+					latitudes[i] = Double.parseDouble(point[0].trim());
+					longitudes[i] = Double.parseDouble(point[1].trim());
+				}
+			}
+			corridor = new Corridor(latitudes, longitudes, Double.parseDouble(required(params, "range")));
+			fromDay = params.containsKey("from") ? QueryContext.parseDay(params.get("from")) : Integer.MIN_VALUE;
+			toDay = params.containsKey("to") ? QueryContext.parseDay(params.get("to")) : Integer.MAX_VALUE;
+			if (fromDay > toDay) throw new IllegalArgumentException("First date is after last date");
+			limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : DEFAULT_LIMIT;
+		} catch (GeocodingException e) {
+			sendError(exchange, 404, "Address not found");
+			return;
+		} catch (IllegalArgumentException e) {
+			sendError(exchange, 400, e.getMessage());
+			return;
+		}
+		String state = params.get("state");
+		if (state != null && !state.isEmpty() && !engine.hasState(state)) {
+			sendError(exchange, 404, "No incidents in State " + state);
+			return;
+		}
+
+		CorridorResult result = engine.corridor(corridor, state, fromDay, toDay);
+		IncidentStore incidents = engine.getIncidents();
+		SummedAreaTable.Totals totals = new SummedAreaTable.Totals();
+		JsonArray found = new JsonArray();
+		for (int i = 0; i < result.size(); i++) {
+			totals.add(incidents, result.getRow(i));
+			if (i >= limit) continue;
+			JsonObject incident = incident(incidents, result.getRow(i), result.getDistance(i));
+			incident.addProperty("position", result.getPosition(i));
+			found.add(incident);
+		}
+		JsonObject answer = new JsonObject();
+		answer.addProperty("points", corridor.size());
+		answer.addProperty("length", corridor.getLength());
+		answer.addProperty("range", corridor.getWidth());
+		answer.addProperty("state", state);
+		if (fromDay != Integer.MIN_VALUE) answer.addProperty("from", LocalDate.ofEpochDay(fromDay).toString());
+		if (toDay != Integer.MAX_VALUE) answer.addProperty("to", LocalDate.ofEpochDay(toDay).toString());
+		answer.addProperty("incidents", totals.getIncidents());
+		answer.addProperty("killed", totals.getKilled());
+		answer.addProperty("injured", totals.getInjured());
+		answer.add("results", found);
+		send(exchange, 200, answer);
+	}
+
+	/**
+	 * Reads the location, State and dates of a request, answering it with an error when they
+	 * are invalid
+	 *
+	 * @param exchange Request and response
+	 * @param params Parameters of the request
+	 * @param range Range in kilometers when the request need not give one, null if it must
+	 * @return The query, or null if the request was answered with an error
+	 */
+	private QueryContext context(HttpExchange exchange, Map<String, String> params, String range)
+			throws IOException {
+		QueryContext context;
+		try {
+			double latitude, longitude;
+			if (params.containsKey("address")) {
+				JsonObject location = geocode.getLatLng(params.get("address"));
+				latitude = location.get("lat").getAsDouble();
+				longitude = location.get("lng").getAsDouble();
+			} else {
+				latitude = Double.parseDouble(required(params, "lat"));
+				longitude = Double.parseDouble(required(params, "lng"));
+			}
+			int fromDay = params.containsKey("from") ? QueryContext.parseDay(params.get("from")) : Integer.MIN_VALUE;
+			int toDay = params.containsKey("to") ? QueryContext.parseDay(params.get("to")) : Integer.MAX_VALUE;
+			if (params.containsKey("range") || range == null) range = required(params, "range");
+			context = new QueryContext(latitude, longitude, Double.parseDouble(range), params.get("state"), fromDay,
+					toDay);
+		} catch (GeocodingException e) {
+			sendError(exchange, 404, "Address not found");
+			return null;
+		} catch (IllegalArgumentException e) {
+			sendError(exchange, 400, e.getMessage());
+			return null;
+		}
+		if (context.getState() != null && !engine.hasState(context.getState())) {
+			sendError(exchange, 404, "No incidents in State " + context.getState());
+			return null;
+		}
+		return context;
+	}
+
+	/**
+	 * Starts an answer with the location, range, State and dates of its query
+	 */
+	private static JsonObject describe(QueryContext context) {
+		JsonObject answer = new JsonObject();
+		answer.addProperty("latitude", context.getLatitude());
+		answer.addProperty("longitude", context.getLongitude());
+		if (!Double.isInfinite(context.getRange())) {
+			answer.addProperty("range", context.getRange());
+		}
+		answer.addProperty("state", context.getState());
+		if (context.getFromDay() != Integer.MIN_VALUE) {
+			answer.addProperty("from", LocalDate.ofEpochDay(context.getFromDay()).toString());
+		}
+		if (context.getToDay() != Integer.MAX_VALUE) {
+			answer.addProperty("to", LocalDate.ofEpochDay(context.getToDay()).toString());
+		}
+		return answer;
+	}
+
+	private static JsonObject incident(IncidentStore incidents, int row, double distance) {
+		JsonObject incident = new JsonObject();
+		incident.addProperty("id", incidents.getUId(row));
+		incident.addProperty("distance", distance);
+		int date = incidents.getDate(row);
+		incident.addProperty("date", date == IncidentStore.NO_DATE ? null : LocalDate.ofEpochDay(date).toString());
+		incident.addProperty("latitude", incidents.getLatitude(row));
+		incident.addProperty("longitude", incidents.getLongitude(row));
+		incident.addProperty("state", incidents.getState(row));
+		incident.addProperty("city", incidents.getCity(row));
+		incident.addProperty("address", incidents.getAddress(row));
+		incident.addProperty("killed", incidents.getnumKilled(row));
+		incident.addProperty("injured", incidents.getnumInjured(row));
+		return incident;
+	}
+
+	private static String required(Map<String, String> params, String name) {
+		String value = params.get(name);
+		if (value == null) throw new IllegalArgumentException("Missing parameter " + name);
+		return value;
+	}
+
+	/**
+	 * Decodes the parameters of a query string
+	 */
+	private static Map<String, String> parameters(String query) throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<>();
+		if (query == null) return params;
+		for (String pair : query.split("&")) {
+			int equals = pair.indexOf('=');
+			if (equals <= 0) continue;
+			params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+					URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+		}
+		return params;
+	}
+
+	private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+		JsonObject error = new JsonObject();
+		error.addProperty("error", message);
+		send(exchange, status, error);
+	}
+
+	private void send(HttpExchange exchange, int status, JsonObject body) throws IOException {
+		long start = System.nanoTime();
+		byte[] bytes = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+		Metrics.get().report().recordSince(start);
+	}
+}
@@ -1,11 +1,13 @@
 import java.io.BufferedWriter;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import javax.swing.*;
@@ -14,6 +16,10 @@ import java.util.Arrays;
 import com.google.gson.JsonObject;
 import com.google.maps.model.LatLng;
 
+import geocoding.CachingGeocoding;
+import geocoding.DistrictGeocoding;
+import geocoding.GazetteerGeocoding;
+import geocoding.Geocoding;
 import geocoding.GeocodingException;
 import geocoding.GeocodingImpl;
 
@@ -21,48 +27,45 @@ import geocoding.GeocodingImpl;
  * Reads from file and presents gun violence incidents to user based on filter conditions
  * 
  * @author Michael Barreiros, Harsh Patel
- * @version 6.0
+ * @version 8.8
  */
 public class ReadAllocation {
+
+	// addresses kept in memory by the geocoding cache, and how long a cached address stays valid
+	private static final int GEOCODE_CACHE_SIZE = 1024;
+	private static final long GEOCODE_CACHE_TTL = 30L * 24 * 60 * 60 * 1000;
+	// GeoJSON property holding the name of a district, as in the Census county boundary files
+	private static final String DISTRICT_NAME = "NAME";
+	// port the query service listens on by default, and how many requests it answers at once
+	private static final int SERVER_PORT = 8080;
+	private static final int SERVER_CONCURRENCY = 64;
+	// incidents in range from which an area is rated moderate and high danger
+	static final int MODERATE_DANGER = 15;
+	static final int HIGH_DANGER = 30;
+	// national heatmap grid over the lower 48 States, its default cell side and radius counted around a cell
+	private static final double HEATMAP_SOUTH = 24, HEATMAP_NORTH = 50, HEATMAP_WEST = -125, HEATMAP_EAST = -66;
+	private static final double HEATMAP_CELL_KM = 1;
+	private static final double HEATMAP_RADIUS_KM = 5;
+	// a number given on the command line, such as the cell side of --heatmap
+	private static final String NUMBER = "\\d+(\\.\\d*)?";
 	
 	/**
-	 * Reads from file and appends each line representing incident to an ArrayList
+	 * Reads from file and adds every incident in it to a column store. The file is parsed in a
+	 * single pass so no intermediate list of lines is kept in memory, and the text columns are
+	 * read back from the mapped file only for the incidents that are shown.
 	 * 
 	 * @param file File name to be read from
-	 * @return ArrayList of strings representing incidents being read from the file
-	 * @throws IOException If file is not found 
+	 * @return IncidentStore holding the incidents read from the file
+	 * @throws IOException If file can not be read
 	 */
-	public static ArrayList<String> read(String file) throws IOException {
-		ArrayList<String> incidents = new ArrayList<>();
+	public static IncidentStore read(String file) throws IOException {
+		IncidentStore incidents = new IncidentStore();
 		try {
-			Scanner input = new Scanner(new File(file), "UTF-8");
-			String previousString = input.nextLine(); // This reads and skips the first line of the file which is just
-														// naming for the data
-			int counter = 0;
-			while(input.hasNextLine()) {
-				String line = input.nextLine();
-				if(counter == 0) {
-					previousString = line;
-					counter++;
-					continue;
-				}
-				
-				if(line.equals("")) {
-					String newLine = input.nextLine();
-					while(newLine.equals("")) {
-						newLine = input.nextLine();
-					}
-					previousString = previousString + newLine;
-				}
-				
-				if(line.equals("")) continue;
-				incidents.add(previousString);
-				
-				if(!input.hasNext()) incidents.add(line);
-				previousString = line;
-				counter++;
-			}
+			CsvReader input = new CsvReader(new FileInputStream(file));
+			input.next(); // This reads and skips the first line of the file which is just naming for the data
+			buildIncidents(input, incidents);
 			input.close();
+			incidents.setSource(new IncidentSource(new File(file)));
 		} catch (FileNotFoundException e) {
 			System.out.println("File not found");
 		}
@@ -70,60 +73,110 @@ public class ReadAllocation {
 	}
 
 	/**
-	 * Builds an ArrayList of incidents ADT
+	 * Adds the incidents in the remaining records of a CSV reader to a column store
 	 * 
-	 * @param data ArrayList of incidents as strings from file
-	 * @return ArrayList of Incidents ADT
-	 * @throws IOException If file not found
+	 * @param data CSV reader positioned before the first incident record
+	 * @param incidents IncidentStore the incidents are added to
+	 * @throws IOException If file can not be read
 	 */
-	public static ArrayList<Incidents> buildIncidents(ArrayList<String> data) throws IOException {
-		ArrayList<Incidents> incidents = new ArrayList<>();
-		for (int i = 0; i < data.size(); i++) {
-			String incident = data.get(i);
-			String[] columns = data.get(i).split(",(?=(?:[^\"]*\"[^\"]*\")*(?![^\"]*\"))");
-			
-			if (columns[0].equals("") || columns[4].equals("") || columns[2].equals("") || columns[3].equals("")
-					|| columns[8].equals("") || columns[7].equals("") || columns[5].equals("")
-					|| columns[6].equals("")) {
-				continue;
-			}
-	
-			Incidents temp = new Incidents(columns[0], columns[4], columns[2], columns[3],
-					Double.parseDouble(columns[8]), Double.parseDouble(columns[7]), Integer.parseInt(columns[5]),
-					Integer.parseInt(columns[6]));
-			incidents.add(temp);
+	public static void buildIncidents(CsvReader data, IncidentStore incidents) throws IOException {
+		long start = System.nanoTime();
+		long parsed = 0, rejected = 0;
+		while (data.next()) {
+			parsed++;
+			if (!buildIncident(data, incidents)) rejected++;
 		}
-		return incidents;
+		Metrics.get().countRows(parsed, rejected);
+		Metrics.get().phase("buildIncidents", start);
 	}
 
 	/**
-	 * Initializes the RedBLackTree with nodes as States and appropriate ArrayList of
-	 * Incidents in each State ADT
+	 * Adds the incident in the current record of a CSV reader to a column store. The store keeps
+	 * the position of the record instead of its address, unless the record is too long to be
+	 * read back.
 	 * 
-	 * @param incidents ArrayList of incidents ADT
-	 * @return RedBlackTree with nodes as US States with ArrayList of Incidents appropriate
-	 * to that State as value and State name as Key
+	 * @param columns CSV reader positioned on an incident record
+	 * @param incidents IncidentStore the incident is added to
+	 * @return True if the incident was added, false if one of the required columns is empty
+	 * or not a number
 	 */
-	public static RedBlackTree<String, States> buildBST(ArrayList<Incidents> incidents) {
-		RedBlackTree<String, States> StateTree = new RedBlackTree<String, States>();
-		int i = 0;
-		while (i != incidents.size()) {
-			if (StateTree.contains(incidents.get(i).getState())) {
-				States state = StateTree.get(incidents.get(i).getState());
-				state.addIncidents(incidents.get(i));
-				StateTree.put(incidents.get(i).getState(), state);
+	public static boolean buildIncident(CsvReader columns, IncidentStore incidents) {
+		if (columns.isEmpty(0) || columns.isEmpty(4) || columns.isEmpty(2) || columns.isEmpty(3)
+				|| columns.isEmpty(8) || columns.isEmpty(7) || columns.isEmpty(5) || columns.isEmpty(6)) {
+			return false;
+		}
+
+		int date;
+		try {
+			date = columns.getEpochDay(1);
+		} catch (NumberFormatException e) {
+			date = IncidentStore.NO_DATE; // the incident is still kept, it only misses date queries
+		}
+		try {
+			long id = columns.getLong(0);
+			double longitude = columns.getDouble(8), latitude = columns.getDouble(7);
+			int killed = columns.getInt(5), injured = columns.getInt(6);
+			if (IncidentStore.isRecord(columns.getRecordOffset(), columns.getRecordLength())) {
+				incidents.add(id, columns.getRecordOffset(), columns.getRecordLength(), columns.get(2), columns.get(3),
+						longitude, latitude, killed, injured, date);
 			} else {
-				States state = new States(incidents.get(i).getState());
-				state.addIncidents(incidents.get(i));
-				StateTree.put(incidents.get(i).getState(), state);
+				incidents.add(id, columns.get(4), columns.get(2), columns.get(3), longitude, latitude, killed, injured,
+						date);
 			}
-			i++;
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Initializes the RedBLackTree with nodes as States, each State ADT covers the rows of its
+	 * incidents in the store. The rows of the store are grouped by State first, so there is one
+	 * States per State rather than one tree operation per incident, and the tree is built at once
+	 * from the names in sorted order.
+	 * 
+	 * @param incidents IncidentStore holding every incident
+	 * @return RedBlackTree with nodes as US States with the Incidents appropriate
+	 * to that State as value and State name as Key
+	 */
+	public static RedBlackTree<String, States> buildBST(IncidentStore incidents) {
+		return buildBST(incidents, null);
+	}
+
+	/**
+	 * Initializes the RedBLackTree of States, taking the order of the rows in the spatial
+	 * indexes of every State from a saved layout when the layout matches the store
+	 * 
+	 * @param incidents IncidentStore holding every incident
+	 * @param layout Layout saved with the store, null to build every index
+	 * @return RedBlackTree with nodes as US States with the Incidents appropriate
+	 * to that State as value and State name as Key
+	 */
+	static RedBlackTree<String, States> buildBST(IncidentStore incidents, IndexLayout layout) {
+		long start = System.nanoTime();
+		incidents.groupByState();
+		int count = incidents.stateCount();
+		Integer[] codes = new Integer[count];
+		for (int code = 0; code < count; code++) {
+			codes[code] = code;
+		}
+		Arrays.sort(codes, (a, b) -> incidents.stateName(a).compareTo(incidents.stateName(b)));
+		String[] names = new String[count];
+		States[] states = new States[count];
+		for (int i = 0; i < count; i++) {
+			int code = codes[i];
+			names[i] = incidents.stateName(code);
+			states[i] = new States(names[i], incidents, incidents.stateStart(code), incidents.stateEnd(code), layout);
 		}
-		return StateTree;
+		RedBlackTree<String, States> tree = new RedBlackTree<String, States>(names, states);
+		Metrics.get().phase("buildBST", start);
+		return tree;
 	}
 
 	/**
-	 * Sort ArrayList of incidents ADT
+	 * Sort ArrayList of incidents ADT. The distance of every incident is computed once from the
+	 * radians stored with it and the rows are sorted on packed primitive keys, the Incidents ADTs
+	 * are only built afterwards, fresh for this call so several sorts can run at once.
 	 * 
 	 * @param state US state location to get Incidents list from
 	 * @param userLong Longitude coordinate of users desired location
@@ -132,16 +185,18 @@ public class ReadAllocation {
 	 * desired location
 	 */
 	public static ArrayList<Incidents> SortIncidents(States state, double userLong, double userLat) {
-		ArrayList<Incidents> SortIncidents = state.getIncidentsList();
-		for (int i = 0; i < SortIncidents.size(); i++) {
-			Incidents incident = SortIncidents.get(i);
-			incident.setUserLatitude(userLat);
-			incident.setUserLongitude(userLong);
+		long start = System.nanoTime();
+		IncidentStore store = state.getStore();
+		DistanceKernel kernel = new DistanceKernel(userLat, userLong);
+		QueryResult sorted = new QueryResult(store);
+		for (int row = state.getStart(); row < state.getEnd(); row++) {
+			sorted.add(row, kernel.distance(store.getLatitudeRadians(row), store.getLongitudeRadians(row),
+					store.getCosLatitude(row)));
 		}
-		QuickSort sortRange = new QuickSort(SortIncidents);
-		sortRange.sortBasicQuick();
+		sorted.sortByDistance();
+		Metrics.get().distance().recordSince(start);
 
-		return SortIncidents;
+		return sorted.getIncidents();
 	}
 	
 	/**
@@ -162,36 +217,273 @@ public class ReadAllocation {
 		return InRangeIncidents2;
 	}
 
+	/**
+	 * Filters the Incidents of a US State based on Range entered by user from users location in
+	 * two stages. The box around the range rejects most incidents by comparing their latitude and
+	 * longitude, only the incidents inside the box have their distance computed.
+	 * 
+	 * @param state US state location to get Incidents from
+	 * @param userLong Longitude coordinate of users desired location
+	 * @param userLat Latitude coordinate of users desired location
+	 * @param Range Distance from users desired location in kilometers
+	 * @return ArrayList of incidents that fall within the range set by user, sorted by distance
+	 */
+	public static ArrayList<Incidents> filterIncidents(States state, double userLong, double userLat, double Range) {
+		long start = System.nanoTime();
+		IncidentStore store = state.getStore();
+		BoundingBox box = BoundingBox.around(userLat, userLong, Range);
+		DistanceKernel kernel = new DistanceKernel(userLat, userLong);
+		double threshold = DistanceKernel.threshold(Range);
+		QueryResult inRange = new QueryResult(store);
+		for (int row = state.getStart(); row < state.getEnd(); row++) {
+			if (!box.contains(store.getLatitude(row), store.getLongitude(row))) continue;
+			double haversine = kernel.haversine(store.getLatitudeRadians(row), store.getLongitudeRadians(row),
+					store.getCosLatitude(row));
+			if (haversine <= threshold) {
+				inRange.add(row, DistanceKernel.toKilometers(haversine));
+			}
+		}
+		inRange.sortByDistance();
+		Metrics.get().distance().recordSince(start);
+		return inRange.getIncidents();
+	}
+
+	/**
+	 * Rates how dangerous an area is from the number of incidents in range
+	 * 
+	 * @param incidents Number of incidents within the range
+	 * @return Danger level shown to the user
+	 */
+	public static String dangerLevel(int incidents) {
+		if (incidents < MODERATE_DANGER) {
+			return "LOW DANGER";
+		} else if (incidents < HIGH_DANGER) {
+			return "MODERATE DANGER";
+		} else {
+			return "HIGH DANGER. Stay Cautious";
+		}
+	}
+
+	/**
+	 * Runs the queries of a file given after --batch. The summary goes to the file given after
+	 * --out, or next to the queries, and the incidents found go to the file given after --detail.
+	 * 
+	 * @param args String arguments from the user from the console
+	 * @param batch Position of --batch in the arguments
+	 * @param engine Engine holding the loaded incidents
+	 * @param geocode Geocoding used for queries that give an address
+	 * @throws IOException If the queries cannot be read or the results cannot be written
+	 */
+	private static void runBatch(String[] args, int batch, QueryEngine engine, Geocoding geocode) throws IOException {
+		if (batch + 1 >= args.length) {
+			System.out.println("Usage: --batch queries.csv [--out summary.csv] [--detail incidents.csv]");
+			return;
+		}
+		String queries = args[batch + 1];
+		List<String> options = Arrays.asList(args);
+		int out = options.indexOf("--out");
+		int detail = options.indexOf("--detail");
+		String summaryFile = out >= 0 && out + 1 < args.length ? args[out + 1] : queries + ".results.csv";
+		Writer detailOut = null;
+		try (Writer summaryOut = new BufferedWriter(new FileWriter(summaryFile))) {
+			if (detail >= 0 && detail + 1 < args.length) {
+				detailOut = new BufferedWriter(new FileWriter(args[detail + 1]));
+			}
+			new BatchQuery(engine, geocode, Runtime.getRuntime().availableProcessors()).run(queries, summaryOut,
+					detailOut);
+		} finally {
+			if (detailOut != null) detailOut.close();
+		}
+		System.out.println("Summary written to " + summaryFile);
+	}
+
+	/**
+	 * Prints and logs the incidents within range of a route through several addresses, each
+	 * incident once with how far along the route it is
+	 * 
+	 * @param engine Engine holding the loaded incidents
+	 * @param geocode Geocoding used to find the addresses
+	 * @param addresses Addresses of the route in order
+	 * @param range Distance from the route in kilometers
+	 * @param state Name of the US State to look in, empty to look in every State
+	 * @param fromDay First day to look in, Integer.MIN_VALUE for no limit
+	 * @param toDay Last day to look in, Integer.MAX_VALUE for no limit
+	 * @param out Writer of the danger log
+	 * @throws IOException If the log cannot be written
+	 * @throws GeocodingException If an address cannot be found
+	 */
+	private static void route(QueryEngine engine, Geocoding geocode, String[] addresses, double range, String state,
+			int fromDay, int toDay, Writer out) throws IOException, GeocodingException {
+		double[] latitudes = new double[addresses.length], longitudes = new double[addresses.length];
+		for (int i = 0; i < addresses.length; i++) {
+			JsonObject location = geocode.getLatLng(addresses[i].trim());
+			latitudes[i] = location.get("lat").getAsDouble();
+			longitudes[i] = location.get("lng").getAsDouble();
+		}
+		Corridor corridor = new Corridor(latitudes, longitudes, range);
+		CorridorResult found = engine.corridor(corridor, state, fromDay, toDay);
+		System.out.println("");
+		if (found.size() == 0) {
+			System.out.println("No Incidents in this area or in range");
+			return;
+		}
+		long start = System.nanoTime();
+		String heading = String.format("Gun violence incidents along a %.1f km route through %d addresses in range %s km: ",
+				corridor.getLength(), addresses.length, range);
+		out.write(heading + "\n");
+		System.out.println(heading);
+		SummedAreaTable.Totals totals = new SummedAreaTable.Totals();
+		ArrayList<Incidents> list = found.getIncidents();
+		for (int i = 0; i < list.size(); i++) {
+			String line = String.format("%.1f km along the route, %s", found.getPosition(i), list.get(i));
+			System.out.println(line);
+			out.write("\n" + line);
+			totals.add(engine.getIncidents(), found.getRow(i));
+		}
+		String summary = "Total Incidents: " + totals.getIncidents() + "\n" + "Total Killed: " + totals.getKilled()
+				+ "\n" + "Total Injured: " + totals.getInjured();
+		out.write("\n" + "\n" + summary);
+		System.out.println(summary);
+		out.write("\n" + "----------------------------------------------------------------------------------------------------------------------------------------------------------" + "\n" + "\n");
+		System.out.println("");
+		Metrics.get().report().recordSince(start);
+	}
+
 	/**
 	 * Prompts user to enter inputs in the form of address, US State, and range which
 	 * initializes the RedBlackTree and gets the ArrayList of incidents from the entered
 	 * US State, and filters the list based on the range. It prints to the console all the
-	 * incidents within the US State that are within the Range entered. It also shows total
+	 * incidents within the US State that are within the Range entered, or within the Range in
+	 * every State if no US State is entered. It also shows total
 	 * number killed, injured, and number of incidents within the range. Once the program terminates
 	 * the information on the console is written to a text file.
+	 * Incidents are loaded from a snapshot of the file which is rebuilt when the file changes.
+	 * Passing --build-snapshot only rebuilds the snapshot, and --parallel reads the file on every core.
+	 * Addresses are looked up in Data/gazetteer.tsv when it exists, other addresses are sent to
+	 * Google and cached in memory and in Data/geocode.cache so repeated addresses need no request.
+	 * When Data/districts.geojson exists every incident is tagged with its district on load and
+	 * the district of the users location is shown. Passing --batch with a file of queries answers
+	 * them all in parallel instead of asking the user, and --serve [port] answers queries over HTTP.
+	 * Every query can be limited to the incidents between two dates. Entering several addresses
+	 * separated by ; lists the incidents within range of the route through them instead.
+	 * Passing --totals only shows the totals of each query instead of listing its incidents.
+	 * Passing --heatmap [cell km] [radius km] counts the incidents within the radius of every cell
+	 * of a national grid on every core and writes it to Data/heatmap.raster with PNG tiles in
+	 * Data/heatmap, once it exists the danger level it gives the users location is shown with
+	 * every query.
+	 * Where the time goes is recorded in Metrics, published over JMX as ThreatDetect:type=Metrics
+	 * and served at /metrics, and passing --metrics prints it as JSON when a session or batch ends.
 	 * 
 	 * @param args String arguments from the user from the console
 	 * @throws IOException If file being read is not found
 	 * @throws GeocodingException Google Geocoding exception handling
 	 */
 	public static void main(String args[]) throws IOException, GeocodingException {
-		ArrayList<String> strIncidents;
+		String dataFile;
 		String system;
 		Scanner askUser = new Scanner(System.in);
-		System.out.print("Enter OS to configure file path. Type Windows or Mac: ");
-		system = askUser.nextLine();
-		if (system.equals("Mac")) {
-			strIncidents = read("Data/gun-violence-data_01-2013_03-2018.csv");
+		int batch = Arrays.asList(args).indexOf("--batch");
+		int serve = Arrays.asList(args).indexOf("--serve");
+		if (batch >= 0 || serve >= 0) {
+			// batch and server runs are unattended, so the path is not asked for
+			dataFile = "Data" + File.separator + "gun-violence-data_01-2013_03-2018.csv";
 		} else {
-			strIncidents = read("Data\\gun-violence-data_01-2013_03-2018.csv");
+			System.out.print("Enter OS to configure file path. Type Windows or Mac: ");
+			system = askUser.nextLine();
+			if (system.equals("Mac")) {
+				dataFile = "Data/gun-violence-data_01-2013_03-2018.csv";
+			} else {
+				dataFile = "Data\\gun-violence-data_01-2013_03-2018.csv";
+			}
 		}
 		
-		System.out.println("Building graph tree of States. Give 30 seconds... ");
+		boolean parallel = Arrays.asList(args).contains("--parallel");
+		boolean totalsOnly = Arrays.asList(args).contains("--totals");
+		boolean metrics = Arrays.asList(args).contains("--metrics");
+		Metrics.get().register();
+		if (Arrays.asList(args).contains("--build-snapshot")) {
+			IncidentSnapshot.build(dataFile, parallel);
+			if (new File(dataFile).isFile()) {
+				System.out.println("Snapshot written to " + IncidentSnapshot.snapshotFile(dataFile));
+			}
+			askUser.close();
+			return;
+		}
+		
+		System.out.println("Building graph tree of States... ");
 
-		ArrayList<Incidents> Incidents = buildIncidents(strIncidents);
-		RedBlackTree<String, States> StateTree = buildBST(Incidents);
+		long start = System.nanoTime();
+		IncidentStore incidents = IncidentSnapshot.load(dataFile, parallel);
+		Metrics.get().phase("load", start);
+		File heatmapFile = new File("Data", "heatmap.raster");
+		int heatmapArg = Arrays.asList(args).indexOf("--heatmap");
+		if (heatmapArg >= 0) {
+			double cellKm = heatmapArg + 1 < args.length && args[heatmapArg + 1].matches(NUMBER)
+					? Double.parseDouble(args[heatmapArg + 1]) : HEATMAP_CELL_KM;
+			double radiusKm = heatmapArg + 2 < args.length && args[heatmapArg + 2].matches(NUMBER)
+					? Double.parseDouble(args[heatmapArg + 2]) : HEATMAP_RADIUS_KM;
+			start = System.nanoTime();
+			HeatmapRaster heatmap;
+			try {
+				heatmap = HeatmapRaster.build(incidents, HEATMAP_SOUTH, HEATMAP_NORTH, HEATMAP_WEST, HEATMAP_EAST, cellKm,
+						radiusKm, Runtime.getRuntime().availableProcessors());
+			} catch (IllegalArgumentException e) {
+				System.out.println("Heatmap can not be built: " + e.getMessage());
+				askUser.close();
+				return;
+			}
+			heatmap.write(heatmapFile);
+			int tiles = heatmap.writeTiles(new File("Data", "heatmap"));
+			System.out.printf("Heatmap of %d by %d cells written to %s with %d tiles in %.1f s%n", heatmap.getRows(),
+					heatmap.getColumns(), heatmapFile, tiles, (System.nanoTime() - start) / 1e9);
+			askUser.close();
+			return;
+		}
+		HeatmapRaster heatmap = heatmapFile.isFile() ? HeatmapRaster.open(heatmapFile) : null;
+		File districtFile = new File("Data", "districts.geojson");
+		DistrictGeocoding districts = null;
+		if (districtFile.isFile()) {
+			System.out.println("Finding the district of every incident... ");
+			start = System.nanoTime();
+			districts = new DistrictGeocoding(districtFile, DISTRICT_NAME);
+			incidents.tagDistricts(districts, parallel ? Runtime.getRuntime().availableProcessors() : 1);
+			Metrics.get().phase("districts", start);
+		}
+		QueryEngine engine = new QueryEngine(incidents);
 
 		Scanner user_input = new Scanner(System.in);
+		CachingGeocoding remote = new CachingGeocoding(new GeocodingImpl(), new File("Data", "geocode.cache"),
+				GEOCODE_CACHE_SIZE, GEOCODE_CACHE_TTL);
+		File gazetteer = new File("Data", "gazetteer.tsv");
+		Geocoding resolver = gazetteer.isFile() ? new GazetteerGeocoding(gazetteer, remote) : remote;
+		Geocoding geocode = Metrics.get().timed(resolver);
+		Metrics.get().watch(remote);
+
+		if (serve >= 0) {
+			int port = serve + 1 < args.length && args[serve + 1].matches("\\d+") ? Integer.parseInt(args[serve + 1])
+					: SERVER_PORT;
+			QueryService service = new QueryService(engine, geocode, SERVER_CONCURRENCY);
+			port = service.start(port);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				service.stop();
+				try {
+					remote.close();
+				} catch (IOException e) {
+					// the geocoding cache is only lost for this run
+				}
+			}));
+			System.out.println("Answering queries on http://localhost:" + port + "/radius");
+			askUser.close();
+			return;
+		}
+		if (batch >= 0) {
+			runBatch(args, batch, engine, geocode);
+			if (metrics) System.out.println(Metrics.get().dump());
+			remote.close();
+			askUser.close();
+			user_input.close();
+			return;
+		}
 
         /*
          * The below code outputs and formats the answers to the questions to a text file as desired
@@ -207,7 +499,7 @@ public class ReadAllocation {
 
 		do {
 			String address;
-			System.out.print("Enter an address or enter 0 to end program: ");
+			System.out.print("Enter an address, addresses separated by ; for a route, or enter 0 to end program: ");
 			address = user_input.nextLine();
 			
 			if(address.equals("0")) {
@@ -216,72 +508,110 @@ public class ReadAllocation {
 			}
 			
 			String UserState;
-			System.out.print("Enter a State: ");
+			System.out.print("Enter a State or leave blank to search every State: ");
 			UserState = user_input.nextLine();
-			if(!(StateTree.contains(UserState))) {
+			if(!UserState.equals("") && !(engine.hasState(UserState))) {
 				System.out.println("No Incidents in this area or Wrong Address");
 				continue;
 			}
 	
+			System.out.print("Enter dates as yyyy-mm-dd to yyyy-mm-dd or leave blank to search every date: ");
+			String dates = user_input.nextLine().trim();
+			int fromDay = Integer.MIN_VALUE, toDay = Integer.MAX_VALUE;
+			if (!dates.isEmpty()) {
+				String[] bounds = dates.split("\\s*to\\s*");
+				try {
+					fromDay = bounds[0].isEmpty() ? Integer.MIN_VALUE : QueryContext.parseDay(bounds[0]);
+					toDay = bounds.length < 2 ? Integer.MAX_VALUE : QueryContext.parseDay(bounds[1]);
+				} catch (IllegalArgumentException e) {
+					System.out.println(e.getMessage());
+					continue;
+				}
+				if (fromDay > toDay) {
+					System.out.println("The first date is after the last date");
+					continue;
+				}
+			}
+	
 			String Range;
 			System.out.print("Enter a range to look for incidents (in km): ");
 			Range = (user_input.next());
 			Double range = Double.parseDouble(Range);
+
+			if (address.contains(";")) {
+				route(engine, geocode, address.split(";"), range, UserState, fromDay, toDay, out);
+				user_input.nextLine();
+				continue;
+			}
 	
-			States userState = StateTree.get(UserState);
-			GeocodingImpl geocode = new GeocodingImpl();
 			JsonObject Userlatlong = geocode.getLatLng(address);
 			Double userLong = Double.parseDouble(Userlatlong.get("lng").toString());
 			Double userLat = Double.parseDouble(Userlatlong.get("lat").toString());
 	
-			ArrayList<Incidents> stateIncidents = SortIncidents(userState, userLong, userLat);
-			ArrayList<Incidents> InRangeIncidents = filterIncidents(stateIncidents, range);
+			QueryContext query = new QueryContext(userLat, userLong, range, UserState, fromDay, toDay);
+			// with --totals the incidents are not listed and their totals come from the summed area tables
+			QueryResult inRange = totalsOnly ? null : engine.radius(query);
+			SummedAreaTable.Totals totals = totalsOnly ? engine.totals(query) : new SummedAreaTable.Totals();
 			
 			System.out.println("");
-			if (InRangeIncidents.size() == 0) {
+			if (totalsOnly ? totals.getIncidents() == 0 : inRange.size() == 0) {
 				System.out.println("No Incidents in this area or in range");
 				//user_input.nextLine();
 				continue;
 			}
-			int totalKilled = 0, totalInjured = 0;
+			start = System.nanoTime();
 			out.write("Gun violence incidents near " + address + " in range " + range + " km: " + "\n");
 			System.out.println("Gun violence incidents near " + address + " in range " + range + " km: ");
+			if (!totalsOnly && districts != null && districts.locate(userLat, userLong) >= 0) {
+				String district = districts.getName(districts.locate(userLat, userLong));
+				int inDistrict = 0;
+				for (int i = 0; i < inRange.size(); i++) {
+					if (district.equals(incidents.getDistrict(inRange.getRow(i)))) inDistrict++;
+				}
+				out.write("District: " + district + " (" + inDistrict + " of the incidents)" + "\n");
+				System.out.println("District: " + district + " (" + inDistrict + " of the incidents)");
+			}
 
-			for (int i = 0; i < InRangeIncidents.size(); i++) {
-				System.out.println(InRangeIncidents.get(i).toString());
-				out.write("\n" + InRangeIncidents.get(i).toString());
-				totalKilled = totalKilled + InRangeIncidents.get(i).getnumKilled();
-				totalInjured = totalInjured + InRangeIncidents.get(i).getnumInjured();
+			if (!totalsOnly) {
+				ArrayList<Incidents> InRangeIncidents = inRange.getIncidents();
+				for (int i = 0; i < InRangeIncidents.size(); i++) {
+					System.out.println(InRangeIncidents.get(i).toString());
+					out.write("\n" + InRangeIncidents.get(i).toString());
+					totals.add(incidents, inRange.getRow(i));
+				}
 			}
-			out.write("\n" + "\n" + "Total Incidents: " + InRangeIncidents.size() + "\n" +
-								"Total Killed: " + totalKilled + "\n" +
-								"Total Injured: " + totalInjured);
+			out.write("\n" + "\n" + "Total Incidents: " + totals.getIncidents() + "\n" +
+								"Total Killed: " + totals.getKilled() + "\n" +
+								"Total Injured: " + totals.getInjured());
 
-			System.out.println("Total Incidents: " + InRangeIncidents.size() + "\n" +
-								"Total Killed: " + totalKilled + "\n" +
-								"Total Injured: " + totalInjured);
+			System.out.println("Total Incidents: " + totals.getIncidents() + "\n" +
+								"Total Killed: " + totals.getKilled() + "\n" +
+								"Total Injured: " + totals.getInjured());
 			
-			String DangerLevel;
-		
-			if(InRangeIncidents.size() < 15) {
-				DangerLevel = "LOW DANGER";
-			}
-			else if (15 <= InRangeIncidents.size() && InRangeIncidents.size() < 30 ) {
-				DangerLevel = "MODERATE DANGER";
-			}
-			else {
-				DangerLevel = "HIGH DANGER. Stay Cautious";
-			}
+			String DangerLevel = dangerLevel(totals.getIncidents());
 			System.out.println("");
 			out.write("\n"   + "THE DANGER LEVEL IN THIS AREA IS: " + DangerLevel);
+			if (heatmap != null) {
+				out.write("\n" + "Within " + heatmap.getRadius() + " km on the heatmap: " + heatmap.dangerLevel(userLat, userLong));
+			}
 			
 			out.write("\n" + "----------------------------------------------------------------------------------------------------------------------------------------------------------" +  "\n" + "\n");
 			System.out.println("THE DANGER LEVEL IN THIS AREA IS: " + DangerLevel);
+			if (heatmap != null) {
+				System.out.println("Within " + heatmap.getRadius() + " km on the heatmap: " + heatmap.dangerLevel(userLat, userLong));
+			}
 			System.out.println("");
+			Metrics.get().report().recordSince(start);
 			user_input.nextLine();
 		}while(true);
 		user_input.close();
 		askUser.close();
 		out.close();
+		if (resolver != remote) {
+			System.out.println(resolver);
+		}
+		System.out.println(remote);
+		if (metrics) System.out.println(Metrics.get().dump());
+		remote.close();
 	}
 }
@@ -1,12 +1,23 @@
-import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
 
 /**
  * This is a RedBlackBST datastructure that has strings as its key and the ADT States as its values
  * Only functions that were necessary for our use were brought over from the algorithms textbook code
  * and they were modified for our needs.
  * 
+ * Every node keeps the size of its subtree, so besides lookups the tree answers ordered queries
+ * (smallest and largest key, floor and ceiling, rank and select, and the keys between two
+ * bounds) in time logarithmic in its size plus the number of keys returned.
+ * 
+ * A tree can be filled one key at a time with put or computeIfAbsent, or built at once from keys
+ * that are already sorted.
+ * 
  * @author Michael Barreiros, Ben Li
- * @version 3.0
+ * @version 3.2
  * Citation: This code is based off of the RedBlackBST found in the Algorithms textbook and is referencing
  * https://algs4.cs.princeton.edu/code/edu/princeton/cs/algs4/RedBlackBST.java.html
  */
@@ -50,6 +61,64 @@ public class RedBlackTree<String extends Comparable<String>, States> {
 	 */
 	public RedBlackTree() {}
 	
+	/**
+	 * Builds a balanced tree at once from keys in increasing order, without comparing or
+	 * rotating. This takes time linear in the number of keys.
+	 * 
+	 * @param keys the keys in strictly increasing order
+	 * @param states the state paired with each key
+	 * @throws IllegalArgumentException if the arrays differ in length or the keys are not strictly increasing
+	 */
+	public RedBlackTree(String[] keys, States[] states) {
+		if (keys.length != states.length) throw new IllegalArgumentException("keys and states differ in length");
+		for (int i = 1; i < keys.length; i++) {
+			if (keys[i - 1].compareTo(keys[i]) >= 0) throw new IllegalArgumentException("keys are not strictly increasing");
+		}
+		int n = keys.length;
+		//the largest black height a tree of n nodes can have, every path gets that many black nodes
+		int height = 0;
+		while ((1L << (height + 1)) - 1 <= n) height++;
+		root = build(keys, states, 0, n, height);
+		if (root != null) root.colour = BLACK;
+	}
+	
+	/**
+	 * A function that builds a subtree from a run of sorted keys with a given number of black
+	 * nodes on every path, as a 2-3 tree drawn as a left leaning red black BST. A node becomes a
+	 * 3-node, a black node with a red left child, only when its children cannot hold the keys
+	 * otherwise.
+	 * 
+	 * @param keys the sorted keys
+	 * @param states the state paired with each key
+	 * @param lo the index of the first key of the subtree
+	 * @param n the number of keys in the subtree, between 2^height - 1 and 3^height - 1
+	 * @param height the number of black nodes on every path of the subtree
+	 * @return the root of the subtree, null if it holds no keys
+	 */
+	private Node build(String[] keys, States[] states, int lo, int n, int height) {
+		if (n == 0) return null;
+		long most = 1;
+		for (int i = 1; i < height; i++) most *= 3;
+		//the most keys a child subtree one black node shorter can hold
+		most -= 1;
+		if (n - 1 <= 2 * most) {
+			int left = (n - 1) / 2;
+			Node h = new Node(keys[lo + left], states[lo + left], BLACK, n);
+			h.left = build(keys, states, lo, left, height - 1);
+			h.right = build(keys, states, lo + left + 1, n - 1 - left, height - 1);
+			return h;
+		}
+		int rest = n - 2;
+		int a = rest / 3, b = (rest - a) / 2, c = rest - a - b;
+		Node red = new Node(keys[lo + a], states[lo + a], RED, a + b + 1);
+		red.left = build(keys, states, lo, a, height - 1);
+		red.right = build(keys, states, lo + a + 1, b, height - 1);
+		Node h = new Node(keys[lo + a + b + 1], states[lo + a + b + 1], BLACK, n);
+		h.left = red;
+		h.right = build(keys, states, lo + a + b + 2, c, height - 1);
+		return h;
+	}
+	
 	/******************************************************************************
 	 * Node helper methods
 	 ******************************************************************************/
@@ -82,7 +151,7 @@ public class RedBlackTree<String extends Comparable<String>, States> {
 	 * @return root.size The size of the whole tree. Also the number of key-state
 	 * pairs.
 	 */
-	private int size() {
+	public int size() {
 		return size(root);
 	}
 	
@@ -91,7 +160,7 @@ public class RedBlackTree<String extends Comparable<String>, States> {
 	 * 
 	 * @return boolean True if the symbol table is empty and False otherwise
 	 */
-	private boolean isEmpty() {
+	public boolean isEmpty() {
 		return root == null;
 	}
 	
@@ -137,6 +206,226 @@ public class RedBlackTree<String extends Comparable<String>, States> {
 		return get(key) != null;
 	}
 	
+	/******************************************************************************
+	 * BST iteration
+	 ******************************************************************************/
+	
+	/**
+	 * A function that returns all keys of the BST in sorted order
+	 * 
+	 * @return Iterable of every key in the tree from smallest to largest
+	 */
+	public Iterable<String> keys() {
+		ArrayList<String> keys = new ArrayList<String>(size());
+		keys(root, keys);
+		return keys;
+	}
+	
+	/**
+	 * A function that adds the keys of a subtree to a list with an in-order traversal
+	 * 
+	 * @param x the root of the subtree
+	 * @param keys the list the keys are added to
+	 */
+	private void keys(Node x, ArrayList<String> keys) {
+		if (x == null) return;
+		keys(x.left, keys);
+		keys.add(x.key);
+		keys(x.right, keys);
+	}
+	
+	/**
+	 * A function that returns the keys between two bounds in sorted order. The keys are found
+	 * while iterating, no list of them is built.
+	 * 
+	 * @param lo the smallest key returned
+	 * @param hi the largest key returned
+	 * @return Iterable of every key from lo to hi inclusive, from smallest to largest
+	 */
+	public Iterable<String> keys(String lo, String hi) {
+		if (lo == null || hi == null) throw new IllegalArgumentException("keys() called with a null bound");
+		return () -> new RangeIterator(lo, hi);
+	}
+	
+	/**
+	 * A function that returns the number of keys between two bounds
+	 * 
+	 * @param lo the smallest key counted
+	 * @param hi the largest key counted
+	 * @return the number of keys from lo to hi inclusive
+	 */
+	public int size(String lo, String hi) {
+		if (lo == null || hi == null) throw new IllegalArgumentException("size() called with a null bound");
+		if (lo.compareTo(hi) > 0) return 0;
+		if (contains(hi)) return rank(hi) - rank(lo) + 1;
+		return rank(hi) - rank(lo);
+	}
+	
+	/**
+	 * In-order iterator over the keys between two bounds. It holds the path of nodes still to be
+	 * visited, so it uses space proportional to the height of the tree.
+	 */
+	private class RangeIterator implements Iterator<String> {
+		private final ArrayDeque<Node> path = new ArrayDeque<Node>();
+		private final String hi;
+		
+		/**
+		 * Starts the iteration at the smallest key not below lo
+		 * 
+		 * @param lo the smallest key returned
+		 * @param hi the largest key returned
+		 */
+		RangeIterator(String lo, String hi) {
+			this.hi = hi;
+			Node x = root;
+			while (x != null) {
+				if (lo.compareTo(x.key) <= 0) {
+					path.push(x);
+					x = x.left;
+				} else {
+					x = x.right;
+				}
+			}
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return !path.isEmpty() && hi.compareTo(path.peek().key) >= 0;
+		}
+		
+		@Override
+		public String next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			Node x = path.pop();
+			for (Node y = x.right; y != null; y = y.left) {
+				path.push(y);
+			}
+			return x.key;
+		}
+	}
+	
+	/******************************************************************************
+	 * Ordered symbol table methods
+	 ******************************************************************************/
+	
+	/**
+	 * A function to return the smallest key in the tree
+	 * 
+	 * @return the smallest key
+	 * @throws NoSuchElementException if the tree is empty
+	 */
+	public String min() {
+		if (isEmpty()) throw new NoSuchElementException("min() called on an empty tree");
+		Node x = root;
+		while (x.left != null) x = x.left;
+		return x.key;
+	}
+	
+	/**
+	 * A function to return the largest key in the tree
+	 * 
+	 * @return the largest key
+	 * @throws NoSuchElementException if the tree is empty
+	 */
+	public String max() {
+		if (isEmpty()) throw new NoSuchElementException("max() called on an empty tree");
+		Node x = root;
+		while (x.right != null) x = x.right;
+		return x.key;
+	}
+	
+	/**
+	 * A function to return the largest key less than or equal to a key
+	 * 
+	 * @param key the key being looked for
+	 * @return the largest key not above key, null if every key is above it
+	 */
+	public String floor(String key) {
+		Node found = null;
+		Node x = root;
+		while (x != null) {
+			int cmp = key.compareTo(x.key);
+			if (cmp == 0) return x.key;
+			if (cmp < 0) {
+				x = x.left;
+			} else {
+				found = x;
+				x = x.right;
+			}
+		}
+		return found == null ? null : found.key;
+	}
+	
+	/**
+	 * A function to return the smallest key greater than or equal to a key
+	 * 
+	 * @param key the key being looked for
+	 * @return the smallest key not below key, null if every key is below it
+	 */
+	public String ceiling(String key) {
+		Node found = null;
+		Node x = root;
+		while (x != null) {
+			int cmp = key.compareTo(x.key);
+			if (cmp == 0) return x.key;
+			if (cmp > 0) {
+				x = x.right;
+			} else {
+				found = x;
+				x = x.left;
+			}
+		}
+		return found == null ? null : found.key;
+	}
+	
+	/**
+	 * A function to return the number of keys strictly less than a key, the key does not need
+	 * to be in the tree
+	 * 
+	 * @param key the key being ranked
+	 * @return the number of keys below key
+	 */
+	public int rank(String key) {
+		int rank = 0;
+		Node x = root;
+		while (x != null) {
+			int cmp = key.compareTo(x.key);
+			if (cmp < 0) {
+				x = x.left;
+			} else if (cmp > 0) {
+				rank += size(x.left) + 1;
+				x = x.right;
+			} else {
+				return rank + size(x.left);
+			}
+		}
+		return rank;
+	}
+	
+	/**
+	 * A function to return the key of a given rank, select(rank(key)) is key for every key in
+	 * the tree
+	 * 
+	 * @param rank the number of keys below the key returned
+	 * @return the key with rank keys below it
+	 * @throws IllegalArgumentException if rank is not between 0 and size() - 1
+	 */
+	public String select(int rank) {
+		if (rank < 0 || rank >= size()) throw new IllegalArgumentException("select() rank out of range: " + rank);
+		Node x = root;
+		while (true) {
+			int left = size(x.left);
+			if (rank < left) {
+				x = x.left;
+			} else if (rank > left) {
+				rank -= left + 1;
+				x = x.right;
+			} else {
+				return x.key;
+			}
+		}
+	}
+	
 	/******************************************************************************
 	 * Red-black tree insertion.
 	 ******************************************************************************/
@@ -183,6 +472,53 @@ public class RedBlackTree<String extends Comparable<String>, States> {
 		return h;
 	}
 	
+	/**
+	 * A function that returns the state of a key, creating and inserting it first if the key is
+	 * not in the tree yet. The key is found or its node added in a single descent from the root.
+	 * 
+	 * @param key the key being looked for
+	 * @param create function building the state of a key that is not in the tree yet
+	 * @return the state already paired with the key, or the one just created for it
+	 */
+	public States computeIfAbsent(String key, Function<? super String, ? extends States> create) {
+		ArrayList<States> found = new ArrayList<States>(1);
+		root = computeIfAbsent(root, key, create, found);
+		root.colour = BLACK;
+		return found.get(0);
+	}
+	
+	/**
+	 * A function that finds a key below a node or inserts it, rebalancing on the way back up
+	 * like put
+	 * 
+	 * @param h the root of the subtree being searched
+	 * @param key the key being looked for
+	 * @param create function building the state of a key that is not in the tree yet
+	 * @param found list receiving the state of the key
+	 * @return the root of the subtree after any insertion
+	 */
+	private Node computeIfAbsent(Node h, String key, Function<? super String, ? extends States> create,
+			ArrayList<States> found) {
+		if (h == null) {
+			States state = create.apply(key);
+			found.add(state);
+			return new Node(key, state, RED, 1);
+		}
+		int cmp = key.compareTo(h.key);
+		if (cmp == 0) {
+			found.add(h.state);
+			return h;
+		}
+		if (cmp < 0) h.left = computeIfAbsent(h.left, key, create, found);
+		else h.right = computeIfAbsent(h.right, key, create, found);
+		
+		if (isRed(h.right) && !isRed(h.left)) h = rotateLeft(h);
+		if (isRed(h.left) && isRed(h.left.left)) h = rotateRight(h);
+		if (isRed(h.left) && isRed(h.right)) flipColours(h);
+		h.size = size(h.left) + size(h.right) + 1;
+		return h;
+	}
+	
 	/******************************************************************************
 	 * Red-black tree helper functions
 	 ******************************************************************************/
@@ -2,31 +2,78 @@
  * Storing Gun Violence Incidents in appropriate States Location
  * 
  * @author Harsh Patel
- * @version 2.0
+ * @version 4.4
  */
 
 import java.util.ArrayList;
 
 public class States implements Comparable<States> {
 	private String StateName;
-	private ArrayList<Incidents> IncidentsList = new ArrayList<>();
+	private IncidentStore store;
+	private int start;
+	private int end;
+	private int code;
+	// the incidents of the State are ordered by date and split into periods of PERIOD_DAYS days,
+	// each period has its own spatial index so a date range only searches the periods it covers
+	private int[] periodStart;
+	private KdTree[] periods;
+	// casualty totals over a grid of the State, for queries that only want totals
+	private SummedAreaTable totals;
+	private static final int PERIOD_DAYS = 365;
 	
 	/**
-	 * Constructor of State ADT initialized by Name of State
+	 * Constructor of State ADT initialized by Name of State and the rows of its incidents, which
+	 * must be ordered by date. The spatial index of every period and the table of totals are built here
 	 * 
 	 * @param StateName Name of US State
+	 * @param store Store holding the incidents
+	 * @param start Row index of the first incident in this State
+	 * @param end Row index after the last incident in this State
 	 */
-	public States(String StateName) {
-		this.StateName = StateName;
+	public States(String StateName, IncidentStore store, int start, int end) {
+		this(StateName, store, start, end, null);
 	}
-	
+
 	/**
-	 * Add Incident located in this State to IncidentList
+	 * Constructor of State ADT that takes the order of the rows in the spatial index of every
+	 * period from a saved layout when the layout matches, the other indexes are built here
 	 * 
-	 * @param incident Incident that took place in this State
+	 * @param StateName Name of US State
+	 * @param store Store holding the incidents
+	 * @param start Row index of the first incident in this State
+	 * @param end Row index after the last incident in this State
+	 * @param layout Layout saved with the store, null to build every index
 	 */
-	public void addIncidents(Incidents incident) {
-		IncidentsList.add(incident);
+	States(String StateName, IncidentStore store, int start, int end, IndexLayout layout) {
+		this.StateName = StateName;
+		this.store = store;
+		this.start = start;
+		this.end = end;
+		this.code = store.stateCode(StateName);
+		ArrayList<Integer> bounds = new ArrayList<>();
+		for (int row = start; row < end; row++) {
+			if (row == start || period(store.getDate(row)) != period(store.getDate(row - 1))) {
+				bounds.add(row);
+			}
+		}
+		bounds.add(end);
+		this.periodStart = new int[bounds.size()];
+		this.periods = new KdTree[bounds.size() - 1];
+		for (int p = 0; p < bounds.size(); p++) {
+			periodStart[p] = bounds.get(p);
+		}
+		for (int p = 0; p < periods.length; p++) {
+			KdTree saved = layout == null ? null : layout.tree(store, code, p, periodStart[p], periodStart[p + 1]);
+			periods[p] = saved != null ? saved : new KdTree(store, periodStart[p], periodStart[p + 1]);
+		}
+		this.totals = new SummedAreaTable(store, start, end);
+	}
+
+	/**
+	 * Period of a date, every unknown date shares one period
+	 */
+	private static long period(int date) {
+		return date == IncidentStore.NO_DATE ? Long.MIN_VALUE : Math.floorDiv(date, PERIOD_DAYS);
 	}
 	
 	/**
@@ -39,11 +86,197 @@ public class States implements Comparable<States> {
 	}
 	
 	/**
-	 * List of incidents that happened in this State location
+	 * Store that holds the incidents of this State
+	 * 
+	 * @return IncidentStore with the incidents of every State
+	 */
+	public IncidentStore getStore() {
+		return store;
+	}
+	
+	/**
+	 * First row of this State in the store
+	 * 
+	 * @return Row index of the first incident in this State
+	 */
+	public int getStart() {
+		return start;
+	}
+	
+	/**
+	 * Row after the last row of this State in the store
+	 * 
+	 * @return Row index after the last incident in this State
+	 */
+	public int getEnd() {
+		return end;
+	}
+	
+	/**
+	 * Finds every incident of this State within a range of the users desired location
+	 * 
+	 * @param userLat Latitude coordinate of users desired location
+	 * @param userLong Longitude coordinate of users desired location
+	 * @param range Distance from users desired location in kilometers
+	 * @param result Result the incidents in range are added to, ordered by distance
+	 */
+	public void radius(double userLat, double userLong, double range, QueryResult result) {
+		radius(userLat, userLong, range, Integer.MIN_VALUE, Integer.MAX_VALUE, result);
+	}
+
+	/**
+	 * Finds every incident of this State within a range of the users desired location that took
+	 * place between two dates. Only the periods overlapping the dates are searched, and only the
+	 * first and last of them hold incidents outside the dates that have to be skipped.
+	 * 
+	 * @param userLat Latitude coordinate of users desired location
+	 * @param userLong Longitude coordinate of users desired location
+	 * @param range Distance from users desired location in kilometers
+	 * @param fromDay First day to keep, in days since 1970-01-01
+	 * @param toDay Last day to keep, in days since 1970-01-01
+	 * @param result Result the incidents in range are added to, ordered by distance
+	 */
+	public void radius(double userLat, double userLong, double range, int fromDay, int toDay, QueryResult result) {
+		int lo = firstRow(fromDay, toDay);
+		int hi = toDay == Integer.MAX_VALUE ? end : store.firstRowOnOrAfter(code, toDay + 1);
+		for (int p = 0; p < periods.length && lo < hi; p++) {
+			if (periodStart[p + 1] <= lo || periodStart[p] >= hi) continue;
+			if (periodStart[p] >= lo && periodStart[p + 1] <= hi) {
+				periods[p].collect(userLat, userLong, range, 0, Integer.MAX_VALUE, result);
+			} else {
+				periods[p].collect(userLat, userLong, range, lo, hi, result);
+			}
+		}
+		result.sortByDistance();
+	}
+
+	/**
+	 * Adds the incidents of this State in a corridor around a route that took place between two
+	 * dates to a result without ordering it, searching only the periods overlapping the dates
+	 * 
+	 * @param corridor Route and width to search
+	 * @param fromDay First day to keep, in days since 1970-01-01
+	 * @param toDay Last day to keep, in days since 1970-01-01
+	 * @param result Result the incidents in the corridor are added to
+	 */
+	public void corridor(Corridor corridor, int fromDay, int toDay, CorridorResult result) {
+		int lo = firstRow(fromDay, toDay);
+		int hi = toDay == Integer.MAX_VALUE ? end : store.firstRowOnOrAfter(code, toDay + 1);
+		for (int p = 0; p < periods.length && lo < hi; p++) {
+			if (periodStart[p + 1] <= lo || periodStart[p] >= hi) continue;
+			if (periodStart[p] >= lo && periodStart[p + 1] <= hi) {
+				periods[p].corridor(corridor, 0, Integer.MAX_VALUE, result);
+			} else {
+				periods[p].corridor(corridor, lo, hi, result);
+			}
+		}
+	}
+
+	/**
+	 * Finds the incidents of this State nearest the location of a buffer that took place
+	 * between two dates. Every period overlapping the dates is searched into the same buffer,
+	 * the closest period first, so the later ones are mostly skipped at their root.
+	 * 
+	 * @param buffer Buffer reset for the query, holding the nearest incidents found so far
+	 * @param fromDay First day to keep, in days since 1970-01-01
+	 * @param toDay Last day to keep, in days since 1970-01-01
+	 */
+	public void nearest(NearestBuffer buffer, int fromDay, int toDay) {
+		int lo = firstRow(fromDay, toDay);
+		int hi = toDay == Integer.MAX_VALUE ? end : store.firstRowOnOrAfter(code, toDay + 1);
+		if (lo >= hi) return;
+		int mark = buffer.beginOrder();
+		for (int p = 0; p < periods.length; p++) {
+			if (periodStart[p + 1] <= lo || periodStart[p] >= hi) continue;
+			buffer.addCandidate(p, periods[p].bound(buffer));
+		}
+		int end = buffer.sortCandidates(mark);
+		for (int c = mark; c < end; c++) {
+			int p = buffer.candidateId(c);
+			if (periodStart[p] >= lo && periodStart[p + 1] <= hi) {
+				periods[p].nearest(buffer, 0, Integer.MAX_VALUE);
+			} else {
+				periods[p].nearest(buffer, lo, hi);
+			}
+		}
+		buffer.endOrder(mark);
+	}
+
+	/**
+	 * First row of this State a date range keeps, the incidents of unknown date come first and
+	 * are skipped once the range has any limit
+	 */
+	private int firstRow(int fromDay, int toDay) {
+		int day = IncidentStore.firstDay(fromDay, toDay);
+		return day == Integer.MIN_VALUE ? start : store.firstRowOnOrAfter(code, day);
+	}
+
+	/**
+	 * Smallest haversine from the location of a buffer to any incident of this State
+	 * 
+	 * @param buffer Buffer reset for the query
+	 * @return Haversine no incident of the State can be closer than
+	 */
+	public double bound(NearestBuffer buffer) {
+		double bound = Double.POSITIVE_INFINITY;
+		for (KdTree period : periods) {
+			bound = Math.min(bound, period.bound(buffer));
+		}
+		return bound;
+	}
+
+	/**
+	 * Counts the incidents of this State within a range of the users desired location and the
+	 * people killed and injured in them, without finding the incidents one by one
+	 * 
+	 * @param userLat Latitude coordinate of users desired location
+	 * @param userLong Longitude coordinate of users desired location
+	 * @param range Distance from users desired location in kilometers
+	 * @return Totals over the incidents a radius query would find
+	 */
+	public SummedAreaTable.Totals totals(double userLat, double userLong, double range) {
+		return totals.radius(userLat, userLong, range);
+	}
+
+	/**
+	 * Number of periods the incidents of this State are split into
+	 * 
+	 * @return Count of spatial indexes in this State
+	 */
+	public int periodCount() {
+		return periods.length;
+	}
+
+	/**
+	 * Spatial index of one period of this State
+	 * 
+	 * @param period Index of the period, from 0 to periodCount
+	 * @return Tree over the incidents of the period
+	 */
+	KdTree getPeriod(int period) {
+		return periods[period];
+	}
+	
+	/**
+	 * Number of incidents that happened in this State location
+	 * 
+	 * @return Count of incidents in this US State location
+	 */
+	public int size() {
+		return end - start;
+	}
+	
+	/**
+	 * List of incidents that happened in this State location, a new Incidents ADT is built
+	 * for every row so the list can be changed freely
 	 * 
 	 * @return ArrayList of incidents in this US State location
 	 */
 	public ArrayList<Incidents> getIncidentsList(){
+		ArrayList<Incidents> IncidentsList = new ArrayList<>(size());
+		for (int i = start; i < end; i++) {
+			IncidentsList.add(store.get(i));
+		}
 		return IncidentsList;
 	}
 	
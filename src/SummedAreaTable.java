@@ -0,0 +1,382 @@
+/**
+ * Totals of incidents, killed and injured over any area without visiting every incident in it.
+ * The incidents are counted on a grid of latitude and longitude cells, and each of the three
+ * totals is kept as a summed area table: every entry holds the sum of all the cells below and
+ * to the left of it, so the total of any rectangle of cells takes four reads.
+ *
+ * A box or radius is split into the cells it covers completely, which are added up from the
+ * tables, and the cells its edge crosses, whose incidents are checked one by one. The totals
+ * are exact, and the work grows with the length of the edge rather than the area inside it.
+ *
+ * The grid has about CELLS_PER_INCIDENT cells per incident over the area the incidents span, so
+ * its memory grows with the incidents.
+ *
+ * @version 1.0
+ */
+public class SummedAreaTable {
+
+	// the grid aims for this many cells per incident, within the limits below
+	private static final int CELLS_PER_INCIDENT = 2;
+	private static final int MIN_CELLS = 1024;
+	private static final int MAX_CELLS = 1 << 20;
+	// smallest cell side in degrees, about a kilometer
+	private static final double MIN_CELL_DEGREES = 0.01;
+	// widening in degrees of every cell edge test, far above rounding and far below a cell
+	private static final double EPSILON = 1e-7;
+
+	private final IncidentStore store;
+	private final double minLat, minLon, cellDegrees;
+	private final int latCells, lonCells;
+	// summed area tables with one more row and column than the grid, the first ones all zero
+	private final int[] count, killed, injured;
+	// rows of the store grouped by cell in row major order, cell c holds cellRows[cellStart[c]..cellStart[c + 1])
+	private final int[] cellStart;
+	private final int[] cellRows;
+
+	/**
+	 * Builds the grid and its tables over a run of rows of a store
+	 *
+	 * @param store Store holding the incidents
+	 * @param start First row counted
+	 * @param end Row after the last row counted
+	 */
+	public SummedAreaTable(IncidentStore store, int start, int end) {
+		this.store = store;
+		double lowLat = Double.POSITIVE_INFINITY, highLat = Double.NEGATIVE_INFINITY;
+		double lowLon = Double.POSITIVE_INFINITY, highLon = Double.NEGATIVE_INFINITY;
+		for (int row = start; row < end; row++) {
+			lowLat = Math.min(lowLat, store.getLatitude(row));
+			highLat = Math.max(highLat, store.getLatitude(row));
+			lowLon = Math.min(lowLon, store.getLongitude(row));
+			highLon = Math.max(highLon, store.getLongitude(row));
+		}
+		if (start >= end) {
+			lowLat = highLat = lowLon = highLon = 0;
+		}
+		int target = Math.max(MIN_CELLS, Math.min(MAX_CELLS, CELLS_PER_INCIDENT * (end - start)));
+		this.minLat = lowLat;
+		this.minLon = lowLon;
+		this.cellDegrees = Math.max(MIN_CELL_DEGREES, Math.sqrt((highLat - lowLat) * (highLon - lowLon) / target));
+		this.latCells = (int) ((highLat - lowLat) / cellDegrees) + 1;
+		this.lonCells = (int) ((highLon - lowLon) / cellDegrees) + 1;
+
+		int cells = latCells * lonCells;
+		int[] cell = new int[end - start];
+		cellStart = new int[cells + 1];
+		for (int row = start; row < end; row++) {
+			cell[row - start] = row(store.getLatitude(row)) * lonCells + column(store.getLongitude(row));
+			cellStart[cell[row - start] + 1]++;
+		}
+		for (int c = 0; c < cells; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		cellRows = new int[end - start];
+		int[] next = new int[cells];
+		System.arraycopy(cellStart, 0, next, 0, cells);
+		int width = lonCells + 1;
+		count = new int[(latCells + 1) * width];
+		killed = new int[count.length];
+		injured = new int[count.length];
+		for (int row = start; row < end; row++) {
+			int c = cell[row - start];
+			cellRows[next[c]++] = row;
+			int entry = (c / lonCells + 1) * width + c % lonCells + 1;
+			count[entry]++;
+			killed[entry] += store.getnumKilled(row);
+			injured[entry] += store.getnumInjured(row);
+		}
+		for (int i = 1; i <= latCells; i++) {
+			for (int j = 1; j <= lonCells; j++) {
+				int entry = i * width + j;
+				count[entry] += count[entry - 1] + count[entry - width] - count[entry - width - 1];
+				killed[entry] += killed[entry - 1] + killed[entry - width] - killed[entry - width - 1];
+				injured[entry] += injured[entry - 1] + injured[entry - width] - injured[entry - width - 1];
+			}
+		}
+	}
+
+	/**
+	 * Grid row of a latitude. Rows grow with the latitude, so every incident in a row between
+	 * the rows of two latitudes lies between them, values off the grid give -1 or latCells
+	 */
+	private int row(double latitude) {
+		double row = Math.floor((latitude - minLat) / cellDegrees);
+		return (int) Math.max(-1, Math.min(latCells, row));
+	}
+
+	/**
+	 * Grid column of a longitude, values off the grid give -1 or lonCells
+	 */
+	private int column(double longitude) {
+		double column = Math.floor((longitude - minLon) / cellDegrees);
+		return (int) Math.max(-1, Math.min(lonCells, column));
+	}
+
+	/**
+	 * Adds the tables over a rectangle of cells, both corners included and clamped to the grid
+	 */
+	private void addCells(int fromRow, int toRow, int fromColumn, int toColumn, Totals totals) {
+		fromRow = Math.max(0, fromRow);
+		toRow = Math.min(latCells - 1, toRow);
+		fromColumn = Math.max(0, fromColumn);
+		toColumn = Math.min(lonCells - 1, toColumn);
+		if (fromRow > toRow || fromColumn > toColumn) return;
+		int width = lonCells + 1;
+		int a = fromRow * width + fromColumn, b = fromRow * width + toColumn + 1;
+		int c = (toRow + 1) * width + fromColumn, d = (toRow + 1) * width + toColumn + 1;
+		totals.incidents += count[d] - count[b] - count[c] + count[a];
+		totals.killed += killed[d] - killed[b] - killed[c] + killed[a];
+		totals.injured += injured[d] - injured[b] - injured[c] + injured[a];
+	}
+
+	/**
+	 * Totals of every incident in the grid
+	 *
+	 * @return Counts of incidents, killed and injured
+	 */
+	public Totals total() {
+		Totals totals = new Totals();
+		addCells(0, latCells - 1, 0, lonCells - 1, totals);
+		return totals;
+	}
+
+	/**
+	 * Totals of the incidents inside a box, its edges included. Whole cells inside the box are
+	 * read from the tables and only the cells on its edges are checked incident by incident.
+	 *
+	 * @param south Southern edge of the box
+	 * @param north Northern edge of the box
+	 * @param west Western edge of the box
+	 * @param east Eastern edge of the box, not below the western edge
+	 * @return Counts of incidents, killed and injured inside the box
+	 */
+	public Totals box(double south, double north, double west, double east) {
+		Totals totals = new Totals();
+		int fromRow = row(south), toRow = row(north);
+		int fromColumn = column(west), toColumn = column(east);
+		addCells(fromRow + 1, toRow - 1, fromColumn + 1, toColumn - 1, totals);
+		for (int i = Math.max(0, fromRow); i <= Math.min(latCells - 1, toRow); i++) {
+			if (i == fromRow || i == toRow) {
+				scanBox(i, fromColumn, toColumn, south, north, west, east, totals);
+			} else {
+				scanBox(i, fromColumn, fromColumn, south, north, west, east, totals);
+				if (toColumn != fromColumn) {
+					scanBox(i, toColumn, toColumn, south, north, west, east, totals);
+				}
+			}
+		}
+		return totals;
+	}
+
+	/**
+	 * Adds the incidents of a run of cells in one row that are inside a box
+	 */
+	private void scanBox(int row, int fromColumn, int toColumn, double south, double north, double west,
+			double east, Totals totals) {
+		fromColumn = Math.max(0, fromColumn);
+		toColumn = Math.min(lonCells - 1, toColumn);
+		if (fromColumn > toColumn) return;
+		for (int i = cellStart[row * lonCells + fromColumn]; i < cellStart[row * lonCells + toColumn + 1]; i++) {
+			int r = cellRows[i];
+			double latitude = store.getLatitude(r), longitude = store.getLongitude(r);
+			if (latitude >= south && latitude <= north && longitude >= west && longitude <= east) {
+				totals.add(store, r);
+			}
+		}
+	}
+
+	/**
+	 * Totals of the incidents within a range of a location, exactly the incidents a radius
+	 * query finds. Every row of cells the circle crosses is split into the cells wholly inside
+	 * it, read from the tables, and the cells on its edge, checked incident by incident, so a
+	 * query costs a table read per row of cells plus the incidents along the circle.
+	 *
+	 * @param userLat Latitude coordinate of users desired location
+	 * @param userLong Longitude coordinate of users desired location
+	 * @param range Distance from users desired location in kilometers
+	 * @return Counts of incidents, killed and injured within range
+	 */
+	public Totals radius(double userLat, double userLong, double range) {
+		Totals totals = new Totals();
+		double angle = range / DistanceKernel.EARTH_RADIUS;
+		if (angle >= Math.PI) return total();
+		DistanceKernel kernel = new DistanceKernel(userLat, userLong);
+		double threshold = DistanceKernel.threshold(range);
+		Cap cap = new Cap(Math.toRadians(userLat), angle);
+		double reach = Math.toDegrees(angle);
+		int fromRow = Math.max(0, row(userLat - reach - EPSILON));
+		int toRow = Math.min(latCells - 1, row(userLat + reach + EPSILON));
+		for (int i = fromRow; i <= toRow; i++) {
+			double south = minLat + i * cellDegrees - EPSILON, north = minLat + (i + 1) * cellDegrees + EPSILON;
+			double outer = cap.widest(south, north);
+			if (outer < 0) continue;
+			double inner = cap.narrowest(south, north);
+			if (inner >= 180) {
+				addCells(i, i, 0, lonCells - 1, totals);
+				continue;
+			}
+			outer += EPSILON;
+			inner -= EPSILON;
+			if (2 * outer + 2 * cellDegrees >= 360) {
+				scanRadius(i, 0, lonCells - 1, kernel, threshold, totals);
+				continue;
+			}
+			// the circle may cross the antimeridian, its longitudes are also tried a turn either way
+			for (int turn = -360; turn <= 360; turn += 360) {
+				int west = column(userLong - outer + turn), east = column(userLong + outer + turn);
+				if (east < 0 || west >= lonCells) continue;
+				if (inner < 0) {
+					scanRadius(i, west, east, kernel, threshold, totals);
+					continue;
+				}
+				int innerWest = column(userLong - inner + turn), innerEast = column(userLong + inner + turn);
+				if (innerEast - innerWest < 2) {
+					scanRadius(i, west, east, kernel, threshold, totals);
+					continue;
+				}
+				addCells(i, i, innerWest + 1, innerEast - 1, totals);
+				scanRadius(i, west, innerWest, kernel, threshold, totals);
+				scanRadius(i, innerEast, east, kernel, threshold, totals);
+			}
+		}
+		return totals;
+	}
+
+	/**
+	 * Adds the incidents of a run of cells in one row that are within range
+	 */
+	private void scanRadius(int row, int fromColumn, int toColumn, DistanceKernel kernel, double threshold,
+			Totals totals) {
+		fromColumn = Math.max(0, fromColumn);
+		toColumn = Math.min(lonCells - 1, toColumn);
+		if (fromColumn > toColumn) return;
+		for (int i = cellStart[row * lonCells + fromColumn]; i < cellStart[row * lonCells + toColumn + 1]; i++) {
+			int r = cellRows[i];
+			if (kernel.haversine(store.getLatitudeRadians(r), store.getLongitudeRadians(r),
+					store.getCosLatitude(r)) <= threshold) {
+				totals.add(store, r);
+			}
+		}
+	}
+
+	/**
+	 * Number of cells in the grid
+	 *
+	 * @return Rows times columns of cells
+	 */
+	public int cells() {
+		return latCells * lonCells;
+	}
+
+	/**
+	 * Side of a cell
+	 *
+	 * @return Side of every cell in degrees of latitude and longitude
+	 */
+	public double getCellDegrees() {
+		return cellDegrees;
+	}
+
+	/**
+	 * The spherical cap within a range of a location, described by how far it reaches east and
+	 * west of the location at each latitude. That half width grows from the southern edge of the
+	 * cap to one latitude and shrinks after it, so over a band of latitudes it is smallest at
+	 * one end of the band and largest at an end or at that latitude.
+	 */
+	private static class Cap {
+		private final double sinLat, cosLat, cosAngle, lowest, highest, widestLat;
+
+		Cap(double latitude, double angle) {
+			this.sinLat = Math.sin(latitude);
+			this.cosLat = Math.cos(latitude);
+			this.cosAngle = Math.cos(angle);
+			this.lowest = Math.toDegrees(latitude - angle);
+			this.highest = Math.toDegrees(latitude + angle);
+			// a cap holding a pole has no such latitude, it is widest at the pole
+			double sinWidest = sinLat / cosAngle;
+			this.widestLat = cosAngle > 0 && Math.abs(sinWidest) < 1 ? Math.toDegrees(Math.asin(sinWidest)) : Double.NaN;
+		}
+
+		/**
+		 * Half width in degrees of the cap at a latitude, 180 if it holds every longitude and
+		 * -1 if it holds none
+		 */
+		double halfWidth(double latitude) {
+			if (latitude < lowest || latitude > highest) return -1;
+			double cos = Math.cos(Math.toRadians(latitude));
+			// at a pole, or for a location at a pole, every longitude is the same distance away
+			if (cos * cosLat < 1e-12) return 180;
+			double x = (cosAngle - Math.sin(Math.toRadians(latitude)) * sinLat) / (cos * cosLat);
+			if (x <= -1) return 180;
+			if (x >= 1) return 0;
+			return Math.toDegrees(Math.acos(x));
+		}
+
+		/**
+		 * Largest half width over a band of latitudes, -1 if the band misses the cap
+		 */
+		double widest(double south, double north) {
+			if (north < lowest || south > highest) return -1;
+			south = Math.max(south, lowest);
+			north = Math.min(north, highest);
+			if (Double.isNaN(widestLat)) return 180;
+			double widest = Math.max(halfWidth(south), halfWidth(north));
+			if (widestLat > south && widestLat < north) widest = Math.max(widest, halfWidth(widestLat));
+			return widest;
+		}
+
+		/**
+		 * Smallest half width over a band of latitudes, -1 if part of the band is outside the cap
+		 */
+		double narrowest(double south, double north) {
+			if (south < lowest || north > highest) return -1;
+			return Math.min(halfWidth(south), halfWidth(north));
+		}
+	}
+
+	/**
+	 * Counts of incidents, killed and injured over an area
+	 */
+	public static final class Totals {
+		private int incidents, killed, injured;
+
+		/**
+		 * Adds one incident of a store
+		 *
+		 * @param store Store holding the incident
+		 * @param row Row of the incident
+		 */
+		public void add(IncidentStore store, int row) {
+			incidents++;
+			killed += store.getnumKilled(row);
+			injured += store.getnumInjured(row);
+		}
+
+		/**
+		 * Number of incidents
+		 *
+		 * @return Count of incidents in the area
+		 */
+		public int getIncidents() {
+			return incidents;
+		}
+
+		/**
+		 * Number of people killed
+		 *
+		 * @return Total killed over the incidents in the area
+		 */
+		public int getKilled() {
+			return killed;
+		}
+
+		/**
+		 * Number of people injured
+		 *
+		 * @return Total injured over the incidents in the area
+		 */
+		public int getInjured() {
+			return injured;
+		}
+	}
+}
@@ -0,0 +1,357 @@
+package geocoding;
+
+import com.google.gson.JsonObject;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A geocoding decorator remembering the coordinates of every address it resolved.
+ * Recently used addresses are kept in a bounded in-memory LRU map, every address is also
+ * appended to a file on disk so the cache survives restarts. Only a miss in both levels, or an
+ * entry older than the time to live, is sent to the wrapped geocoder.
+ *
+ * The disk file holds one record per resolved address: the time it was saved, latitude,
+ * longitude and the normalized address. A later record of the same address replaces the
+ * earlier one, and only the position of the latest record is kept in memory.
+ *
+ * @version 1.0
+ */
+public class CachingGeocoding implements Geocoding, Closeable {
+
+    private static final int MAGIC = 0x54444743;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final String LAT = "lat";
+    private static final String LNG = "lng";
+    private static final Pattern COMMA = Pattern.compile("\\s*,\\s*");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+
+    private final Geocoding delegate;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, CachedLocation> memory;
+    private final Map<String, Long> diskIndex = new HashMap<>();
+    private final RandomAccessFile disk;
+    private int deadRecords;
+
+    private long hits;
+    private long diskHits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    /**
+     * Creates a cache in front of another geocoder.
+     *
+     * @param delegate  the geocoder resolving addresses that are not cached
+     * @param file      the file holding the cache on disk, created if missing
+     * @param capacity  the number of addresses kept in memory
+     * @param ttlMillis the time in milliseconds an address stays valid, 0 or less to keep it forever
+     * @throws IOException if the cache file cannot be read or created
+     */
+    public CachingGeocoding(final Geocoding delegate, final File file, final int capacity, final long ttlMillis)
+            throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.delegate = delegate;
+        this.ttlMillis = ttlMillis;
+        this.memory = new LinkedHashMap<String, CachedLocation>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CachedLocation> eldest) {
+                if (size() > capacity) {
+                    CachingGeocoding.this.evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+        final long valid = this.load(file);
+        this.disk = new RandomAccessFile(file, "rw");
+        if (valid < HEADER_SIZE) {
+            this.disk.setLength(0);
+            this.disk.writeInt(MAGIC);
+            this.disk.writeInt(VERSION);
+        } else {
+            // drops a record left half written by a crash
+            this.disk.setLength(valid);
+        }
+        if (this.deadRecords > this.diskIndex.size()) {
+            this.compact();
+        }
+    }
+
+    /**
+     * The district is not cached, it is always asked from the wrapped geocoder.
+     */
+    @Override
+    public String getDistrict(final double latitude, final double longitude) throws GeocodingException {
+        return this.delegate.getDistrict(latitude, longitude);
+    }
+
+    @Override
+    public JsonObject getLatLng(final String address) throws GeocodingException {
+        final String key = normalize(address);
+        synchronized (this) {
+            final CachedLocation entry = this.lookup(key);
+            if (entry != null) {
+                return entry.toJson();
+            }
+            this.misses++;
+        }
+        final JsonObject json = this.delegate.getLatLng(address);
+        final CachedLocation entry = new CachedLocation(this.now(), json.get(LAT).getAsDouble(),
+                json.get(LNG).getAsDouble());
+        synchronized (this) {
+            this.memory.put(key, entry);
+            try {
+                this.append(key, entry);
+            } catch (final IOException e) {
+                // the address is still cached in memory, only the copy on disk is lost
+            }
+        }
+        return entry.toJson();
+    }
+
+    /**
+     * Finds a valid entry in memory and then on disk, counting the outcome.
+     *
+     * @param key the normalized address
+     * @return the cached entry or null if it is missing or expired
+     */
+    private CachedLocation lookup(final String key) {
+        CachedLocation entry = this.memory.get(key);
+        if (entry != null) {
+            if (!this.expired(entry)) {
+                this.hits++;
+                return entry;
+            }
+            this.memory.remove(key);
+            this.expirations++;
+            return null;
+        }
+        final Long offset = this.diskIndex.get(key);
+        if (offset == null) {
+            return null;
+        }
+        try {
+            this.disk.seek(offset);
+            entry = new CachedLocation(this.disk.readLong(), this.disk.readDouble(), this.disk.readDouble());
+        } catch (final IOException e) {
+            return null;
+        }
+        if (this.expired(entry)) {
+            this.expirations++;
+            return null;
+        }
+        this.diskHits++;
+        this.memory.put(key, entry);
+        return entry;
+    }
+
+    private boolean expired(final CachedLocation entry) {
+        return this.ttlMillis > 0 && this.now() - entry.savedMillis > this.ttlMillis;
+    }
+
+    /**
+     * Current time used to stamp and expire entries.
+     *
+     * @return the time in milliseconds
+     */
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Brings an address into the form used as cache key, so differences in case and spacing
+     * do not cause misses.
+     *
+     * @param address the address entered by the user
+     * @return the normalized address
+     */
+    static String normalize(final String address) {
+        final String lower = address.trim().toLowerCase(Locale.ROOT);
+        return SPACES.matcher(COMMA.matcher(lower).replaceAll(", ")).replaceAll(" ");
+    }
+
+    /**
+     * Reads the index of the cache file.
+     *
+     * @param file the cache file
+     * @return the length of the file up to the last complete record, 0 if it is missing or invalid
+     * @throws IOException if the file cannot be read
+     */
+    private long load(final File file) throws IOException {
+        if (!file.isFile()) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return 0;
+            }
+            long offset = HEADER_SIZE;
+            while (true) {
+                final long record = offset;
+                try {
+                    in.readLong();
+                    in.readDouble();
+                    in.readDouble();
+                    final int length = in.readUnsignedShort();
+                    final byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    offset += 8 + 8 + 8 + 2 + length;
+                    if (this.diskIndex.put(new String(bytes, StandardCharsets.UTF_8), record) != null) {
+                        this.deadRecords++;
+                    }
+                } catch (final EOFException e) {
+                    return record;
+                }
+            }
+        } catch (final EOFException e) {
+            return 0;
+        }
+    }
+
+    private void append(final String key, final CachedLocation entry) throws IOException {
+        final byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            return;
+        }
+        final long offset = this.disk.length();
+        this.disk.seek(offset);
+        this.disk.writeLong(entry.savedMillis);
+        this.disk.writeDouble(entry.latitude);
+        this.disk.writeDouble(entry.longitude);
+        this.disk.writeShort(bytes.length);
+        this.disk.write(bytes);
+        if (this.diskIndex.put(key, offset) != null) {
+            this.deadRecords++;
+        }
+    }
+
+    /**
+     * Rewrites the cache file with only the latest valid record of every address.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void compact() throws IOException {
+        final Map<String, CachedLocation> live = new LinkedHashMap<>();
+        for (final Map.Entry<String, Long> record : this.diskIndex.entrySet()) {
+            this.disk.seek(record.getValue());
+            final CachedLocation entry = new CachedLocation(this.disk.readLong(), this.disk.readDouble(),
+                    this.disk.readDouble());
+            if (!this.expired(entry)) {
+                live.put(record.getKey(), entry);
+            }
+        }
+        this.diskIndex.clear();
+        this.deadRecords = 0;
+        this.disk.setLength(HEADER_SIZE);
+        for (final Map.Entry<String, CachedLocation> record : live.entrySet()) {
+            this.append(record.getKey(), record.getValue());
+        }
+    }
+
+    /**
+     * Lookups answered from memory.
+     *
+     * @return the number of memory hits
+     */
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    /**
+     * Lookups answered from the file on disk.
+     *
+     * @return the number of disk hits
+     */
+    public synchronized long getDiskHits() {
+        return this.diskHits;
+    }
+
+    /**
+     * Lookups sent to the wrapped geocoder.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Addresses dropped from memory to stay within the capacity.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    /**
+     * Entries found older than the time to live.
+     *
+     * @return the number of expired entries
+     */
+    public synchronized long getExpirations() {
+        return this.expirations;
+    }
+
+    /**
+     * Number of addresses cached on disk.
+     *
+     * @return the number of distinct addresses in the cache file
+     */
+    public synchronized int size() {
+        return this.diskIndex.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.disk.close();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("geocoding cache: %d hits, %d disk hits, %d misses, %d evictions, %d expired",
+                this.hits, this.diskHits, this.misses, this.evictions, this.expirations);
+    }
+
+    /**
+     * Coordinates of one address and when they were resolved.
+     */
+    private static final class CachedLocation {
+        private final long savedMillis;
+        private final double latitude;
+        private final double longitude;
+
+        CachedLocation(final long savedMillis, final double latitude, final double longitude) {
+            this.savedMillis = savedMillis;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        /**
+         * Builds the same JSON the Google geocoder returns, a new object every time since
+         * JsonObject can be changed by the caller.
+         */
+        JsonObject toJson() {
+            final JsonObject json = new JsonObject();
+            json.addProperty(LAT, this.latitude);
+            json.addProperty(LNG, this.longitude);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package geocoding;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A reverse geocoder finding the county or district around a location from boundary polygons
+ * in a local GeoJSON file, with no network request.
+ *
+ * Every polygon is put in a packed R-tree built with sort tile recursive packing: the bounding
+ * boxes of the polygons are sorted into slices by longitude and each slice by latitude, and
+ * every run of NODE_SIZE boxes becomes one node of the next level. A lookup descends only into
+ * nodes whose box holds the location and then tests the few polygons left with a ray crossing
+ * test, so it takes microseconds.
+ *
+ * The R-tree and the polygons are only read after loading, any number of threads can look up
+ * locations at the same time.
+ *
+ * @version 1.0
+ */
+public class DistrictGeocoding implements Geocoding {
+
+    private static final int NODE_SIZE = 16;
+    private static final String FEATURES = "features";
+    private static final String GEOMETRY = "geometry";
+    private static final String PROPERTIES = "properties";
+    private static final String TYPE = "type";
+    private static final String COORDINATES = "coordinates";
+    private static final String POLYGON = "Polygon";
+    private static final String MULTI_POLYGON = "MultiPolygon";
+
+    private final Geocoding fallback;
+    private final String[] names;
+    // one entry per polygon, a multi polygon feature has several
+    private final int[] feature;
+    private final double[][][] rings;
+    // boxes of every level of the tree, four values per box, level 0 holds the polygons in tree order
+    private final double[][] levels;
+    private final int[] order;
+
+    /**
+     * Loads the districts of a GeoJSON file with no geocoder behind it.
+     *
+     * @param geojson      a GeoJSON FeatureCollection of Polygon and MultiPolygon features
+     * @param nameProperty the feature property holding the district name
+     * @throws IOException if the file cannot be read or is not a feature collection of polygons
+     */
+    public DistrictGeocoding(final File geojson, final String nameProperty) throws IOException {
+        this(geojson, nameProperty, null);
+    }
+
+    /**
+     * Loads the districts of a GeoJSON file.
+     *
+     * @param geojson      a GeoJSON FeatureCollection of Polygon and MultiPolygon features
+     * @param nameProperty the feature property holding the district name
+     * @param fallback     the geocoder used for addresses, null for none
+     * @throws IOException if the file cannot be read or is not a feature collection of polygons
+     */
+    public DistrictGeocoding(final File geojson, final String nameProperty, final Geocoding fallback)
+            throws IOException {
+        this.fallback = fallback;
+        final JsonArray features;
+        try (Reader in = new InputStreamReader(new FileInputStream(geojson), StandardCharsets.UTF_8)) {
+            features = new JsonParser().parse(in).getAsJsonObject().getAsJsonArray(FEATURES);
+        } catch (final RuntimeException e) {
+            throw new IOException("Not a GeoJSON feature collection: " + geojson, e);
+        }
+        if (features == null) {
+            throw new IOException("Not a GeoJSON feature collection: " + geojson);
+        }
+        final List<String> names = new ArrayList<>();
+        final List<Integer> feature = new ArrayList<>();
+        final List<double[][]> rings = new ArrayList<>();
+        for (int f = 0; f < features.size(); f++) {
+            try {
+                final JsonObject object = features.get(f).getAsJsonObject();
+                final JsonElement geometry = object.get(GEOMETRY);
+                if (geometry == null || geometry.isJsonNull()) {
+                    continue;
+                }
+                final String type = geometry.getAsJsonObject().get(TYPE).getAsString();
+                final JsonArray coordinates = geometry.getAsJsonObject().getAsJsonArray(COORDINATES);
+                final JsonElement name = object.getAsJsonObject(PROPERTIES).get(nameProperty);
+                final int index = names.size();
+                names.add(name == null || name.isJsonNull() ? "" : name.getAsString());
+                final List<JsonArray> polygons = new ArrayList<>();
+                if (POLYGON.equals(type)) {
+                    polygons.add(coordinates);
+                } else if (MULTI_POLYGON.equals(type)) {
+                    for (final JsonElement part : coordinates) {
+                        polygons.add(part.getAsJsonArray());
+                    }
+                }
+                for (final JsonArray polygon : polygons) {
+                    final double[][] polygonRings = polygon(polygon);
+                    if (polygonRings != null) {
+                        rings.add(polygonRings);
+                        feature.add(index);
+                    }
+                }
+            } catch (final RuntimeException e) {
+                throw new IOException("Feature " + f + " is not a valid Polygon or MultiPolygon: " + geojson, e);
+            }
+        }
+        this.names = names.toArray(new String[0]);
+        this.rings = rings.toArray(new double[0][][]);
+        this.feature = new int[feature.size()];
+        for (int i = 0; i < this.feature.length; i++) {
+            this.feature[i] = feature.get(i);
+        }
+        this.order = new int[this.rings.length];
+        this.levels = this.pack();
+    }
+
+    /**
+     * Reads the rings of one polygon, each as longitudes followed by latitudes. Empty holes are
+     * left out.
+     *
+     * @return the outer ring followed by the holes, or null if the polygon has no outer ring
+     */
+    private static double[][] polygon(final JsonArray coordinates) {
+        final List<double[]> rings = new ArrayList<>();
+        for (int r = 0; r < coordinates.size(); r++) {
+            final JsonArray ring = coordinates.get(r).getAsJsonArray();
+            final int n = ring.size();
+            if (n == 0) {
+                if (r == 0) {
+                    return null;
+                }
+                continue;
+            }
+            final double[] points = new double[2 * n];
+            for (int i = 0; i < n; i++) {
+                final JsonArray point = ring.get(i).getAsJsonArray();
+                points[i] = point.get(0).getAsDouble();
+                points[n + i] = point.get(1).getAsDouble();
+            }
+            rings.add(points);
+        }
+        return rings.isEmpty() ? null : rings.toArray(new double[0][]);
+    }
+
+    /**
+     * Builds every level of the R-tree with sort tile recursive packing.
+     *
+     * @return the boxes of every level from the polygons up to the root
+     */
+    private double[][] pack() {
+        final int n = this.rings.length;
+        final double[][] boxes = new double[n][];
+        final Integer[] sorted = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            boxes[i] = bounds(this.rings[i][0]);
+            sorted[i] = i;
+        }
+        // slices of whole nodes by longitude, each slice then sorted by latitude
+        Arrays.sort(sorted, Comparator.comparingDouble(i -> boxes[i][0] + boxes[i][2]));
+        final int nodes = (n + NODE_SIZE - 1) / NODE_SIZE;
+        final int sliceSize = NODE_SIZE * (int) Math.ceil(Math.sqrt(nodes));
+        for (int from = 0; from < n; from += sliceSize) {
+            Arrays.sort(sorted, from, Math.min(n, from + sliceSize),
+                    Comparator.comparingDouble(i -> boxes[i][1] + boxes[i][3]));
+        }
+        final List<double[]> levels = new ArrayList<>();
+        double[] level = new double[4 * n];
+        for (int i = 0; i < n; i++) {
+            this.order[i] = sorted[i];
+            System.arraycopy(boxes[sorted[i]], 0, level, 4 * i, 4);
+        }
+        levels.add(level);
+        while (level.length > 4) {
+            final int count = level.length / 4;
+            final double[] parent = new double[4 * ((count + NODE_SIZE - 1) / NODE_SIZE)];
+            for (int node = 0; node < parent.length / 4; node++) {
+                parent[4 * node] = parent[4 * node + 1] = Double.POSITIVE_INFINITY;
+                parent[4 * node + 2] = parent[4 * node + 3] = Double.NEGATIVE_INFINITY;
+                for (int child = node * NODE_SIZE; child < Math.min(count, (node + 1) * NODE_SIZE); child++) {
+                    parent[4 * node] = Math.min(parent[4 * node], level[4 * child]);
+                    parent[4 * node + 1] = Math.min(parent[4 * node + 1], level[4 * child + 1]);
+                    parent[4 * node + 2] = Math.max(parent[4 * node + 2], level[4 * child + 2]);
+                    parent[4 * node + 3] = Math.max(parent[4 * node + 3], level[4 * child + 3]);
+                }
+            }
+            levels.add(parent);
+            level = parent;
+        }
+        return levels.toArray(new double[0][]);
+    }
+
+    /**
+     * Box of a ring as minimum longitude, minimum latitude, maximum longitude, maximum latitude.
+     */
+    private static double[] bounds(final double[] ring) {
+        final int n = ring.length / 2;
+        final double[] box = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = 0; i < n; i++) {
+            box[0] = Math.min(box[0], ring[i]);
+            box[1] = Math.min(box[1], ring[n + i]);
+            box[2] = Math.max(box[2], ring[i]);
+            box[3] = Math.max(box[3], ring[n + i]);
+        }
+        return box;
+    }
+
+    /**
+     * Finds the district holding a location.
+     *
+     * @param latitude  the location latitude
+     * @param longitude the location longitude
+     * @return the index of the district, or -1 if no district holds the location
+     */
+    public int locate(final double latitude, final double longitude) {
+        if (this.rings.length == 0) {
+            return -1;
+        }
+        return this.locate(this.levels.length - 1, 0, latitude, longitude);
+    }
+
+    private int locate(final int depth, final int node, final double latitude, final double longitude) {
+        final double[] level = this.levels[depth];
+        final int count = level.length / 4;
+        final int from = depth == this.levels.length - 1 ? 0 : node * NODE_SIZE;
+        final int to = depth == this.levels.length - 1 ? count : Math.min(count, from + NODE_SIZE);
+        for (int i = from; i < to; i++) {
+            if (longitude < level[4 * i] || latitude < level[4 * i + 1]
+                    || longitude > level[4 * i + 2] || latitude > level[4 * i + 3]) {
+                continue;
+            }
+            if (depth == 0) {
+                final int polygon = this.order[i];
+                if (contains(this.rings[polygon], latitude, longitude)) {
+                    return this.feature[polygon];
+                }
+            } else {
+                final int found = this.locate(depth - 1, i, latitude, longitude);
+                if (found >= 0) {
+                    return found;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Ray crossing test over every ring of a polygon, a location inside a hole crosses the
+     * outer ring and the hole and so ends up outside.
+     */
+    private static boolean contains(final double[][] rings, final double latitude, final double longitude) {
+        boolean inside = false;
+        for (final double[] ring : rings) {
+            final int n = ring.length / 2;
+            for (int i = 0, j = n - 1; i < n; j = i++) {
+                final double yi = ring[n + i], yj = ring[n + j];
+                if ((yi > latitude) != (yj > latitude)
+                        && longitude < (ring[j] - ring[i]) * (latitude - yi) / (yj - yi) + ring[i]) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Name of a district.
+     *
+     * @param district the index of the district
+     * @return the district name
+     */
+    public String getName(final int district) {
+        return this.names[district];
+    }
+
+    /**
+     * Number of districts loaded.
+     *
+     * @return the number of features in the file
+     */
+    public int size() {
+        return this.names.length;
+    }
+
+    @Override
+    public String getDistrict(final double latitude, final double longitude) throws GeocodingException {
+        final int district = this.locate(latitude, longitude);
+        if (district < 0) {
+            throw new GeocodingException();
+        }
+        return this.names[district];
+    }
+
+    /**
+     * Addresses are not in the boundary file, they are asked from the fallback geocoder.
+     */
+    @Override
+    public JsonObject getLatLng(final String address) throws GeocodingException {
+        if (this.fallback == null) {
+            throw new GeocodingException();
+        }
+        return this.fallback.getLatLng(address);
+    }
+}
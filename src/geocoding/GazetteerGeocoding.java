@@ -0,0 +1,362 @@
+package geocoding;
+
+import com.google.gson.JsonObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A geocoder answering from a local gazetteer of US places, ZIP code centroids and street
+ * address ranges, so addresses resolve without any network request. An address the gazetteer
+ * does not know is passed to a remote geocoder if one is given.
+ *
+ * The gazetteer is a tab separated text file with one entry per line, lines starting with # are
+ * comments:
+ *
+ * <pre>
+ * PLACE   name  state  latitude  longitude  [population]
+ * ZIP     zip   latitude  longitude
+ * STREET  street  city  state  zip  from  to  fromLatitude  fromLongitude  toLatitude  toLongitude
+ * </pre>
+ *
+ * A street line gives the house numbers at both ends of a block and where those ends are,
+ * house numbers between them are placed proportionally along the block. States may be given by
+ * name or by postal abbreviation.
+ *
+ * @version 1.0
+ */
+public class GazetteerGeocoding implements Geocoding {
+
+    private static final String PLACE = "PLACE";
+    private static final String ZIP = "ZIP";
+    private static final String STREET = "STREET";
+    private static final String LAT = "lat";
+    private static final String LNG = "lng";
+    private static final Pattern ZIP_CODE = Pattern.compile("(?:^|\\s)(\\d{5})(?:-\\d{4})?$");
+    // at most nine digits so the number fits in an int, a longer one is not taken for a house number
+    private static final Pattern HOUSE_NUMBER = Pattern.compile("^(\\d{1,9})[a-z]?\\s+(.+)$");
+    private static final Map<String, String> STATES = new HashMap<>();
+    private static final Map<String, String> SUFFIXES = new HashMap<>();
+
+    static {
+        final String[] states = {"alabama", "al", "alaska", "ak", "arizona", "az", "arkansas", "ar",
+            "california", "ca", "colorado", "co", "connecticut", "ct", "delaware", "de",
+            "district of columbia", "dc", "florida", "fl", "georgia", "ga", "hawaii", "hi", "idaho", "id",
+            "illinois", "il", "indiana", "in", "iowa", "ia", "kansas", "ks", "kentucky", "ky",
+            "louisiana", "la", "maine", "me", "maryland", "md", "massachusetts", "ma", "michigan", "mi",
+            "minnesota", "mn", "mississippi", "ms", "missouri", "mo", "montana", "mt", "nebraska", "ne",
+            "nevada", "nv", "new hampshire", "nh", "new jersey", "nj", "new mexico", "nm", "new york", "ny",
+            "north carolina", "nc", "north dakota", "nd", "ohio", "oh", "oklahoma", "ok", "oregon", "or",
+            "pennsylvania", "pa", "rhode island", "ri", "south carolina", "sc", "south dakota", "sd",
+            "tennessee", "tn", "texas", "tx", "utah", "ut", "vermont", "vt", "virginia", "va",
+            "washington", "wa", "west virginia", "wv", "wisconsin", "wi", "wyoming", "wy"};
+        for (int i = 0; i < states.length; i += 2) {
+            STATES.put(states[i], states[i + 1]);
+            STATES.put(states[i + 1], states[i + 1]);
+        }
+        final String[] suffixes = {"street", "st", "avenue", "ave", "av", "ave", "road", "rd", "boulevard", "blvd",
+            "drive", "dr", "lane", "ln", "court", "ct", "place", "pl", "terrace", "ter", "parkway", "pkwy",
+            "highway", "hwy", "circle", "cir", "square", "sq", "north", "n", "south", "s", "east", "e",
+            "west", "w"};
+        for (int i = 0; i < suffixes.length; i += 2) {
+            SUFFIXES.put(suffixes[i], suffixes[i + 1]);
+        }
+    }
+
+    private final Geocoding remote;
+    private final Map<String, double[]> places = new HashMap<>();
+    // place keys in sorted order so a city given without a State is found by prefix
+    private final String[] placeKeys;
+    private final Map<String, Long> population = new HashMap<>();
+    private final Map<String, double[]> zips = new HashMap<>();
+    private final Map<String, List<StreetRange>> streets = new HashMap<>();
+
+    private long offlineHits;
+    private long remoteLookups;
+
+    /**
+     * Loads a gazetteer file with no remote geocoder behind it, addresses it does not know fail.
+     *
+     * @param gazetteer the gazetteer file
+     * @throws IOException if the file cannot be read
+     */
+    public GazetteerGeocoding(final File gazetteer) throws IOException {
+        this(gazetteer, null);
+    }
+
+    /**
+     * Loads a gazetteer file.
+     *
+     * @param gazetteer the gazetteer file
+     * @param remote    the geocoder asked for addresses missing from the gazetteer, null for none
+     * @throws IOException if the file cannot be read or holds a malformed line
+     */
+    public GazetteerGeocoding(final File gazetteer, final Geocoding remote) throws IOException {
+        this.remote = remote;
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(new FileInputStream(gazetteer), StandardCharsets.UTF_8))) {
+            String line;
+            int number = 0;
+            while ((line = in.readLine()) != null) {
+                number++;
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                try {
+                    this.add(line.split("\t"));
+                } catch (final RuntimeException e) {
+                    throw new IOException("Malformed gazetteer line " + number + ": " + line, e);
+                }
+            }
+        }
+        this.placeKeys = this.places.keySet().toArray(new String[0]);
+        Arrays.sort(this.placeKeys);
+    }
+
+    private void add(final String[] fields) {
+        switch (fields[0]) {
+            case PLACE:
+                final String key = placeKey(fields[1], state(fields[2]));
+                this.places.put(key, point(fields[3], fields[4]));
+                this.population.put(key, fields.length > 5 ? Long.parseLong(fields[5]) : 0L);
+                break;
+            case ZIP:
+                this.zips.put(fields[1], point(fields[2], fields[3]));
+                break;
+            case STREET:
+                final StreetRange range = new StreetRange(Integer.parseInt(fields[5]), Integer.parseInt(fields[6]),
+                        point(fields[7], fields[8]), point(fields[9], fields[10]));
+                final String street = street(fields[1]);
+                this.addStreet(street + "|" + fields[4], range);
+                this.addStreet(street + "|" + placeKey(fields[2], state(fields[3])), range);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown entry type " + fields[0]);
+        }
+    }
+
+    private void addStreet(final String key, final StreetRange range) {
+        List<StreetRange> ranges = this.streets.get(key);
+        if (ranges == null) {
+            ranges = new ArrayList<>(1);
+            this.streets.put(key, ranges);
+        }
+        ranges.add(range);
+    }
+
+    /**
+     * Not in the gazetteer, it is always asked from the remote geocoder.
+     */
+    @Override
+    public String getDistrict(final double latitude, final double longitude) throws GeocodingException {
+        if (this.remote == null) {
+            throw new GeocodingException();
+        }
+        return this.remote.getDistrict(latitude, longitude);
+    }
+
+    @Override
+    public JsonObject getLatLng(final String address) throws GeocodingException {
+        final double[] point = this.find(address);
+        if (point != null) {
+            synchronized (this) {
+                this.offlineHits++;
+            }
+            final JsonObject json = new JsonObject();
+            json.addProperty(LAT, point[0]);
+            json.addProperty(LNG, point[1]);
+            return json;
+        }
+        if (this.remote == null) {
+            throw new GeocodingException();
+        }
+        synchronized (this) {
+            this.remoteLookups++;
+        }
+        return this.remote.getLatLng(address);
+    }
+
+    /**
+     * Resolves an address from the gazetteer, trying the street address first, then the place
+     * and then the ZIP code.
+     *
+     * @param address the address entered by the user
+     * @return latitude and longitude, or null if the gazetteer does not know the address
+     */
+    double[] find(final String address) {
+        final List<String> parts = new ArrayList<>(Arrays.asList(CachingGeocoding.normalize(address).split(", ")));
+        String zip = null;
+        final Matcher zipCode = ZIP_CODE.matcher(parts.get(parts.size() - 1));
+        if (zipCode.find()) {
+            zip = zipCode.group(1);
+            final String rest = parts.get(parts.size() - 1).substring(0, zipCode.start()).trim();
+            parts.set(parts.size() - 1, rest);
+            if (rest.isEmpty()) {
+                parts.remove(parts.size() - 1);
+            }
+        }
+        String state = null;
+        if (!parts.isEmpty()) {
+            final String last = parts.get(parts.size() - 1);
+            state = STATES.get(last);
+            if (state != null) {
+                parts.remove(parts.size() - 1);
+            } else {
+                // "springfield il" written without a comma before the State
+                final int space = last.lastIndexOf(' ');
+                if (space > 0 && STATES.containsKey(last.substring(space + 1))) {
+                    state = STATES.get(last.substring(space + 1));
+                    parts.set(parts.size() - 1, last.substring(0, space));
+                }
+            }
+        }
+        final String city = parts.size() > 1 ? parts.get(parts.size() - 1) : null;
+
+        if (!parts.isEmpty()) {
+            final Matcher house = HOUSE_NUMBER.matcher(parts.get(0));
+            if (house.matches()) {
+                final String street = street(house.group(2));
+                final int number = Integer.parseInt(house.group(1));
+                double[] point = zip == null ? null : this.interpolate(street + "|" + zip, number);
+                if (point == null && city != null && state != null) {
+                    point = this.interpolate(street + "|" + placeKey(city, state), number);
+                }
+                if (point != null) {
+                    return point;
+                }
+            }
+        }
+        final String place = city != null ? city : parts.size() == 1 ? parts.get(0) : null;
+        if (place != null) {
+            final double[] point = state != null ? this.places.get(placeKey(place, state)) : this.largestPlace(place);
+            if (point != null) {
+                return point;
+            }
+        }
+        return zip == null ? null : this.zips.get(zip);
+    }
+
+    /**
+     * Places a house number along the block of a street holding it.
+     *
+     * @return latitude and longitude, or null if no block of the street holds the number
+     */
+    private double[] interpolate(final String key, final int number) {
+        final List<StreetRange> ranges = this.streets.get(key);
+        if (ranges == null) {
+            return null;
+        }
+        for (final StreetRange range : ranges) {
+            final int low = Math.min(range.from, range.to);
+            final int high = Math.max(range.from, range.to);
+            if (number < low || number > high) {
+                continue;
+            }
+            final double t = range.to == range.from ? 0.5 : (double) (number - range.from) / (range.to - range.from);
+            return new double[] {range.start[0] + t * (range.end[0] - range.start[0]),
+                range.start[1] + t * (range.end[1] - range.start[1])};
+        }
+        return null;
+    }
+
+    /**
+     * Finds a place given without a State, taking the most populous State having a place of that
+     * name.
+     */
+    private double[] largestPlace(final String name) {
+        final String prefix = name + "|";
+        int i = Arrays.binarySearch(this.placeKeys, prefix);
+        i = i < 0 ? -i - 1 : i;
+        String best = null;
+        for (; i < this.placeKeys.length && this.placeKeys[i].startsWith(prefix); i++) {
+            if (best == null || this.population.get(this.placeKeys[i]) > this.population.get(best)) {
+                best = this.placeKeys[i];
+            }
+        }
+        return best == null ? null : this.places.get(best);
+    }
+
+    private static String placeKey(final String name, final String state) {
+        return CachingGeocoding.normalize(name) + "|" + state;
+    }
+
+    private static String state(final String name) {
+        final String state = STATES.get(CachingGeocoding.normalize(name));
+        if (state == null) {
+            throw new IllegalArgumentException("Unknown State " + name);
+        }
+        return state;
+    }
+
+    /**
+     * Writes a street name the way the index keys it, with suffixes and directions abbreviated.
+     */
+    private static String street(final String name) {
+        final String[] words = CachingGeocoding.normalize(name).replace(".", "").split(" ");
+        final StringBuilder street = new StringBuilder();
+        for (final String word : words) {
+            final String suffix = SUFFIXES.get(word);
+            if (street.length() > 0) {
+                street.append(' ');
+            }
+            street.append(suffix == null ? word : suffix);
+        }
+        return street.toString();
+    }
+
+    private static double[] point(final String latitude, final String longitude) {
+        return new double[] {Double.parseDouble(latitude), Double.parseDouble(longitude)};
+    }
+
+    /**
+     * Addresses answered from the gazetteer.
+     *
+     * @return the number of offline hits
+     */
+    public synchronized long getOfflineHits() {
+        return this.offlineHits;
+    }
+
+    /**
+     * Addresses passed to the remote geocoder.
+     *
+     * @return the number of remote lookups
+     */
+    public synchronized long getRemoteLookups() {
+        return this.remoteLookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("gazetteer: %d places, %d zip codes, %d offline hits, %d remote lookups",
+                this.places.size(), this.zips.size(), this.offlineHits, this.remoteLookups);
+    }
+
+    /**
+     * House numbers along one block of a street and where the ends of the block are.
+     */
+    private static final class StreetRange {
+        private final int from;
+        private final int to;
+        private final double[] start;
+        private final double[] end;
+
+        StreetRange(final int from, final int to, final double[] start, final double[] end) {
+            this.from = from;
+            this.to = to;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -17,8 +17,10 @@ public class GeocodingImpl implements Geocoding {
     private static final String ITALY_SHORT_NAME = "IT";
     private static final String TYPES = "types";
     private static final String SHORT_NAME = "shortName";
-    private String response;
-    private String district = "";
+    // one context and HTTP client shared by every request, the context is thread safe
+    private static final GeoApiContext CONTEXT = new GeoApiContext.Builder()
+            .apiKey(KEY)
+            .build();
 
     public GeocodingImpl() {
     }
@@ -27,22 +29,24 @@ public class GeocodingImpl implements Geocoding {
     public String getDistrict(final double latitude, final double longitude) throws GeocodingException {
 
         boolean inItaly = false;
+        String district = "";
+        final String response;
 
         try {
-            this.reverseGeocode(latitude, longitude);
+            response = this.reverseGeocode(latitude, longitude);
         } catch (final Exception e) {
             throw new GeocodingException();
         }
 
         final JsonParser parser = new JsonParser();
-        final JsonElement jsonTree = parser.parse(this.response);
+        final JsonElement jsonTree = parser.parse(response);
         final JsonArray array = jsonTree.getAsJsonArray();
         for (int i = 0; i < array.size(); i++) {
             final JsonObject object = (JsonObject) array.get(i);
             final Object type = object.get(TYPES);
             final String typeString = type.toString();
             if (typeString.contains(AREA)) {
-                this.district = object.get(SHORT_NAME).toString().substring(1, 3);
+                district = object.get(SHORT_NAME).toString().substring(1, 3);
             }
             if (typeString.contains(COUNTRY) && object.get(SHORT_NAME).toString().substring(1, 3).equals(ITALY_SHORT_NAME)) {
                 inItaly = true;
@@ -53,19 +57,20 @@ public class GeocodingImpl implements Geocoding {
             throw new GeocodingException();
         }
 
-        return this.district;
+        return district;
     }
 
     @Override
     public JsonObject getLatLng(final String address) throws GeocodingException {
 
+        final String response;
         try {
-            this.geocode(address);
+            response = this.geocode(address);
         } catch (final Exception e) {
             throw new GeocodingException();
         }
 
-        final JsonObject json = new JsonParser().parse(this.response).getAsJsonObject();
+        final JsonObject json = new JsonParser().parse(response).getAsJsonObject();
         return json;
 
     }
@@ -75,18 +80,16 @@ public class GeocodingImpl implements Geocoding {
      *
      * @param latitude  latitude value
      * @param longitude longitude value
+     * @return the address components of the location as JSON
      * @throws Exception if a geocoding error occurred
      */
-    private void reverseGeocode(final double latitude, final double longitude) throws Exception {
-        final GeoApiContext context = new GeoApiContext.Builder()
-                .apiKey(KEY)
-                .build();
+    private String reverseGeocode(final double latitude, final double longitude) throws Exception {
         final LatLng latlng = new LatLng(latitude, longitude);
         final GeocodingResult[] results;
         try {
-            results = GeocodingApi.reverseGeocode(context, latlng).await();
+            results = GeocodingApi.reverseGeocode(CONTEXT, latlng).await();
             final Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            this.response = gson.toJson(results[0].addressComponents);
+            return gson.toJson(results[0].addressComponents);
         } catch (final Exception e) {
             throw e;
         }
@@ -96,17 +99,15 @@ public class GeocodingImpl implements Geocoding {
      * Sends a geocode request obtaining latitude and longitude values.
      *
      * @param address a string representing the address
+     * @return the location of the address as JSON
      * @throws Exception if a geocoding error occurred
      */
-    private void geocode(final String address) throws Exception {
-        final GeoApiContext context = new GeoApiContext.Builder()
-                .apiKey(KEY)
-                .build();
+    private String geocode(final String address) throws Exception {
         final GeocodingResult[] results;
         try {
-            results = GeocodingApi.geocode(context, address).await();
+            results = GeocodingApi.geocode(CONTEXT, address).await();
             final Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            this.response = gson.toJson(results[0].geometry.location);
+            return gson.toJson(results[0].geometry.location);
         } catch (final Exception e) {
             throw e;
         }